@@ -9,9 +9,71 @@ public class Constants {
     public final static int REQUEST_FINE_LOCATION = 3055;
     // scan period in milliseconds
     public final static int SCAN_PERIOD = 5000;
+    // hardware batching delay of scan results in milliseconds
+    public final static int SCAN_REPORT_DELAY = 1000;
+    // minimum time between two scan list updates in milliseconds
+    public final static int SCAN_UI_INTERVAL = 500;
+    // default ATT MTU
+    public final static int DEFAULT_MTU = 23;
+    // largest ATT MTU requested after service discovery
+    public final static int MAX_MTU = 517;
+    // ATT opcode and handle bytes of a write or notification
+    public final static int ATT_HEADER_SIZE = 3;
+    // longest attribute value allowed by the ATT protocol
+    public final static int MAX_ATTRIBUTE_SIZE = 512;
+    // max peripherals connected at the same time
+    public final static int MAX_ACTIVE_CONNECTIONS = 7;
+    // max connections being established at the same time
+    public final static int MAX_PARALLEL_CONNECTS = 2;
+    // connect timeout in milliseconds
+    public final static int CONNECT_TIMEOUT = 10000;
+    // messages of at least this many fragments raise the connection priority
+    public final static int BULK_FRAGMENT_COUNT = 8;
+    // time a high priority link stays idle before it drops back to balanced in milliseconds
+    public final static int PRIORITY_IDLE_TIMEOUT = 1000;
+    // first reconnect delay in milliseconds, doubled on every attempt
+    public final static int RECONNECT_BASE_DELAY = 500;
+    // longest reconnect delay in milliseconds
+    public final static int RECONNECT_MAX_DELAY = 30000;
+    // reconnect attempts before the device is dropped
+    public final static int RECONNECT_MAX_ATTEMPTS = 10;
+    // max devices kept in the scan registry
+    public final static int REGISTRY_MAX_DEVICES = 256;
+    // scanned devices not seen for this time in milliseconds are removed
+    public final static int REGISTRY_TTL = 30000;
+    // devices of the background scan not seen for this time in milliseconds are removed, kept across restarts
+    public final static int BACKGROUND_REGISTRY_TTL = 6 * 60 * 60 * 1000;
+    // weight of the newest RSSI sample in the smoothed RSSI
+    public final static float RSSI_SMOOTHING = 0.25f;
+    // max notification frames waiting per subscribed central
+    public final static int NOTIFY_QUEUE_CAPACITY = 4096;
+    // delay before a central whose notification was rejected is tried again in milliseconds
+    public final static int NOTIFY_RETRY_DELAY = 10;
+    // time to wait for onNotificationSent before the next frame is released in milliseconds
+    public final static int NOTIFY_SENT_TIMEOUT = 1000;
+    // max value assembled from prepared writes in bytes
+    public final static int LONG_WRITE_MAX_SIZE = 8192;
+    // max written fragments waiting for the write worker of the GATT server
+    public final static int WRITE_QUEUE_CAPACITY = 256;
+    // time a write request waits for room in the write queue in milliseconds
+    public final static int WRITE_QUEUE_TIMEOUT = 200;
+    // pooled reassembly buffers kept per size class
+    public final static int FRAME_POOL_SIZE = 4;
+    // fast advertising time after start or a disconnect in milliseconds, slower advertising after it
+    public final static int ADVERTISE_FAST_PERIOD = 30000;
+    // first delay before advertising is started again after a failure in milliseconds, doubled on every attempt
+    public final static int ADVERTISE_RETRY_DELAY = 1000;
+    // advertising start attempts after a failure before giving up
+    public final static int ADVERTISE_MAX_RETRIES = 5;
+    // time each broadcast message stays in the advertising before the next one in milliseconds
+    public final static int BROADCAST_HOLD_TIME = 2000;
+    // max broadcast messages waiting for their turn in the advertising
+    public final static int BROADCAST_QUEUE_CAPACITY = 16;
 
     public static String SERVICE_STRING = "CB660002-4339-FF22-A1ED-DEBFED27BDB4";
     public static final UUID SERVICE_UUID = UUID.fromString(SERVICE_STRING);
     public static String CHARACTERISTIC_UUID = "CB660004-4339-FF22-A1ED-DEBFED27BDB4";
+    public static final UUID CMD_CHARACTERISTIC_UUID = UUID.fromString(CHARACTERISTIC_UUID);
     public static String CONFIG_UUID = "00005609-0000-1001-8080-00705c9b34cb";
+    public static final UUID CONFIG_DESCRIPTOR_UUID = UUID.fromString(CONFIG_UUID);
 }
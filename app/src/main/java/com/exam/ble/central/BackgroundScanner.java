@@ -0,0 +1,132 @@
+package com.exam.ble.central;
+
+import android.Manifest;
+import android.app.PendingIntent;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothManager;
+import android.bluetooth.le.BluetoothLeScanner;
+import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanFilter;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.util.Log;
+
+import androidx.core.content.ContextCompat;
+
+import java.util.List;
+
+/**
+ * Scan delivered to ScanResultReceiver through a PendingIntent, Android O+.
+ * 시스템이 scan 을 들고 있으므로 activity 나 프로세스가 없어도 결과가 전달되고,
+ * 결과는 RegistryStore 에 저장된다. 화면이 꺼져도 결과를 받으려면 하드웨어 필터가 있어야 한다.
+ */
+public class BackgroundScanner {
+    private final static String TAG = BackgroundScanner.class.getSimpleName();
+
+    public final static String ACTION_SCAN_RESULT = "com.exam.ble.central.ACTION_SCAN_RESULT";
+
+    private final static String PREFS_NAME = "ble_background_scan";
+    // wall clock time the scan was started, 0 if stopped
+    private final static String KEY_STARTED = "started";
+    private final static int REQUEST_SCAN = 1;
+
+    private final Context context;
+
+    public BackgroundScanner(Context _context) {
+        context = _context.getApplicationContext();
+    }
+
+    public static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.O;
+    }
+
+    /**
+     * Start the scan, a running background scan is replaced
+     * @param _spec devices looked for, compiled into the hardware filters
+     * @param _profile scan mode and report delay, the duration and the duty cycle are not used
+     * @return 0 if started, ScanCallback.SCAN_FAILED_* otherwise
+     */
+    public int start(ScanMatchSpec _spec, ScanProfile _profile) {
+        if (!isSupported()) {
+            return ScanCallback.SCAN_FAILED_FEATURE_UNSUPPORTED;
+        }
+        if (ContextCompat.checkSelfPermission(context, Manifest.permission.ACCESS_FINE_LOCATION) != PackageManager.PERMISSION_GRANTED) {
+            Log.e(TAG, "Background scan failed: no fine location permission");
+            return ScanCallback.SCAN_FAILED_APPLICATION_REGISTRATION_FAILED;
+        }
+        // Android 10 부터 앱이 백그라운드에 있을 때 결과를 받으려면 별도 권한이 필요하다
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q
+                && ContextCompat.checkSelfPermission(context, Manifest.permission.ACCESS_BACKGROUND_LOCATION) != PackageManager.PERMISSION_GRANTED) {
+            Log.e(TAG, "Background scan failed: no background location permission");
+            return ScanCallback.SCAN_FAILED_APPLICATION_REGISTRATION_FAILED;
+        }
+        BluetoothAdapter adapter = getAdapter();
+        if (adapter == null || !adapter.isEnabled()) {
+            return ScanCallback.SCAN_FAILED_INTERNAL_ERROR;
+        }
+        BluetoothLeScanner scanner = adapter.getBluetoothLeScanner();
+        PendingIntent pending_intent = pendingIntent();
+        scanner.stopScan(pending_intent);
+
+        List<ScanFilter> filters = _spec.toScanFilters(ScanMatchSpec.LEVEL_FULL);
+        int result = scanner.startScan(filters, _profile.toScanSettings(adapter), pending_intent);
+        if (result == ScanCallback.SCAN_FAILED_OUT_OF_HARDWARE_RESOURCES) {
+            // the receiver keeps what the coarse filters pass, there is no software match in the background
+            Log.w(TAG, "Out of hardware scan filters, using coarse filters");
+            filters = _spec.toScanFilters(ScanMatchSpec.LEVEL_COARSE);
+            result = scanner.startScan(filters, _profile.toScanSettings(adapter), pending_intent);
+        }
+        if (result != 0) {
+            Log.e(TAG, "Background scan failed with code " + result);
+            setStarted(0);
+            return result;
+        }
+        setStarted(System.currentTimeMillis());
+        return 0;
+    }
+
+    public void stop() {
+        setStarted(0);
+        BluetoothAdapter adapter = getAdapter();
+        if (!isSupported() || adapter == null || !adapter.isEnabled()) {
+            return;
+        }
+        adapter.getBluetoothLeScanner().stopScan(pendingIntent());
+    }
+
+    /**
+     * @return true if the scan was started and not stopped or failed since, a Bluetooth restart also ends it
+     */
+    public boolean isActive() {
+        return getPrefs().getLong(KEY_STARTED, 0) != 0;
+    }
+
+    /**
+     * Called by ScanResultReceiver when the system reports a scan error
+     */
+    void onFailed(int _error) {
+        Log.e(TAG, "Background scan failed with code " + _error);
+        setStarted(0);
+    }
+
+    private PendingIntent pendingIntent() {
+        Intent intent = new Intent(context, ScanResultReceiver.class).setAction(ACTION_SCAN_RESULT);
+        return PendingIntent.getBroadcast(context, REQUEST_SCAN, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+
+    private BluetoothAdapter getAdapter() {
+        BluetoothManager ble_manager = (BluetoothManager) context.getSystemService(Context.BLUETOOTH_SERVICE);
+        return ble_manager == null ? null : ble_manager.getAdapter();
+    }
+
+    private SharedPreferences getPrefs() {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    private void setStarted(long _time) {
+        getPrefs().edit().putLong(KEY_STARTED, _time).apply();
+    }
+}
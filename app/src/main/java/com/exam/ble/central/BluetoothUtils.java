@@ -10,8 +10,8 @@ import java.util.UUID;
 
 import androidx.annotation.Nullable;
 
-import static com.exam.ble.Constants.CHARACTERISTIC_UUID;
-import static com.exam.ble.Constants.SERVICE_STRING;
+import static com.exam.ble.Constants.CMD_CHARACTERISTIC_UUID;
+import static com.exam.ble.Constants.SERVICE_UUID;
 
 public class BluetoothUtils {
 
@@ -38,14 +38,42 @@ public class BluetoothUtils {
         return matching_characteristics;
     }
 
+    /**
+     * Put the characteristics of the server's service into the cache
+     * 서비스 탐색 후 한번만 호출하고, 이후에는 cache 에서 UUID 로 찾는다.
+     * @param _gatt gatt with discovered services
+     * @param _cache cache of the connection
+     */
+    public static void cacheCharacteristics(BluetoothGatt _gatt, HandleCache<BluetoothGattCharacteristic> _cache) {
+        BluetoothGattService service = findGattService(_gatt.getServices());
+        if (service == null) {
+            return;
+        }
+
+        for (BluetoothGattCharacteristic characteristic : service.getCharacteristics()) {
+            _cache.put(characteristic.getUuid(), characteristic);
+        }
+    }
+
     /**
      * Find the given uuid characteristic
      * @param _gatt gatt instance
      * @param _uuid_string uuid to query as string
-     * @return
+     * @return found characteristic, null if not found
      */
     @Nullable
     public static BluetoothGattCharacteristic findCharacteristic(BluetoothGatt _gatt, String _uuid_string) {
+        return findCharacteristic(_gatt, UUID.fromString(_uuid_string));
+    }
+
+    /**
+     * Find the given uuid characteristic
+     * @param _gatt gatt instance
+     * @param _uuid uuid to query
+     * @return found characteristic, null if not found
+     */
+    @Nullable
+    public static BluetoothGattCharacteristic findCharacteristic(BluetoothGatt _gatt, UUID _uuid) {
         List<BluetoothGattService> service_list = _gatt.getServices();
         BluetoothGattService service = BluetoothUtils.findGattService(service_list);
         if (service == null) {
@@ -54,7 +82,7 @@ public class BluetoothUtils {
 
         List<BluetoothGattCharacteristic> characteristicList = service.getCharacteristics();
         for (BluetoothGattCharacteristic characteristic : characteristicList) {
-            if (matchCharacteristic(characteristic, _uuid_string)) {
+            if (characteristic != null && _uuid.equals(characteristic.getUuid())) {
                 return characteristic;
             }
         }
@@ -62,20 +90,6 @@ public class BluetoothUtils {
         return null;
     }
 
-    /**
-     * Match the given characteristic and a uuid string
-     * @param _characteristic one of found characteristic provided by the server
-     * @param _uuid_string uuid as string to match
-     * @return true if matched
-     */
-    private static boolean matchCharacteristic(BluetoothGattCharacteristic _characteristic, String _uuid_string) {
-        if (_characteristic == null) {
-            return false;
-        }
-        UUID uuid = _characteristic.getUuid();
-        return matchUUIDs(uuid.toString(), _uuid_string);
-    }
-
     /**
      * Find Gatt service that matches with the server's service
      * @param _service_list list of services
@@ -84,23 +98,13 @@ public class BluetoothUtils {
     @Nullable
     private static BluetoothGattService findGattService(List<BluetoothGattService> _service_list) {
         for (BluetoothGattService service : _service_list) {
-            String service_uuid_string = service.getUuid().toString();
-            if (matchServiceUUIDString(service_uuid_string)) {
+            if (SERVICE_UUID.equals(service.getUuid())) {
                 return service;
             }
         }
         return null;
     }
 
-    /**
-     * Try to match the given uuid with the service uuid
-     * @param _service_uuid_string service UUID as string
-     * @return true if service uuid is matched
-     */
-    private static boolean matchServiceUUIDString(String _service_uuid_string) {
-        return matchUUIDs(_service_uuid_string, SERVICE_STRING);
-    }
-
     /**
      * Check if there is any matching characteristic
      * @param _characteristic query characteristic
@@ -109,32 +113,6 @@ public class BluetoothUtils {
         if (_characteristic == null) {
             return false;
         }
-        UUID uuid = _characteristic.getUuid();
-        return matchCharacteristicUUID(uuid.toString());
-    }
-
-    /**
-     * Query the given uuid as string to the provided characteristics by the server
-     * @param _characteristic_uuid_string query uuid as string
-     * @return true if the matched is found
-     */
-    private static boolean matchCharacteristicUUID(String _characteristic_uuid_string) {
-        return matchUUIDs(_characteristic_uuid_string, CHARACTERISTIC_UUID);
-    }
-
-    /**
-     * Try to match a uuid with the given set of uuid
-     * @param _uuid_string uuid to query
-     * @param _matches a set of uuid
-     * @return true if matched
-     */
-    private static boolean matchUUIDs(String _uuid_string, String... _matches) {
-        for (String match : _matches) {
-            if (_uuid_string.equalsIgnoreCase(match)) {
-                return true;
-            }
-        }
-
-        return false;
+        return CMD_CHARACTERISTIC_UUID.equals(_characteristic.getUuid());
     }
 }
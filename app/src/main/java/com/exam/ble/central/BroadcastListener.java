@@ -0,0 +1,18 @@
+package com.exam.ble.central;
+
+import android.bluetooth.BluetoothDevice;
+
+/**
+ * Receives the connectionless messages advertised by peripherals.
+ * 연결 없이 scan 결과의 service data 에서 바로 읽으며, 같은 메세지는 한번만 전달된다.
+ */
+public interface BroadcastListener {
+    /**
+     * Called on the scan callback thread
+     * @param device advertising peripheral
+     * @param sequence sequence number of the message, wraps at 256
+     * @param payload message payload
+     * @param rssi RSSI of the advertisement
+     */
+    void onBroadcast(BluetoothDevice device, int sequence, byte[] payload, int rssi);
+}
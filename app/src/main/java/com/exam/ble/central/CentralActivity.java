@@ -10,6 +10,7 @@ import android.bluetooth.BluetoothDevice;
 import android.bluetooth.le.ScanResult;
 import android.content.Intent;
 import android.content.pm.PackageManager;
+import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
@@ -25,6 +26,7 @@ import android.widget.Toast;
 
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.HashSet;
 import java.util.List;
 
 import com.exam.ble.R;
@@ -48,6 +50,8 @@ public class CentralActivity extends AppCompatActivity {
 
     private ListView listView;
     ArrayList<String> listItems=new ArrayList<String>();
+    // addresses in listItems
+    private final HashSet<String> listAddresses = new HashSet<>();
     private ArrayAdapter<String> listAdapter;
 
 
@@ -73,7 +77,7 @@ public class CentralActivity extends AppCompatActivity {
 
     @Override
     public void onBackPressed() {
-        CentralManager.getInstance(this).disconnectGattServer();
+        CentralManager.getInstance(this).close();
 
         new Handler().postDelayed(new Runnable() {
             @Override
@@ -129,6 +133,7 @@ public class CentralActivity extends AppCompatActivity {
             @Override
             public void onClick(View view) {
                 listItems.clear();
+                listAddresses.clear();
                 listAdapter.notifyDataSetChanged();
                 CentralManager.getInstance(CentralActivity.this).startScan();
             }
@@ -188,12 +193,14 @@ public class CentralActivity extends AppCompatActivity {
     }
 
     /**
-     * Request Fine Location permission
+     * Request Fine Location permission, and Background Location for the background scan on Android 10+
      * 위치 권한을 안내한다.
      */
     private void requestLocationPermission() {
-        ActivityCompat.requestPermissions(CentralActivity.this,
-                new String[]{Manifest.permission.ACCESS_FINE_LOCATION}, REQUEST_FINE_LOCATION);
+        String[] permissions = Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q
+                ? new String[]{Manifest.permission.ACCESS_FINE_LOCATION, Manifest.permission.ACCESS_BACKGROUND_LOCATION}
+                : new String[]{Manifest.permission.ACCESS_FINE_LOCATION};
+        ActivityCompat.requestPermissions(CentralActivity.this, permissions, REQUEST_FINE_LOCATION);
     }
 
     /**
@@ -265,34 +272,36 @@ public class CentralActivity extends AppCompatActivity {
 
         @Override
         public void onStatusMsg(ScanResult single_result) {
-            // get scanned device
-            BluetoothDevice device = single_result.getDevice();
-            // get scanned device MAC address
-            String device_address = device.getAddress();
-
-
-            if(!listItems.contains(device_address + ", " + device.getName())){
-                listItems.add(device_address + ", " + device.getName());
-            }
-
+            addDevice(single_result.getDevice());
             listAdapter.notifyDataSetChanged();
         }
 
         @Override
         public void onStatusMsg(List<ScanResult> _results) {
+            // one list update per batch
+            boolean changed = false;
             for (ScanResult result : _results) {
-                // get scanned device
-                BluetoothDevice device = result.getDevice();
-                // get scanned device MAC address
-                String device_address = device.getAddress();
-
-                if(!listItems.contains(device_address + ", " + device.getName())){
-                    listItems.add(device_address + ", " + device.getName());
-                }
+                changed |= addDevice(result.getDevice());
+            }
+            if (changed) {
                 listAdapter.notifyDataSetChanged();
             }
         }
 
+        /**
+         * @param device scanned device
+         * @return true if the device was added to the list
+         */
+        private boolean addDevice(BluetoothDevice device) {
+            // get scanned device MAC address
+            String device_address = device.getAddress();
+            if (!listAddresses.add(device_address)) {
+                return false;
+            }
+            listItems.add(device_address + ", " + device.getName());
+            return true;
+        }
+
         @Override
         public void onToast(String message) {
             showToast(message);
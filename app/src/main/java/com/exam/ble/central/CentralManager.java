@@ -12,25 +12,51 @@ import android.bluetooth.BluetoothProfile;
 import android.bluetooth.le.BluetoothLeScanner;
 import android.bluetooth.le.ScanCallback;
 import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanRecord;
 import android.bluetooth.le.ScanResult;
 import android.bluetooth.le.ScanSettings;
 import android.content.Context;
 import android.content.pm.PackageManager;
+import android.os.Build;
 import android.os.Handler;
-import android.os.ParcelUuid;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 
+import androidx.annotation.Nullable;
 import androidx.core.content.ContextCompat;
 
+import com.exam.ble.protocol.AdRecord;
+import com.exam.ble.protocol.BroadcastCodec;
+import com.exam.ble.protocol.BufferPool;
+import com.exam.ble.protocol.FrameAssembler;
+import com.exam.ble.protocol.FrameCodec;
+import com.exam.ble.protocol.StreamSender;
+
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.UUID;
-
-import static com.exam.ble.Constants.CHARACTERISTIC_UUID;
-import static com.exam.ble.Constants.CONFIG_UUID;
-import static com.exam.ble.Constants.SCAN_PERIOD;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.exam.ble.Constants.BULK_FRAGMENT_COUNT;
+import static com.exam.ble.Constants.CMD_CHARACTERISTIC_UUID;
+import static com.exam.ble.Constants.CONFIG_DESCRIPTOR_UUID;
+import static com.exam.ble.Constants.DEFAULT_MTU;
+import static com.exam.ble.Constants.CONNECT_TIMEOUT;
+import static com.exam.ble.Constants.FRAME_POOL_SIZE;
+import static com.exam.ble.Constants.MAX_ACTIVE_CONNECTIONS;
+import static com.exam.ble.Constants.MAX_MTU;
+import static com.exam.ble.Constants.MAX_PARALLEL_CONNECTS;
+import static com.exam.ble.Constants.PRIORITY_IDLE_TIMEOUT;
+import static com.exam.ble.Constants.RECONNECT_BASE_DELAY;
+import static com.exam.ble.Constants.RECONNECT_MAX_ATTEMPTS;
+import static com.exam.ble.Constants.RECONNECT_MAX_DELAY;
+import static com.exam.ble.Constants.REGISTRY_MAX_DEVICES;
+import static com.exam.ble.Constants.REGISTRY_TTL;
+import static com.exam.ble.Constants.RSSI_SMOOTHING;
+import static com.exam.ble.Constants.SCAN_UI_INTERVAL;
 import static com.exam.ble.Constants.SERVICE_UUID;
 
 public class CentralManager {
@@ -44,32 +70,207 @@ public class CentralManager {
     private BluetoothAdapter bleAdapter;
     // flag for scanning
     private boolean isScanning = false;
-    // flag for connection
-    private boolean isConnected = false;
-    // scan results
-    private Map<String, BluetoothDevice> scanResults;
+    // scanned devices, kept across scans
+    private final DeviceRegistry deviceRegistry = new DeviceRegistry(REGISTRY_MAX_DEVICES, REGISTRY_TTL, RSSI_SMOOTHING);
     // scan callback
     private ScanCallback scanCallback;
     // ble scanner
     private BluetoothLeScanner bleScanner;
     // scan handler
     private Handler scanHandler;
+    // true if the scan reports through hardware batching
+    private boolean scanBatched = false;
+    // false while a duty cycled scan is paused
+    private boolean scanRadioOn = false;
+    // profile used by startScan()
+    private ScanProfile scanProfile = ScanProfile.lowPower();
+    // profile, filters and settings of the running scan
+    private ScanProfile activeProfile;
+    private List<ScanFilter> scanFilters;
+    private ScanSettings scanSettings;
+    // devices looked for, compiled into the hardware filters
+    private ScanMatchSpec scanMatch = ScanMatchSpec.forService(SERVICE_UUID);
+    // ScanMatchSpec.LEVEL_* of the running scan, the spec is matched in software above LEVEL_FULL
+    private volatile int scanMatchLevel = ScanMatchSpec.LEVEL_FULL;
+    // dedupes scan results off the main thread
+    private final ScanPipeline scanPipeline;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // runs the listeners of the returned futures, the futures are completed under the queue and pool locks
+    private final Executor mainExecutor = mainHandler::post;
+
+    // BLE Gatt connections keyed by device address
+    private final ConnectionPool connectionPool;
+    // reconnect lost links
+    private volatile boolean reconnectEnabled = true;
+    // reconnect through autoConnect=true instead of the backoff
+    private volatile boolean autoConnect = false;
+    // preferred PHY of new links, BluetoothDevice.PHY_LE_*_MASK
+    private volatile int preferredPhy = BluetoothDevice.PHY_LE_1M_MASK;
+    private volatile int phyOptions = BluetoothDevice.PHY_OPTION_NO_PREFERRED;
+    // raise the connection priority during bulk transfers
+    private volatile boolean bulkPriority = true;
+    // connect request waiting for a scan result
+    private volatile AutoConnectRequest autoConnectRequest;
+    // id of the next framed message
+    private final AtomicInteger messageId = new AtomicInteger();
+    // reassembly of notified fragments
+    private final FrameAssembler frameAssembler = new FrameAssembler(
+            new BufferPool(FrameCodec.MAX_PAYLOAD_SIZE, FRAME_POOL_SIZE), new FrameAssembler.MessageListener() {
+        @Override
+        public void onMessage(String _source, int _message_id, byte[] _buffer, int _length) {
+            String message = new String(_buffer, 0, _length);
+            Log.d(TAG, "read: " + message);
+            listener.onStatusMsg("read : " + message);
+            listener.onToast("read : " + message);
+        }
+    });
 
-    // BLE Gatt
-//    private BluetoothGatt bleGatt;
-    private Map<String, BluetoothGatt> gattMap;
+    // connectionless messages in the scanned service data
+    private volatile BroadcastListener broadcastListener;
+    private final BroadcastCodec.SequenceFilter broadcastFilter = new BroadcastCodec.SequenceFilter(REGISTRY_MAX_DEVICES);
+    private final static long SERVICE_UUID_MSB = SERVICE_UUID.getMostSignificantBits();
+    private final static long SERVICE_UUID_LSB = SERVICE_UUID.getLeastSignificantBits();
 
     // Callback listener
     private CentralCallback listener;
 
     public CentralManager(Context context) {
         this.mContext = context.getApplicationContext();
+        this.connectionPool = new ConnectionPool(MAX_ACTIVE_CONNECTIONS, MAX_PARALLEL_CONNECTS, CONNECT_TIMEOUT,
+                new ReconnectPolicy(RECONNECT_BASE_DELAY, RECONNECT_MAX_DELAY, RECONNECT_MAX_ATTEMPTS),
+                connector, connectionStateListener, operationListener);
+        this.scanPipeline = new ScanPipeline(SCAN_UI_INTERVAL, deviceRegistry, scanDiffListener);
     }
 
     public void setCallBack(CentralCallback listener) {
         this.listener = listener;
     }
 
+    /**
+     * 연결이 끊겼을때 재연결 방법을 설정한다.
+     * @param enabled reconnect lost links with exponential backoff
+     * @param auto_connect let the stack reconnect with autoConnect=true when the device is back
+     */
+    public void setReconnect(boolean enabled, boolean auto_connect) {
+        this.reconnectEnabled = enabled;
+        this.autoConnect = auto_connect;
+    }
+
+    /**
+     * Receive the messages broadcast by PeripheralManager.broadcast while scanning, no connection needed
+     * @param _listener broadcast listener, null to stop decoding
+     */
+    public void setBroadcastListener(@Nullable BroadcastListener _listener) {
+        broadcastListener = _listener;
+        if (_listener == null) {
+            broadcastFilter.clear();
+        }
+    }
+
+    /**
+     * PHY of the next links, used by connectGatt and setPreferredPhy on Android O+.
+     * 지원하지 않는 PHY 는 빠지고, 1M 은 항상 남는다.
+     * @param _phy_mask BluetoothDevice.PHY_LE_*_MASK, ex) PHY_LE_2M_MASK for bulk syncs, PHY_LE_CODED_MASK for long range
+     * @param _phy_options BluetoothDevice.PHY_OPTION_* of the coded PHY
+     */
+    public void setPreferredPhy(int _phy_mask, int _phy_options) {
+        preferredPhy = _phy_mask;
+        phyOptions = _phy_options;
+        // links already open switch now
+        for (DeviceConnection connection : connectionPool.getReady()) {
+            connection.queue.enqueue(GattOperation.setPreferredPhy(getSupportedPhy(), getSupportedPhy(), phyOptions));
+        }
+    }
+
+    /**
+     * @return preferred PHY mask without the PHYs the controller does not support
+     */
+    private int getSupportedPhy() {
+        int phy = preferredPhy | BluetoothDevice.PHY_LE_1M_MASK;
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+            return BluetoothDevice.PHY_LE_1M_MASK;
+        }
+        if (bleAdapter == null || !bleAdapter.isLe2MPhySupported()) {
+            phy &= ~BluetoothDevice.PHY_LE_2M_MASK;
+        }
+        if (bleAdapter == null || !bleAdapter.isLeCodedPhySupported()) {
+            phy &= ~BluetoothDevice.PHY_LE_CODED_MASK;
+        }
+        return phy;
+    }
+
+    /**
+     * @param _enabled raise the connection priority to HIGH while bulk data is queued, balanced again when idle
+     */
+    public void setBulkPriority(boolean _enabled) {
+        bulkPriority = _enabled;
+    }
+
+    /**
+     * Request a connection priority, the automatic drop back of a bulk transfer is cancelled
+     * @param _gatt connection
+     * @param _priority BluetoothGatt.CONNECTION_PRIORITY_*
+     * @return false if the connection is not ready or the stack refused
+     */
+    public boolean requestConnectionPriority(BluetoothGatt _gatt, int _priority) {
+        DeviceConnection connection = connectionPool.get(_gatt);
+        if (connection == null || !connection.isReady()) {
+            return false;
+        }
+        mainHandler.removeCallbacksAndMessages(connection);
+        if (!_gatt.requestConnectionPriority(_priority)) {
+            return false;
+        }
+        connection.priority = _priority;
+        return true;
+    }
+
+    /**
+     * Raise the connection priority for a bulk transfer.
+     * 큐가 PRIORITY_IDLE_TIMEOUT 동안 비어 있으면 balanced 로 돌아간다.
+     * @param _connection connection sending bulk data
+     */
+    private void boostPriority(final DeviceConnection _connection) {
+        if (!bulkPriority) {
+            return;
+        }
+        if (_connection.priority != BluetoothGatt.CONNECTION_PRIORITY_HIGH
+                && _connection.gatt.requestConnectionPriority(BluetoothGatt.CONNECTION_PRIORITY_HIGH)) {
+            Log.d(TAG, "Connection priority high: " + _connection.address);
+            _connection.priority = BluetoothGatt.CONNECTION_PRIORITY_HIGH;
+        }
+        scheduleRelax(_connection);
+    }
+
+    private void scheduleRelax(final DeviceConnection _connection) {
+        mainHandler.removeCallbacksAndMessages(_connection);
+        mainHandler.postAtTime(new Runnable() {
+            @Override
+            public void run() {
+                relaxPriority(_connection);
+            }
+        }, _connection, SystemClock.uptimeMillis() + PRIORITY_IDLE_TIMEOUT);
+    }
+
+    /**
+     * Back to balanced once the operations and the stream of the connection are done
+     * @param _connection connection with a high priority
+     */
+    private void relaxPriority(DeviceConnection _connection) {
+        if (!_connection.isReady() || _connection.priority != BluetoothGatt.CONNECTION_PRIORITY_HIGH) {
+            return;
+        }
+        StreamSender stream = _connection.stream;
+        if (_connection.queue.size() > 0 || (stream != null && stream.getPendingCount() > 0)) {
+            scheduleRelax(_connection);
+            return;
+        }
+        if (_connection.gatt.requestConnectionPriority(BluetoothGatt.CONNECTION_PRIORITY_BALANCED)) {
+            Log.d(TAG, "Connection priority balanced: " + _connection.address);
+            _connection.priority = BluetoothGatt.CONNECTION_PRIORITY_BALANCED;
+        }
+    }
+
     public static CentralManager getInstance(Context context) {
         if (sInstance == null) {
             sInstance = new CentralManager(context);
@@ -87,9 +288,33 @@ public class CentralManager {
     }
 
     /**
-     * Start BLE scan
+     * Set the devices looked for by the next scan, SERVICE_UUID only by default
+     * @param _spec service uuids, manufacturer data, service data and addresses to match
+     */
+    public void setScanMatch(ScanMatchSpec _spec) {
+        scanMatch = _spec;
+    }
+
+    /**
+     * Set the profile used by startScan()
+     * @param _profile scan mode, window and stop condition
+     */
+    public void setScanProfile(ScanProfile _profile) {
+        scanProfile = _profile;
+    }
+
+    /**
+     * Start BLE scan with the current profile
      */
     public void startScan() {
+        startScan(scanProfile);
+    }
+
+    /**
+     * Start BLE scan
+     * @param _profile scan mode, window and stop condition
+     */
+    public void startScan(ScanProfile _profile) {
         /**
          * 위치 권한이 있는지 체크한다.
          * 없다면 콜백으로 requestLocationPermission() 호출한다.
@@ -100,12 +325,6 @@ public class CentralManager {
             return;
         }
 
-        /**
-         * 이미 연결된 상태라면 더이상 진행시키지 않는다.
-         */
-        if (isConnected)
-            return;
-
         listener.onStatusMsg("Scanning...");
         /**
          * 블루투스를 사용할 수 있는 상태인지 체크한다.
@@ -116,67 +335,151 @@ public class CentralManager {
             return;
         }
 
-        bleScanner = bleAdapter.getBluetoothLeScanner();
+        // a new scan replaces the running one
+        if (isScanning) {
+            stopScan();
+        }
 
-        gattMap = new HashMap<>();
+        bleScanner = bleAdapter.getBluetoothLeScanner();
 
         /**
-         * 이미 Gatt Server 와 연결된 상태일 수 있으니 호출해준다.
+         * 연결된 장치는 그대로 두고 새 장치를 찾는다.
          */
-        disconnectGattServer();
 
         //// set scan filters
-        // create scan filter list
-        List<ScanFilter> filters = new ArrayList<>();
-        // create a scan filter with device uuid
-        ScanFilter scan_filter = new ScanFilter.Builder().setServiceUuid(new ParcelUuid(SERVICE_UUID)).build();
+        // every criterion in hardware, lowered on SCAN_FAILED_OUT_OF_HARDWARE_RESOURCES
+        scanMatchLevel = ScanMatchSpec.LEVEL_FULL;
+        scanFilters = scanMatch.toScanFilters(scanMatchLevel);
 
-        // add the filter to the list
-        filters.add(scan_filter);
+        //// scan settings from the profile
+        // the controller batches the results if it can
+        scanBatched = _profile.getReportDelay(bleAdapter) > 0;
+        scanSettings = _profile.toScanSettings(bleAdapter);
+        activeProfile = _profile;
 
-        //// scan settings
-        // set low power scan mode
-        ScanSettings settings = new ScanSettings.Builder()
-                .setScanMode(ScanSettings.SCAN_MODE_LOW_POWER)
-                .build();
-
-        scanResults = new HashMap<>();
-        scanCallback = new BLEScanCallback(scanResults);
+        scanPipeline.reset();
+        scanCallback = new BLEScanCallback();
 
 
         //// now ready to scan
         // start scan
-        bleScanner.startScan(filters, settings, scanCallback);
+        bleScanner.startScan(scanFilters, scanSettings, scanCallback);
         // set scanning flag
         isScanning = true;
+        scanRadioOn = true;
 
-        scanHandler = new Handler();
-        scanHandler.postDelayed(this::stopScan, SCAN_PERIOD);
+        // timers on the main thread, startScan may be called from any thread
+        scanHandler = new Handler(Looper.getMainLooper());
+        if (_profile.duration > 0) {
+            scanHandler.postDelayed(this::stopScan, _profile.duration);
+        }
+        if (_profile.isDutyCycled()) {
+            scanHandler.postDelayed(scanPauseTask, _profile.dutyWindow);
+        }
+    }
 
+    /**
+     * Restart the scan with coarser hardware filters, the controller is out of filter slots.
+     * 나머지 조건은 BLEScanCallback 에서 소프트웨어로 매칭한다.
+     * 필터 없는 scan 은 Android 8.1 부터 화면이 꺼지면 결과가 오지 않는다.
+     */
+    private void lowerScanMatch() {
+        if (!isScanning || scanMatchLevel >= ScanMatchSpec.LEVEL_NONE) {
+            return;
+        }
+        scanMatchLevel++;
+        scanFilters = scanMatch.toScanFilters(scanMatchLevel);
+        if (scanFilters.isEmpty() && activeProfile.hasMatchCallbacks(bleAdapter)) {
+            // first match / match lost need a filter, every result is reported instead
+            scanSettings = activeProfile.toScanSettings(bleAdapter, false);
+        }
+        Log.w(TAG, "Out of hardware scan filters, match level " + scanMatchLevel);
+        if (scanRadioOn && bleAdapter != null && bleAdapter.isEnabled()) {
+            bleScanner.startScan(scanFilters, scanSettings, scanCallback);
+        }
+    }
 
+    /**
+     * Start a scan that outlives the activity and the process, results go to the RegistryStore
+     * @return 0 if started, ScanCallback.SCAN_FAILED_* otherwise
+     */
+    public int startBackgroundScan() {
+        return new BackgroundScanner(mContext).start(scanMatch, ScanProfile.lowPower());
     }
 
+    public void stopBackgroundScan() {
+        new BackgroundScanner(mContext).stop();
+    }
 
+    /**
+     * @return copies of the devices found by the background scan, kept across process restarts
+     */
+    public List<DeviceRegistry.Entry> getBackgroundDevices() {
+        return RegistryStore.getInstance(mContext).getDevices();
+    }
 
     /**
-     * Stop scanning
+     * Radio off part of a duty cycled scan
      */
-    private void stopScan() {
+    private final Runnable scanPauseTask = new Runnable() {
+        @Override
+        public void run() {
+            if (!isScanning || !scanRadioOn) {
+                return;
+            }
+            stopScanRadio();
+            scanHandler.postDelayed(scanResumeTask, activeProfile.dutyInterval - activeProfile.dutyWindow);
+        }
+    };
+
+    /**
+     * Radio on part of a duty cycled scan
+     */
+    private final Runnable scanResumeTask = new Runnable() {
+        @Override
+        public void run() {
+            if (!isScanning || scanRadioOn || bleAdapter == null || !bleAdapter.isEnabled()) {
+                return;
+            }
+            bleScanner.startScan(scanFilters, scanSettings, scanCallback);
+            scanRadioOn = true;
+            scanHandler.postDelayed(scanPauseTask, activeProfile.dutyWindow);
+        }
+    };
+
+    /**
+     * Stop the radio, the scan session and its results are kept
+     */
+    private void stopScanRadio() {
         // check pre-conditions
-        if (isScanning && bleAdapter != null && bleAdapter.isEnabled() && bleScanner != null) {
+        if (scanRadioOn && bleAdapter != null && bleAdapter.isEnabled() && bleScanner != null) {
+            // deliver the results still batched in the controller
+            if (scanBatched) {
+                bleScanner.flushPendingScanResults(scanCallback);
+            }
             // stop scanning
             bleScanner.stopScan(scanCallback);
-//            scanComplete();
+            scanPipeline.flushNow();
+        }
+        scanRadioOn = false;
+    }
+
+    /**
+     * Stop scanning
+     */
+    public void stopScan() {
+        if (!isScanning) {
+            return;
         }
+        stopScanRadio();
         // reset flags
-        if (scanCallback != null)
-            scanCallback = null;
-        if (scanHandler != null)
+        if (scanHandler != null) {
+            scanHandler.removeCallbacksAndMessages(null);
             scanHandler = null;
+        }
+        scanCallback = null;
         isScanning = false;
         // update the status
-
-
         listener.onStatusMsg("scanning stopped");
     }
 
@@ -185,16 +488,14 @@ public class CentralManager {
      */
     private void scanComplete() {
         // check if nothing found
-        if (scanResults.isEmpty()) {
+        if (deviceRegistry.size() == 0) {
             listener.onStatusMsg("scan results is empty");
             Log.d(TAG, "scan results is empty");
             return;
         }
         // loop over the scan results and connect to them
-        for (String device_addr : scanResults.keySet()) {
-            Log.d(TAG, "Found device: " + device_addr);
-            // get device instance using its MAC address
-            BluetoothDevice device = scanResults.get(device_addr);
+        for (DeviceRegistry.Entry entry : deviceRegistry.top(deviceRegistry.size(), SystemClock.elapsedRealtime())) {
+            Log.d(TAG, "Found device: " + entry);
 
 //            if (MAC_ADDR.equals(device_addr)) {
 //            Log.d(TAG, "connecting device: " + device_addr);
@@ -206,137 +507,835 @@ public class CentralManager {
 
     public void connectDevice(String device_addr){
         Log.d(TAG, "connectDevice: " + device_addr);
+        connect(device_addr).addListener(statusReporter("Session " + device_addr));
+    }
+
+    /**
+     * Connect request of connectOnScan
+     */
+    private static class AutoConnectRequest {
+        @Nullable
+        final String address;
+        final int minRssi;
+        final boolean stopScan;
+        final GattFuture<DeviceConnection> future;
+        // set by the first matching result
+        final AtomicBoolean claimed = new AtomicBoolean();
+
+        AutoConnectRequest(@Nullable String _address, int _min_rssi, boolean _stop_scan, Executor _executor) {
+            future = new GattFuture<>(_executor);
+            address = _address;
+            minRssi = _min_rssi;
+            stopScan = _stop_scan;
+        }
+
+        boolean matches(ScanResult _result) {
+            return _result.getRssi() >= minRssi && (address == null || address.equalsIgnoreCase(_result.getDevice().getAddress()));
+        }
+    }
+
+    /**
+     * Connect to the first scanned device passing the scan match and the RSSI threshold.
+     * 결과가 도착하는 즉시 connectGatt 를 시작하고, 서비스 탐색, MTU, notification 설정까지 끝나면 완료된다.
+     * 스캔이 멈춰도 요청은 남아 있으므로 필요 없으면 future 를 cancel 한다.
+     * 배치로 보고되는 profile 은 결과가 늦게 오므로 report delay 가 0 인 profile 이 빠르다.
+     * @param _address device to connect, null for any device passing the scan match
+     * @param _min_rssi weakest RSSI accepted in dBm, Integer.MIN_VALUE for any
+     * @param _stop_scan stop the scan before connecting, a running scan slows the connection setup down
+     * @return session of the connection, timed from this call
+     */
+    public GattFuture<DeviceConnection> connectOnScan(@Nullable String _address, int _min_rssi, boolean _stop_scan) {
+        AutoConnectRequest previous = autoConnectRequest;
+        if (previous != null) {
+            previous.future.cancel();
+        }
+        AutoConnectRequest request = new AutoConnectRequest(_address, _min_rssi, _stop_scan, mainExecutor);
+        autoConnectRequest = request;
+        if (!isScanning) {
+            startScan();
+        }
+        if (!isScanning) {
+            autoConnectRequest = null;
+            request.future.fail(GattOperationQueue.STATUS_CANCELLED);
+        }
+        return request.future;
+    }
+
+    /**
+     * Connect to the strongest recently seen device that is not connected yet
+     * @return address of the device, null if there is none
+     */
+    @Nullable
+    public String connectClosest() {
+        List<DeviceRegistry.Entry> closest = deviceRegistry.top(MAX_ACTIVE_CONNECTIONS + 1, SystemClock.elapsedRealtime());
+        for (DeviceRegistry.Entry entry : closest) {
+            DeviceConnection connection = connectionPool.get(entry.address);
+            if (entry.device != null && (connection == null || connection.state == DeviceConnection.State.DISCONNECTED)) {
+                listener.onStatusMsg("Connecting closest: " + entry);
+                connectDevice(entry.device);
+                return entry.address;
+            }
+        }
+        listener.onStatusMsg("No device to connect");
+        return null;
+    }
 
+    /**
+     * @param _count max devices
+     * @return recently seen devices, strongest smoothed RSSI first
+     */
+    public List<DeviceRegistry.Entry> getClosestDevices(int _count) {
+        return deviceRegistry.top(_count, SystemClock.elapsedRealtime());
+    }
+    /**
+     * Connect to a scanned device.
+     * 이 클래스가 돌려주는 future 의 listener 와 then 단계는 모두 main 스레드에서 호출되므로 다른 요청을 바로 해도 된다.
+     * @param _address MAC address of a device in the scan results
+     * @return session of the connection, completed once services, MTU and notifications are set
+     */
+    public GattFuture<DeviceConnection> connect(String _address) {
         // get device instance using its MAC address
-        BluetoothDevice device = scanResults.get(device_addr);
-        connectDevice(device);
+        DeviceRegistry.Entry entry = deviceRegistry.get(_address);
+        if (entry == null || entry.device == null) {
+            return failed(GattOperationQueue.STATUS_NOT_FOUND);
+        }
+        return connectionPool.connect(entry.device).session;
+    }
+
+    /**
+     * Discover the services again, ex) after the peripheral changed its database
+     * @param _connection ready connection
+     * @return connection with the characteristics of the new discovery
+     */
+    public GattFuture<DeviceConnection> discover(DeviceConnection _connection) {
+        GattFuture<DeviceConnection> running = _connection.discovery;
+        if (running != null) {
+            return running;
+        }
+        if (_connection.gatt == null || !_connection.isReady()) {
+            return failed(GattOperationQueue.STATUS_DISCONNECTED);
+        }
+        GattFuture<DeviceConnection> future = new GattFuture<>(mainExecutor);
+        _connection.discovery = future;
+        discoverServices(_connection);
+        return future;
+    }
+
+    /**
+     * Queue a service discovery, the result is handled by onServicesDiscovered
+     * @param _connection connection
+     */
+    private void discoverServices(final DeviceConnection _connection) {
+        GattOperationQueue queue = _connection.queue;
+        if (queue == null) {
+            return;
+        }
+        connectionPool.setState(_connection, DeviceConnection.State.DISCOVERING);
+        queue.enqueue(GattOperation.discoverServices().setCallback(new GattOperation.Callback() {
+            @Override
+            public void onDone(GattOperation _operation, final int _status) {
+                // GATT statuses come with onServicesDiscovered, a cancelled discovery was released
+                if (_status >= 0 || _status == GattOperationQueue.STATUS_CANCELLED) {
+                    return;
+                }
+                // called under the queue lock, the pool is changed on the main thread
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onDiscoveryFailed(_connection, _status);
+                    }
+                });
+            }
+        }));
+    }
+
+    /**
+     * The stack rejected the discovery or onServicesDiscovered never came
+     * @param _connection connection
+     * @param _status GattOperationQueue.STATUS_BUSY or STATUS_TIMEOUT
+     */
+    private void onDiscoveryFailed(DeviceConnection _connection, int _status) {
+        if (_connection.gatt == null) {
+            // released meanwhile
+            return;
+        }
+        Log.e(TAG, "Service discovery failed: " + _connection.address + ", status: " + _status);
+        GattFuture<DeviceConnection> discovery = _connection.discovery;
+        _connection.discovery = null;
+        if (discovery != null) {
+            discovery.fail(_status);
+        }
+        // a rediscovery of an open session keeps the previous characteristics
+        if (_status == GattOperationQueue.STATUS_BUSY && _connection.session.isSuccess()
+                && !_connection.characteristics.isEmpty()) {
+            connectionPool.setState(_connection, DeviceConnection.State.READY);
+            return;
+        }
+        _connection.session.fail(_status);
+        connectionPool.release(_connection);
+    }
+
+    /**
+     * Enable or disable the notifications of a characteristic of the command service
+     * @param _connection connection
+     * @param _uuid characteristic
+     * @param _enable true to enable
+     * @return result of the CCCD write
+     */
+    public GattFuture<byte[]> setNotification(DeviceConnection _connection, UUID _uuid, boolean _enable) {
+        BluetoothGattCharacteristic characteristic = _connection.characteristics.get(_uuid);
+        BluetoothGattDescriptor descriptor = characteristic == null ? null : characteristic.getDescriptor(CONFIG_DESCRIPTOR_UUID);
+        BluetoothGatt gatt = _connection.gatt;
+        if (descriptor == null || gatt == null) {
+            return failed(gatt == null ? GattOperationQueue.STATUS_DISCONNECTED : GattOperationQueue.STATUS_NOT_FOUND);
+        }
+        gatt.setCharacteristicNotification(characteristic, _enable);
+        return submit(_connection, GattOperation.writeDescriptor(descriptor,
+                _enable ? BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE : BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE));
+    }
+
+    /**
+     * Write one value, a value over MTU - 3 is only allowed with a response (long write)
+     * @param _connection connection
+     * @param _uuid characteristic of the command service
+     * @param _value value to write
+     * @param _write_type BluetoothGattCharacteristic.WRITE_TYPE_*
+     * @return result of the write
+     */
+    public GattFuture<byte[]> write(DeviceConnection _connection, UUID _uuid, byte[] _value, int _write_type) {
+        BluetoothGattCharacteristic characteristic = _connection.characteristics.get(_uuid);
+        if (characteristic == null) {
+            return failed(GattOperationQueue.STATUS_NOT_FOUND);
+        }
+        return submit(_connection, GattOperation.write(characteristic, _value, _write_type));
+    }
+
+    /**
+     * @param _connection connection
+     * @param _uuid characteristic of the command service
+     * @return value of the characteristic
+     */
+    public GattFuture<byte[]> read(DeviceConnection _connection, UUID _uuid) {
+        BluetoothGattCharacteristic characteristic = _connection.characteristics.get(_uuid);
+        if (characteristic == null) {
+            return failed(GattOperationQueue.STATUS_NOT_FOUND);
+        }
+        return submit(_connection, GattOperation.read(characteristic));
+    }
+
+    /**
+     * Close one connection, synchronous: the gatt is closed before this returns and pending requests fail with STATUS_CANCELLED.
+     * close() 후에는 STATE_DISCONNECTED 콜백이 오지 않으므로 기다릴 것이 없다.
+     * @param _connection connection
+     * @return already completed with the closed connection, kept for chaining with the other requests
+     */
+    public GattFuture<DeviceConnection> disconnect(DeviceConnection _connection) {
+        GattFuture<DeviceConnection> future = new GattFuture<>(mainExecutor);
+        connectionPool.release(_connection);
+        future.complete(_connection);
+        return future;
     }
+
+    /**
+     * Run an operation in the queue of the connection, the future is listened to on the main thread
+     * @param _connection connection
+     * @param _operation operation, its callback is replaced
+     * @return value of a read, null for the other operations
+     */
+    private GattFuture<byte[]> submit(DeviceConnection _connection, GattOperation _operation) {
+        final GattFuture<byte[]> future = new GattFuture<>(mainExecutor);
+        GattOperationQueue queue = _connection.queue;
+        if (queue == null || _connection.gatt == null) {
+            future.fail(GattOperationQueue.STATUS_DISCONNECTED);
+            return future;
+        }
+        queue.enqueue(_operation.setCallback(new GattOperation.Callback() {
+            @Override
+            public void onDone(GattOperation _done, int _status) {
+                if (_status == BluetoothGatt.GATT_SUCCESS) {
+                    future.complete(_done.getResult());
+                } else {
+                    future.fail(_status);
+                }
+            }
+        }));
+        return future;
+    }
+
+    private <T> GattFuture<T> failed(int _status) {
+        GattFuture<T> future = new GattFuture<>(mainExecutor);
+        future.fail(_status);
+        return future;
+    }
+
+    /**
+     * Report a result to the CentralCallback, ex) "Session AA:BB:CC:DD:EE:FF: success in 850ms"
+     * @param _request name of the request
+     */
+    private <T> GattFuture.Listener<T> statusReporter(final String _request) {
+        return new GattFuture.Listener<T>() {
+            @Override
+            public void onComplete(GattFuture<T> _future) {
+                listener.onStatusMsg(_request + ": " + _future);
+            }
+        };
+    }
+
     /**
      * Connect to the ble device
+     * 연결은 ConnectionPool 에 등록되고 빈 슬롯이 생기면 시작된다.
      * @param _device
      */
     private void connectDevice(BluetoothDevice _device) {
-        // update the status
-        listener.onStatusMsg("Connecting to " + _device.getAddress());
-        GattClientCallback gatt_client_cb = new GattClientCallback();
-        BluetoothGatt bleGatt = _device.connectGatt(mContext, false, gatt_client_cb);
-        gattMap.put(_device.getName(), bleGatt);
+        connectionPool.connect(_device);
+    }
+
+    /**
+     * Disconnect one device, the other connections are kept
+     * @param device_addr MAC address
+     */
+    public void disconnectDevice(String device_addr) {
+        DeviceConnection connection = connectionPool.get(device_addr);
+        if (connection != null) {
+            disconnect(connection).addListener(statusReporter("Disconnect " + device_addr));
+        }
     }
 
     /**
      * Disconnect Gatt Server
+     * 모든 연결을 닫는다.
      */
     public void disconnectGattServer() {
         Log.d(TAG, "Closing Gatt connection");
         listener.onStatusMsg("Closing Gatt connection");
-        // reset the connection flag
-        isConnected = false;
-
-        if(!gattMap.isEmpty()){
-            for(Map.Entry<String,BluetoothGatt> oneGatt : gattMap.entrySet()){
+        connectionPool.releaseAll();
+    }
 
-                oneGatt.getValue().disconnect();
-                oneGatt.getValue().close();
-                listener.onStatusMsg("Closed: "+oneGatt.getKey());
-            }
+    /**
+     * Stop the scan, close every connection and stop the scan thread.
+     * 이후 getInstance 는 새 CentralManager 를 만든다.
+     */
+    public void close() {
+        stopScan();
+        disconnectGattServer();
+        mainHandler.removeCallbacksAndMessages(null);
+        scanPipeline.quit();
+        if (sInstance == this) {
+            sInstance = null;
         }
     }
 
+    /**
+     * @return every connection in the pool
+     */
+    public List<DeviceConnection> getConnections() {
+        return connectionPool.getAll();
+    }
+
+    /**
+     * @param _gatt connection
+     * @return negotiated ATT MTU, DEFAULT_MTU until onMtuChanged
+     */
+    public int getMtu(BluetoothGatt _gatt) {
+        DeviceConnection connection = connectionPool.get(_gatt);
+        return connection == null ? DEFAULT_MTU : connection.mtu;
+    }
+
     /**
      * Send Data
      * Gatt Server 에 데이타를 보낸다.
-     * 20Byte 까지만 보낼 수 있다.
+     * 긴 데이타는 조각으로 나누어 보낸다.
      */
     public void sendDataToAll(String message) {
-        for(Map.Entry<String,BluetoothGatt> oneGatt : gattMap.entrySet()){
-
-            sendData(oneGatt.getValue(), message);
+        for (DeviceConnection connection : connectionPool.getReady()) {
+            sendData(connection.gatt, message);
         }
     }
 
-    public void sendData(BluetoothGatt bleGatt, String message) {
+    public void sendData(BluetoothGatt bleGatt, final String message) {
+        sendData(bleGatt, message.getBytes(), new GattOperation.Callback() {
+            @Override
+            public void onDone(GattOperation _operation, int _status) {
+                // a failed fragment is reported by the operationListener
+                if (_status == BluetoothGatt.GATT_SUCCESS) {
+                    listener.onStatusMsg("write : " + message);
+                }
+            }
+        });
+    }
+
+    /**
+     * Send Data
+     * payload 를 조각으로 나누어 순서대로 쓴다.
+     * @param bleGatt connection
+     * @param payload data up to FrameCodec.MAX_PAYLOAD_SIZE
+     * @return true if the fragments are queued
+     */
+    public boolean sendData(BluetoothGatt bleGatt, byte[] payload) {
+        return sendData(bleGatt, payload, null);
+    }
+
+    /**
+     * Send Data
+     * @param bleGatt connection
+     * @param payload data up to FrameCodec.MAX_PAYLOAD_SIZE
+     * @param _callback called once the last fragment is written, or with the first failed fragment
+     * @return true if the fragments are queued
+     */
+    public boolean sendData(BluetoothGatt bleGatt, byte[] payload, @Nullable GattOperation.Callback _callback) {
         // check connection
-        if (!isConnected) {
+        DeviceConnection connection = connectionPool.get(bleGatt);
+        if (connection == null || !connection.isReady()) {
             Log.e(TAG, "Failed to sendData due to no connection");
-            return;
+            return false;
         }
-        // find command characteristics from the GATT server
-        BluetoothGattCharacteristic cmd_characteristic = BluetoothUtils.findCharacteristic(bleGatt, CHARACTERISTIC_UUID);
-        // disconnect if the characteristic is not found
+        // command characteristic cached by the service discovery
+        BluetoothGattCharacteristic cmd_characteristic = connection.characteristics.get(CMD_CHARACTERISTIC_UUID);
+        // disconnect the device if the characteristic is not found
         if (cmd_characteristic == null) {
             Log.e(TAG, "Unable to find cmd characteristic");
-            disconnectGattServer();
-            return;
+            connectionPool.release(connection);
+            return false;
+        }
+
+        // queue the fragments, each write starts when the previous operation of this connection completes
+        // fragments are sized from the negotiated MTU, and queued at once
+        // 수신측은 장치마다 조립 중인 메시지를 하나만 가지므로 다른 메시지의 조각이 끼어들면 안 된다
+        List<byte[]> fragments = FrameCodec.encode(messageId.getAndIncrement(), payload, FrameCodec.fragmentSize(connection.mtu));
+        if (fragments.size() >= BULK_FRAGMENT_COUNT) {
+            boostPriority(connection);
         }
+        GattOperation.Callback message_callback = _callback == null ? null : new MessageCallback(fragments.size(), _callback);
+        List<GattOperation> writes = new ArrayList<>(fragments.size());
+        for (byte[] fragment : fragments) {
+            writes.add(GattOperation.write(cmd_characteristic, fragment, BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT)
+                    .setCallback(message_callback));
+        }
+        connection.queue.enqueueAll(writes);
+        return true;
+    }
 
-        cmd_characteristic.setValue(message.getBytes()); // 20byte limit
-        cmd_characteristic.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
-        // write the characteristic
-        boolean success = bleGatt.writeCharacteristic(cmd_characteristic);
-        // check the result
-        if (success) {
-            listener.onStatusMsg("write : " + message);
-            Log.e(TAG, "Success to write command");
+    /**
+     * Result of a fragmented message, reported once by its last fragment or its first failed fragment
+     */
+    private static class MessageCallback implements GattOperation.Callback {
+        private final GattOperation.Callback callback;
+        // fragments not written yet, 0 once reported
+        private int remaining;
+
+        MessageCallback(int _count, GattOperation.Callback _callback) {
+            remaining = _count;
+            callback = _callback;
+        }
+
+        @Override
+        public void onDone(GattOperation _operation, int _status) {
+            synchronized (this) {
+                if (remaining == 0) {
+                    return;
+                }
+                remaining = _status == BluetoothGatt.GATT_SUCCESS ? remaining - 1 : 0;
+                if (remaining > 0) {
+                    return;
+                }
+            }
+            callback.onDone(_operation, _status);
+        }
+    }
+
+    /**
+     * Stream Data
+     * 응답없는 쓰기(WRITE_TYPE_NO_RESPONSE)로 대용량 데이타를 보낸다.
+     * Peripheral 이 돌려주는 credit 만큼만 보내고, 전달은 ACK / NACK 으로 보장한다.
+     * @param bleGatt connection
+     * @param payload data up to FrameCodec.MAX_PAYLOAD_SIZE
+     * @return true if the payload is queued on the stream
+     */
+    public boolean streamData(BluetoothGatt bleGatt, byte[] payload) {
+        DeviceConnection connection = connectionPool.get(bleGatt);
+        if (connection == null || !connection.isReady()) {
+            Log.e(TAG, "Failed to streamData due to no connection");
+            return false;
+        }
+        StreamSender stream = getStream(connection);
+        if (stream == null) {
+            Log.e(TAG, "Unable to find cmd characteristic");
+            return false;
+        }
+        if (stream.send(payload, FrameCodec.fragmentSize(connection.mtu)) < 0) {
+            Log.e(TAG, "Too many stream messages waiting for their ACK");
+            return false;
+        }
+        boostPriority(connection);
+        scheduleStreamTick(connection, stream);
+        return true;
+    }
+
+    /**
+     * Check the ACK timeout of the stream every StreamSender.ACK_TIMEOUT while messages are pending
+     * @param _connection connection
+     * @param _stream stream of the connection
+     */
+    private void scheduleStreamTick(final DeviceConnection _connection, final StreamSender _stream) {
+        mainHandler.removeCallbacksAndMessages(_stream);
+        mainHandler.postAtTime(new Runnable() {
+            @Override
+            public void run() {
+                if (_connection.stream == _stream && _stream.onTick()) {
+                    scheduleStreamTick(_connection, _stream);
+                }
+            }
+        }, _stream, SystemClock.uptimeMillis() + StreamSender.ACK_TIMEOUT);
+    }
+
+    /**
+     * @param bleGatt connection
+     * @return sustained bytes per second delivered on the stream of the connection
+     */
+    public long getStreamBytesPerSecond(BluetoothGatt bleGatt) {
+        DeviceConnection connection = connectionPool.get(bleGatt);
+        StreamSender stream = connection == null ? null : connection.stream;
+        return stream == null ? 0 : stream.getBytesPerSecond();
+    }
+
+    /**
+     * Get the credit stream of the connection, created on first use
+     * @param _connection connection
+     * @return stream, null if the characteristic is not found
+     */
+    @Nullable
+    private synchronized StreamSender getStream(DeviceConnection _connection) {
+        if (_connection.stream != null) {
+            return _connection.stream;
+        }
+        final BluetoothGattCharacteristic cmd_characteristic = _connection.characteristics.get(CMD_CHARACTERISTIC_UUID);
+        if (cmd_characteristic == null) {
+            return null;
+        }
+        final GattOperationQueue queue = _connection.queue;
+        final StreamSender[] stream = new StreamSender[1];
+        stream[0] = new StreamSender(StreamSender.DEFAULT_WINDOW, new StreamSender.FragmentWriter() {
+            @Override
+            public void write(final byte[] _fragment) {
+                queue.enqueue(GattOperation.write(cmd_characteristic, _fragment, BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE)
+                        .setCallback(new GattOperation.Callback() {
+                            @Override
+                            public void onDone(GattOperation _operation, int _status) {
+                                // cancelled by a closed connection, the stream is reset with it
+                                if (_status == BluetoothGatt.GATT_SUCCESS || _status == GattOperationQueue.STATUS_CANCELLED) {
+                                    return;
+                                }
+                                // off the queue lock, the stream writes into the queue
+                                mainHandler.post(new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        stream[0].onWriteFailed(_fragment);
+                                    }
+                                });
+                            }
+                        }));
+            }
+        }, new StreamSender.DeliveryListener() {
+            @Override
+            public void onDelivered(int _message_id, int _length) {
+                Log.d(TAG, "stream delivered: " + _message_id + ", " + _length + " bytes");
+            }
+
+            @Override
+            public void onFailed(int _message_id) {
+                Log.e(TAG, "stream failed: " + _message_id);
+                listener.onStatusMsg("Stream message failed: " + _message_id);
+            }
+        });
+        _connection.stream = stream[0];
+        return _connection.stream;
+    }
+
+    /**
+     * Coalesced scan changes on the main thread
+     * 새 장치만 화면에 전달한다. 장치 정보는 DeviceRegistry 에 이미 반영되어 있다.
+     */
+    private final ScanPipeline.Listener scanDiffListener = new ScanPipeline.Listener() {
+        @Override
+        public void onScanDiff(ScanCoalescer.Diff<ScanResult> _diff) {
+            if (!_diff.added.isEmpty()) {
+                listener.onStatusMsg(_diff.added);
+            }
+        }
+    };
+
+    /**
+     * Lost or failed link of one device
+     * 재연결이 켜져 있으면 backoff 후 다시 연결한다.
+     * @param _connection connection
+     */
+    private void onLinkLost(DeviceConnection _connection) {
+        if (reconnectEnabled) {
+            listener.onStatusMsg("Reconnecting: " + _connection.address);
+            connectionPool.onLinkLost(_connection, autoConnect);
         } else {
-            Log.e(TAG, "Failed to write command : " + cmd_characteristic.getUuid());
-            Log.e(TAG, "Failed to write command");
-            listener.onStatusMsg("Failed to write command");
-            disconnectGattServer();
+            connectionPool.release(_connection);
         }
     }
 
     /**
-     * BLE Scan Callback class
+     * Negotiate the MTU and enable notifications of the command characteristic.
+     * 연결은 CCCD 쓰기가 끝난 뒤에 READY 가 된다.
+     * @param _connection connection with a discovered characteristic
+     * @param _cached true if the characteristic was discovered on a previous link of the same gatt
      */
-    private class BLEScanCallback extends ScanCallback {
-        private Map<String, BluetoothDevice> cb_scan_results;
+    private void openSession(final DeviceConnection _connection, final boolean _cached) {
+        BluetoothGattCharacteristic cmd_characteristic = _connection.characteristics.get(CMD_CHARACTERISTIC_UUID);
+        // negotiate the largest MTU first, writes queued later are sized from it
+        _connection.queue.enqueue(GattOperation.requestMtu(MAX_MTU));
+        // 2M or coded PHY, the result comes in onPhyUpdate
+        int phy = getSupportedPhy();
+        if (phy != BluetoothDevice.PHY_LE_1M_MASK) {
+            _connection.queue.enqueue(GattOperation.setPreferredPhy(phy, phy, phyOptions));
+        }
 
-        /**
-         * Constructor
-         * @param _scan_results
-         */
-        BLEScanCallback(Map<String, BluetoothDevice> _scan_results) {
-            cb_scan_results = _scan_results;
+        // Set CharacteristicNotification
+        _connection.gatt.setCharacteristicNotification(cmd_characteristic, true);
+        // 리시버 설정
+        BluetoothGattDescriptor descriptor = cmd_characteristic.getDescriptor(CONFIG_DESCRIPTOR_UUID);
+        _connection.queue.enqueue(GattOperation.writeDescriptor(descriptor, BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE)
+                .setCallback(new GattOperation.Callback() {
+                    @Override
+                    public void onDone(GattOperation _operation, final int _status) {
+                        if (_status == GattOperationQueue.STATUS_CANCELLED) {
+                            return;
+                        }
+                        // off the queue lock, the pool locks the queues when it releases a connection
+                        mainHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                onNotificationsEnabled(_connection, _cached, _status);
+                            }
+                        });
+                    }
+                }));
+    }
+
+    /**
+     * Result of the CCCD write of openSession
+     * @param _connection connection
+     * @param _cached true if the characteristic was discovered on a previous link of the same gatt
+     * @param _status GATT status
+     */
+    private void onNotificationsEnabled(DeviceConnection _connection, boolean _cached, int _status) {
+        if (_connection.gatt == null) {
+            // released meanwhile
+            return;
+        }
+        if (_status == BluetoothGatt.GATT_SUCCESS) {
+            connectionPool.setState(_connection, DeviceConnection.State.READY);
+            // session open, back to balanced once idle
+            if (_connection.session.complete(_connection)) {
+                Log.d(TAG, "Session open: " + _connection.address + " in " + _connection.session.getElapsedMillis() + "ms");
+            }
+            scheduleRelax(_connection);
+            return;
+        }
+        // the cached handles are stale, discover again
+        if (_cached) {
+            Log.e(TAG, "Cached characteristic rejected, discover services: " + _connection.address);
+            _connection.characteristics.clear();
+            discoverServices(_connection);
+        } else {
+            // no notifications, the responses could not be received
+            Log.e(TAG, "Enabling notifications failed: " + _connection.address + ", status: " + _status);
+            _connection.session.fail(_status);
+            connectionPool.release(_connection);
+        }
+    }
+
+    /**
+     * Opens the gatt of a pooled connection
+     */
+    private final ConnectionPool.Connector connector = new ConnectionPool.Connector() {
+        @Override
+        public BluetoothGatt connect(DeviceConnection _connection) {
+            // update the status
+            listener.onStatusMsg("Connecting to " + _connection.address);
+            // LE transport, a dual mode device would otherwise be opened over BR/EDR
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                return _connection.device.connectGatt(mContext, false, new GattClientCallback(),
+                        BluetoothDevice.TRANSPORT_LE, getSupportedPhy());
+            } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                return _connection.device.connectGatt(mContext, false, new GattClientCallback(), BluetoothDevice.TRANSPORT_LE);
+            }
+            return _connection.device.connectGatt(mContext, false, new GattClientCallback());
         }
+    };
 
+    /**
+     * Connection state listener of the pool
+     */
+    private final ConnectionPool.StateListener connectionStateListener = new ConnectionPool.StateListener() {
         @Override
-        public void onScanResult(int _callback_type, ScanResult _result) {
-            listener.onStatusMsg(_result);
-            Log.d(TAG, "onScanResult");
-            addScanResult(_result);
+        public void onStateChanged(DeviceConnection _connection, DeviceConnection.State _state) {
+            Log.d(TAG, "connection: " + _connection);
+            if (_state == DeviceConnection.State.DISCONNECTED) {
+                _connection.session.fail(GattOperationQueue.STATUS_DISCONNECTED);
+                GattFuture<DeviceConnection> discovery = _connection.discovery;
+                if (discovery != null) {
+                    _connection.discovery = null;
+                    discovery.fail(GattOperationQueue.STATUS_DISCONNECTED);
+                }
+                frameAssembler.reset(_connection.address);
+                listener.onStatusMsg("Closed: " + _connection.address);
+            }
+        }
+    };
+
+    /**
+     * Operation result listener of all connections
+     * 실패한 요청은 보고만 하고 연결은 유지한다.
+     */
+    private final GattOperationQueue.OperationListener operationListener = new GattOperationQueue.OperationListener() {
+        @Override
+        public void onOperationDone(GattOperation _operation, int _status) {
+            if (_status == BluetoothGatt.GATT_SUCCESS) {
+                return;
+            }
+            Log.e(TAG, "Failed operation: " + _operation + ", status: " + _status);
+            listener.onStatusMsg("Failed " + _operation.getType() + ", status: " + _status);
+        }
+    };
+
+    /**
+     * BLE Scan Callback class
+     * 결과는 ScanPipeline 으로 넘기고 여기서는 아무 처리도 하지 않는다.
+     */
+    private class BLEScanCallback extends ScanCallback {
+        // stop posted for a stop-on-found profile
+        private final AtomicBoolean targetFound = new AtomicBoolean();
+        // advertisement parser of the callback thread
+        private final AdRecord adRecord = new AdRecord();
 
+        @Override
+        public void onScanResult(int _callback_type, ScanResult _result) {
+            if (_callback_type == ScanSettings.CALLBACK_TYPE_MATCH_LOST) {
+                listener.onStatusMsg("Lost: " + _result.getDevice().getAddress());
+                return;
+            }
+            if (scanMatchLevel != ScanMatchSpec.LEVEL_FULL && !scanMatch.matches(_result, adRecord)) {
+                return;
+            }
+            checkAutoConnect(_result);
+            scanPipeline.onResult(_result);
+            checkTarget(_result);
+            decodeBroadcast(_result);
         }
 
         @Override
         public void onBatchScanResults(List<ScanResult> _results) {
-            listener.onStatusMsg(_results);
+            if (scanMatchLevel != ScanMatchSpec.LEVEL_FULL) {
+                List<ScanResult> matched = new ArrayList<>(_results.size());
+                for (ScanResult result : _results) {
+                    if (scanMatch.matches(result, adRecord)) {
+                        matched.add(result);
+                    }
+                }
+                _results = matched;
+            }
+            scanPipeline.onResults(_results);
             for (ScanResult result : _results) {
-                addScanResult(result);
+                checkAutoConnect(result);
+                checkTarget(result);
+                decodeBroadcast(result);
             }
+        }
 
+        /**
+         * Start the connection of a pending connectOnScan with the first matching result
+         * @param _result scan result passing the scan match
+         */
+        private void checkAutoConnect(final ScanResult _result) {
+            final AutoConnectRequest request = autoConnectRequest;
+            if (request == null || request.future.isDone() || !request.matches(_result)
+                    || !request.claimed.compareAndSet(false, true)) {
+                return;
+            }
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (autoConnectRequest == request) {
+                        autoConnectRequest = null;
+                    }
+                    if (request.future.isDone()) {
+                        return;
+                    }
+                    if (request.stopScan) {
+                        stopScan();
+                    }
+                    listener.onStatusMsg("Auto connecting: " + _result.getDevice().getAddress() + ", " + _result.getRssi() + "dBm");
+                    request.future.completeFrom(connectionPool.connect(_result.getDevice()).session);
+                }
+            });
         }
 
-        @Override
-        public void onScanFailed(int _error) {
-            Log.e(TAG, "BLE scan failed with code " + _error);
+        /**
+         * Pass a new broadcast message in the service data of SERVICE_UUID to the broadcast listener
+         * @param _result scan result
+         */
+        private void decodeBroadcast(ScanResult _result) {
+            BroadcastListener broadcast_listener = broadcastListener;
+            ScanRecord record = _result.getScanRecord();
+            if (broadcast_listener == null || record == null) {
+                return;
+            }
+            // service data read in place, the payload is copied only for a new message
+            adRecord.parse(record.getBytes());
+            int index = adRecord.findServiceData(SERVICE_UUID_MSB, SERVICE_UUID_LSB);
+            if (index < 0) {
+                return;
+            }
+            byte[] bytes = adRecord.getBytes();
+            int offset = adRecord.getDataOffset(index);
+            int length = adRecord.getDataLength(index);
+            int sequence = BroadcastCodec.sequence(bytes, offset, length);
+            if (sequence < 0 || !broadcastFilter.accept(_result.getDevice().getAddress(), sequence)) {
+                return;
+            }
+            broadcast_listener.onBroadcast(_result.getDevice(), sequence, BroadcastCodec.payload(bytes, offset, length), _result.getRssi());
         }
 
         /**
-         * Add scan result
-         * @param _result
+         * Stop the scan once the target of the profile is found
+         * @param _result scan result
          */
-        private void addScanResult(ScanResult _result) {
+        private void checkTarget(ScanResult _result) {
+            ScanProfile profile = activeProfile;
+            if (profile == null || !profile.isTarget(_result.getDevice().getAddress())
+                    || !targetFound.compareAndSet(false, true)) {
+                return;
+            }
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (scanCallback == BLEScanCallback.this) {
+                        stopScan();
+                    }
+                }
+            });
+        }
 
-            // get scanned device
-            BluetoothDevice device = _result.getDevice();
-            // get scanned device MAC address
-            String device_address = device.getAddress();
-            // add the device to the result list
-            cb_scan_results.put(device_address, device);
-            // log
-            Log.e(TAG, "scan results device: " + device_address + ", " + device.getName());
-            listener.onStatusMsg("scan results device: " + device_address + ", " + device.getName());
-//            listener.onStatusMsg(device_address, device.getName());
+        @Override
+        public void onScanFailed(int _error) {
+            if (_error == SCAN_FAILED_OUT_OF_HARDWARE_RESOURCES && scanMatchLevel < ScanMatchSpec.LEVEL_NONE) {
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (scanCallback == BLEScanCallback.this) {
+                            lowerScanMatch();
+                        }
+                    }
+                });
+                return;
+            }
+            Log.e(TAG, "BLE scan failed with code " + _error);
+            listener.onStatusMsg("Scanning Failed: " + _error);
         }
     }
 
@@ -348,62 +1347,118 @@ public class CentralManager {
         @Override
         public void onConnectionStateChange(BluetoothGatt _gatt, int _status, int _new_state) {
             super.onConnectionStateChange(_gatt, _status, _new_state);
-            if (_status == BluetoothGatt.GATT_FAILURE) {
-                disconnectGattServer();
+            DeviceConnection connection = connectionPool.get(_gatt);
+            if (connection == null) {
+                // already released
+                _gatt.close();
                 return;
-            } else if (_status != BluetoothGatt.GATT_SUCCESS) {
-                disconnectGattServer();
+            }
+            // a failure only affects this device
+            if (_status != BluetoothGatt.GATT_SUCCESS) {
+                Log.e(TAG, "Connection failed: " + connection.address + ", status: " + _status);
+                onLinkLost(connection);
                 return;
             }
             if (_new_state == BluetoothProfile.STATE_CONNECTED) {
                 // update the connection status message
-                listener.onStatusMsg("Connected");
-                // set the connection flag
-                isConnected = true;
+                listener.onStatusMsg("Connected: " + connection.address);
                 Log.d(TAG, "Connected to the GATT server");
-                _gatt.discoverServices();
+                // shortest connection interval while the session opens, relaxed once it is open
+                if (_gatt.requestConnectionPriority(BluetoothGatt.CONNECTION_PRIORITY_HIGH)) {
+                    connection.priority = BluetoothGatt.CONNECTION_PRIORITY_HIGH;
+                }
+                if (connection.characteristics.get(CMD_CHARACTERISTIC_UUID) != null) {
+                    // reconnected through the same gatt (autoConnect), its characteristics are still valid
+                    openSession(connection, true);
+                    return;
+                }
+                discoverServices(connection);
             } else if (_new_state == BluetoothProfile.STATE_DISCONNECTED) {
-                disconnectGattServer();
+                onLinkLost(connection);
             }
         }
 
         @Override
         public void onServicesDiscovered(BluetoothGatt _gatt, int _status) {
             super.onServicesDiscovered(_gatt, _status);
+            DeviceConnection connection = connectionPool.get(_gatt);
+            if (connection == null) {
+                return;
+            }
+            if (connection.queue != null) {
+                connection.queue.onCompleted(GattOperation.Type.DISCOVER_SERVICES, _status);
+            }
+            GattFuture<DeviceConnection> discovery = connection.discovery;
+            connection.discovery = null;
             // check if the discovery failed
             if (_status != BluetoothGatt.GATT_SUCCESS) {
                 Log.e(TAG, "Device service discovery failed, status: " + _status);
+                if (discovery != null) {
+                    discovery.fail(_status);
+                }
+                connectionPool.release(connection);
                 return;
             }
 
             Log.e(TAG, "getDevice().getAddress() : " + _gatt.getDevice().getAddress() + ", " + _gatt.getDevice().getName());
-            // find discovered characteristics
-            List<BluetoothGattCharacteristic> matching_characteristics = BluetoothUtils.findBLECharacteristics(_gatt);
-            for (BluetoothGattCharacteristic characteristic : matching_characteristics) {
-                Log.e(TAG, "characteristic : " + characteristic.getUuid());
-            }
+            // resolve the discovered characteristics once, sends look them up by UUID
+            connection.characteristics.clear();
+            BluetoothUtils.cacheCharacteristics(_gatt, connection.characteristics);
+            Log.d(TAG, "cached characteristics : " + connection.characteristics.size());
 
-            if (matching_characteristics.isEmpty()) {
+            if (connection.characteristics.get(CMD_CHARACTERISTIC_UUID) == null) {
                 Log.e(TAG, "Unable to find characteristics");
+                if (discovery != null) {
+                    discovery.fail(GattOperationQueue.STATUS_NOT_FOUND);
+                }
+                connectionPool.release(connection);
                 return;
             }
+            if (discovery != null) {
+                discovery.complete(connection);
+            }
 
             // log for successful discovery
             Log.d(TAG, "Services discovery is successful");
 
-            // Set CharacteristicNotification
-            BluetoothGattCharacteristic cmd_characteristic = BluetoothUtils.findCharacteristic(_gatt, CHARACTERISTIC_UUID);
-            _gatt.setCharacteristicNotification(cmd_characteristic, true);
-            // 리시버 설정
-            BluetoothGattDescriptor descriptor = cmd_characteristic.getDescriptor(UUID.fromString(CONFIG_UUID));
-            descriptor.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
-            boolean success = _gatt.writeDescriptor(descriptor);
-            if (success) {
-                Log.e(TAG, "writeCharacteristic success");
+            openSession(connection, false);
+
+        }
+
+        @Override
+        public void onDescriptorWrite(BluetoothGatt _gatt, BluetoothGattDescriptor _descriptor, int _status) {
+            super.onDescriptorWrite(_gatt, _descriptor, _status);
+            if (_status == BluetoothGatt.GATT_SUCCESS) {
+                Log.d(TAG, "Descriptor written successfully");
             } else {
-                Log.e(TAG, "writeCharacteristic fail");
+                Log.e(TAG, "Descriptor write unsuccessful, status: " + _status);
+            }
+            onCompleted(_gatt, GattOperation.Type.WRITE_DESCRIPTOR, _status);
+        }
+
+        @Override
+        public void onMtuChanged(BluetoothGatt _gatt, int _mtu, int _status) {
+            super.onMtuChanged(_gatt, _mtu, _status);
+            Log.d(TAG, "MTU changed: " + _mtu + ", status: " + _status);
+            DeviceConnection connection = connectionPool.get(_gatt);
+            if (connection != null && _status == BluetoothGatt.GATT_SUCCESS) {
+                connection.mtu = _mtu;
+                listener.onStatusMsg("MTU : " + _mtu);
             }
+            onCompleted(_gatt, GattOperation.Type.REQUEST_MTU, _status);
+        }
 
+        @Override
+        public void onPhyUpdate(BluetoothGatt _gatt, int _tx_phy, int _rx_phy, int _status) {
+            super.onPhyUpdate(_gatt, _tx_phy, _rx_phy, _status);
+            Log.d(TAG, "PHY updated tx: " + _tx_phy + ", rx: " + _rx_phy + ", status: " + _status);
+            DeviceConnection connection = connectionPool.get(_gatt);
+            if (connection != null && _status == BluetoothGatt.GATT_SUCCESS) {
+                connection.txPhy = _tx_phy;
+                connection.rxPhy = _rx_phy;
+                listener.onStatusMsg("PHY : " + _tx_phy + "/" + _rx_phy);
+            }
+            onCompleted(_gatt, GattOperation.Type.SET_PHY, _status);
         }
 
         @Override
@@ -411,7 +1466,20 @@ public class CentralManager {
             super.onCharacteristicChanged(_gatt, _characteristic);
 
             Log.d(TAG, "characteristic changed: " + _characteristic.getUuid().toString());
-            readCharacteristic(_characteristic);
+            byte[] value = _characteristic.getValue();
+            if (value == null || value.length == 0) {
+                return;
+            }
+            if (FrameCodec.type(value) != FrameCodec.TYPE_DATA) {
+                // credit, ack or nack of the stream
+                DeviceConnection connection = connectionPool.get(_gatt);
+                StreamSender stream = connection == null ? null : connection.stream;
+                if (stream != null) {
+                    stream.onControl(value);
+                }
+                return;
+            }
+            frameAssembler.onFragment(_gatt.getDevice().getAddress(), value);
         }
 
         @Override
@@ -420,9 +1488,10 @@ public class CentralManager {
             if (_status == BluetoothGatt.GATT_SUCCESS) {
                 Log.d(TAG, "Characteristic written successfully");
             } else {
+                // a failed write is reported by the queue, the connection is kept
                 Log.e(TAG, "Characteristic write unsuccessful, status: " + _status);
-                disconnectGattServer();
             }
+            onCompleted(_gatt, GattOperation.Type.WRITE, _status);
         }
 
         @Override
@@ -437,6 +1506,25 @@ public class CentralManager {
                 // set to allow this. Normally this would be an error and you would want to:
                 // disconnectGattServer();
             }
+            DeviceConnection connection = connectionPool.get(gatt);
+            if (connection != null && connection.queue != null) {
+                byte[] value = characteristic.getValue();
+                // copied, a later notification changes the characteristic value
+                connection.queue.onCompleted(GattOperation.Type.READ, status, value == null ? null : value.clone());
+            }
+        }
+
+        /**
+         * Pass the completion to the operation queue of the connection
+         * @param _gatt connection
+         * @param _type completed operation
+         * @param _status GATT status
+         */
+        private void onCompleted(BluetoothGatt _gatt, GattOperation.Type _type, int _status) {
+            DeviceConnection connection = connectionPool.get(_gatt);
+            if (connection != null && connection.queue != null) {
+                connection.queue.onCompleted(_type, _status);
+            }
         }
 
         /**
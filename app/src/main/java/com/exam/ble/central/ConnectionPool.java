@@ -0,0 +1,288 @@
+package com.exam.ble.central;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Connections to many peripherals keyed by device address.
+ * 동시에 연결을 시도하는 수와 활성 연결 수를 제한하고, 실패는 해당 장치에만 영향을 준다.
+ */
+public class ConnectionPool {
+    private final String TAG = ConnectionPool.class.getSimpleName();
+
+    /**
+     * Opens the gatt of a connection, ex) BluetoothDevice.connectGatt
+     */
+    public interface Connector {
+        @Nullable
+        BluetoothGatt connect(DeviceConnection _connection);
+    }
+
+    /**
+     * Connection state listener
+     */
+    public interface StateListener {
+        void onStateChanged(DeviceConnection _connection, DeviceConnection.State _state);
+    }
+
+    private final int maxActive;
+    private final int maxConnecting;
+    private final long connectTimeout;
+    private final Connector connector;
+    private final StateListener stateListener;
+    private final GattOperationQueue.OperationListener operationListener;
+    private final ReconnectPolicy reconnectPolicy;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private final Map<String, DeviceConnection> connections = new LinkedHashMap<>();
+    private final ArrayDeque<DeviceConnection> waiting = new ArrayDeque<>();
+
+    /**
+     * @param _max_active max connections that are not QUEUED or DISCONNECTED
+     * @param _max_connecting max connections in CONNECTING at the same time
+     * @param _connect_timeout time allowed for CONNECTING in milliseconds
+     * @param _reconnect_policy backoff of lost links
+     */
+    public ConnectionPool(int _max_active, int _max_connecting, long _connect_timeout, ReconnectPolicy _reconnect_policy,
+                          Connector _connector, StateListener _state_listener,
+                          GattOperationQueue.OperationListener _operation_listener) {
+        maxActive = _max_active;
+        maxConnecting = _max_connecting;
+        connectTimeout = _connect_timeout;
+        connector = _connector;
+        stateListener = _state_listener;
+        operationListener = _operation_listener;
+        reconnectPolicy = _reconnect_policy;
+    }
+
+    /**
+     * Queue a connection to the device
+     * @param _device peripheral
+     * @return connection of the device, the existing one if already known
+     */
+    public synchronized DeviceConnection connect(BluetoothDevice _device) {
+        DeviceConnection connection = connections.get(_device.getAddress());
+        if (connection != null && connection.state != DeviceConnection.State.DISCONNECTED) {
+            return connection;
+        }
+
+        // session listeners run on the main thread, never under this lock
+        final DeviceConnection created = new DeviceConnection(_device, handler::post, new Runnable() {
+            @Override
+            public void run() {
+                onConnectTimeout(_device.getAddress());
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                onReconnect(_device.getAddress());
+            }
+        });
+        connections.put(created.address, created);
+        waiting.add(created);
+        stateListener.onStateChanged(created, DeviceConnection.State.QUEUED);
+        dispatch();
+        return created;
+    }
+
+    /**
+     * @param _address device address
+     * @return connection of the address
+     */
+    @Nullable
+    public synchronized DeviceConnection get(String _address) {
+        return connections.get(_address);
+    }
+
+    /**
+     * @param _gatt gatt of a connection
+     * @return connection owning the gatt
+     */
+    @Nullable
+    public synchronized DeviceConnection get(BluetoothGatt _gatt) {
+        DeviceConnection connection = connections.get(_gatt.getDevice().getAddress());
+        if (connection == null || connection.gatt != _gatt) {
+            return null;
+        }
+        return connection;
+    }
+
+    /**
+     * @return connections ready to send
+     */
+    public synchronized List<DeviceConnection> getReady() {
+        List<DeviceConnection> ready = new ArrayList<>();
+        for (DeviceConnection connection : connections.values()) {
+            if (connection.isReady()) {
+                ready.add(connection);
+            }
+        }
+        return ready;
+    }
+
+    /**
+     * @return every known connection
+     */
+    public synchronized List<DeviceConnection> getAll() {
+        return new ArrayList<>(connections.values());
+    }
+
+    /**
+     * Move the connection to a new state
+     * @param _connection connection
+     * @param _state new state
+     */
+    public synchronized void setState(DeviceConnection _connection, DeviceConnection.State _state) {
+        if (connections.get(_connection.address) != _connection || _connection.state == _state) {
+            return;
+        }
+        if (_connection.state == DeviceConnection.State.CONNECTING) {
+            handler.removeCallbacks(_connection.connectTimeout);
+        }
+        if (_state == DeviceConnection.State.READY) {
+            _connection.reconnectAttempts = 0;
+        }
+        _connection.state = _state;
+        stateListener.onStateChanged(_connection, _state);
+        dispatch();
+    }
+
+    /**
+     * The link of the connection was lost or could not be opened.
+     * 재연결 횟수가 남아있으면 backoff 후 다시 연결하고, 아니면 연결을 닫는다.
+     * @param _connection connection
+     * @param _auto_connect true to let the stack reconnect through the existing gatt (autoConnect=true)
+     */
+    public synchronized void onLinkLost(final DeviceConnection _connection, boolean _auto_connect) {
+        if (connections.get(_connection.address) != _connection) {
+            return;
+        }
+        handler.removeCallbacks(_connection.connectTimeout);
+        if (!reconnectPolicy.canRetry(_connection.reconnectAttempts)) {
+            Log.e(TAG, "Giving up reconnect: " + _connection.address);
+            release(_connection);
+            return;
+        }
+
+        _connection.suspend();
+        _connection.state = DeviceConnection.State.RECONNECTING;
+        stateListener.onStateChanged(_connection, DeviceConnection.State.RECONNECTING);
+
+        // gatt.connect() of an existing gatt waits in the background until the device is back
+        if (_auto_connect && _connection.gatt != null && _connection.gatt.connect()) {
+            _connection.reconnectAttempts++;
+            _connection.attach(_connection.gatt, operationListener);
+            dispatch();
+            return;
+        }
+
+        // otherwise open a new gatt after the backoff.
+        // 캐시된 특성은 닫힌 gatt 의 객체라 새 gatt 에서는 콜백을 찾지 못하므로 다시 탐색한다.
+        if (_connection.gatt != null) {
+            _connection.gatt.close();
+            _connection.gatt = null;
+        }
+        _connection.characteristics.clear();
+        long delay = reconnectPolicy.getDelay(_connection.reconnectAttempts);
+        _connection.reconnectAttempts++;
+        Log.d(TAG, "Reconnect " + _connection.address + " in " + delay + "ms");
+        handler.postDelayed(_connection.reconnectTask, delay);
+        dispatch();
+    }
+
+    /**
+     * Close one connection, the others are not touched
+     * @param _connection connection to close
+     */
+    public synchronized void release(DeviceConnection _connection) {
+        handler.removeCallbacks(_connection.connectTimeout);
+        handler.removeCallbacks(_connection.reconnectTask);
+        waiting.remove(_connection);
+        _connection.close();
+        if (connections.get(_connection.address) == _connection) {
+            connections.remove(_connection.address);
+        }
+        if (_connection.state != DeviceConnection.State.DISCONNECTED) {
+            _connection.state = DeviceConnection.State.DISCONNECTED;
+            stateListener.onStateChanged(_connection, DeviceConnection.State.DISCONNECTED);
+        }
+        dispatch();
+    }
+
+    /**
+     * Close every connection
+     */
+    public synchronized void releaseAll() {
+        waiting.clear();
+        for (DeviceConnection connection : new ArrayList<>(connections.values())) {
+            release(connection);
+        }
+    }
+
+    /**
+     * Start queued connections while there are free slots
+     */
+    private void dispatch() {
+        while (!waiting.isEmpty() && count(DeviceConnection.State.CONNECTING) < maxConnecting && activeCount() < maxActive) {
+            DeviceConnection connection = waiting.poll();
+            connection.state = DeviceConnection.State.CONNECTING;
+            stateListener.onStateChanged(connection, DeviceConnection.State.CONNECTING);
+
+            BluetoothGatt gatt = connector.connect(connection);
+            if (gatt == null) {
+                Log.e(TAG, "connectGatt failed: " + connection.address);
+                release(connection);
+                continue;
+            }
+            connection.attach(gatt, operationListener);
+            handler.postDelayed(connection.connectTimeout, connectTimeout);
+        }
+    }
+
+    private synchronized void onConnectTimeout(String _address) {
+        DeviceConnection connection = connections.get(_address);
+        if (connection != null && connection.state == DeviceConnection.State.CONNECTING) {
+            Log.e(TAG, "Connect timeout: " + _address);
+            onLinkLost(connection, false);
+        }
+    }
+
+    /**
+     * Backoff is over, wait for a connect slot again
+     * @param _address device address
+     */
+    private synchronized void onReconnect(String _address) {
+        DeviceConnection connection = connections.get(_address);
+        if (connection != null && connection.state == DeviceConnection.State.RECONNECTING && connection.gatt == null) {
+            connection.state = DeviceConnection.State.QUEUED;
+            waiting.add(connection);
+            stateListener.onStateChanged(connection, DeviceConnection.State.QUEUED);
+            dispatch();
+        }
+    }
+
+    private int count(DeviceConnection.State _state) {
+        int count = 0;
+        for (DeviceConnection connection : connections.values()) {
+            if (connection.state == _state) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private int activeCount() {
+        return connections.size() - waiting.size() - count(DeviceConnection.State.DISCONNECTED);
+    }
+}
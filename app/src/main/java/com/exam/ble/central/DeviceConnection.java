@@ -0,0 +1,175 @@
+package com.exam.ble.central;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import com.exam.ble.protocol.StreamSender;
+
+import java.util.concurrent.Executor;
+
+import static com.exam.ble.Constants.DEFAULT_MTU;
+
+/**
+ * Connection to one peripheral in the {@link ConnectionPool}.
+ * 연결 상태, Gatt, 요청 큐, MTU, 스트림을 장치(주소)마다 따로 가진다.
+ */
+public class DeviceConnection {
+
+    public enum State {
+        // waiting for a free connect slot
+        QUEUED,
+        // connectGatt called
+        CONNECTING,
+        // link is up, services are being discovered
+        DISCOVERING,
+        // services discovered, ready to send
+        READY,
+        // link lost, waiting for the backoff or the auto connect
+        RECONNECTING,
+        // closed
+        DISCONNECTED
+    }
+
+    final BluetoothDevice device;
+    final String address;
+
+    volatile State state = State.QUEUED;
+    volatile BluetoothGatt gatt;
+    volatile GattOperationQueue queue;
+    volatile StreamSender stream;
+    volatile int mtu = DEFAULT_MTU;
+    // PHY from onPhyUpdate
+    volatile int txPhy = BluetoothDevice.PHY_LE_1M;
+    volatile int rxPhy = BluetoothDevice.PHY_LE_1M;
+    // BluetoothGatt.CONNECTION_PRIORITY_* last requested
+    volatile int priority = BluetoothGatt.CONNECTION_PRIORITY_BALANCED;
+    // characteristics found by the discovery, reused only by an autoConnect reconnect of the same gatt
+    final HandleCache<BluetoothGattCharacteristic> characteristics = new HandleCache<>();
+    // reconnect attempts since the last READY
+    int reconnectAttempts = 0;
+    // discovery, MTU and notifications of the first link done, timed from the connect request
+    final GattFuture<DeviceConnection> session;
+    // service discovery requested through CentralManager.discover
+    volatile GattFuture<DeviceConnection> discovery;
+
+    // handles a connect that takes too long
+    final Runnable connectTimeout;
+    // queues the connection again after the reconnect backoff
+    final Runnable reconnectTask;
+
+    /**
+     * @param _device peripheral
+     * @param _listener_executor runs the listeners of the session, off the pool and queue locks
+     * @param _connect_timeout handles a connect that takes too long
+     * @param _reconnect_task queues the connection again
+     */
+    DeviceConnection(BluetoothDevice _device, Executor _listener_executor, Runnable _connect_timeout, Runnable _reconnect_task) {
+        device = _device;
+        address = _device.getAddress();
+        session = new GattFuture<>(_listener_executor);
+        connectTimeout = _connect_timeout;
+        reconnectTask = _reconnect_task;
+    }
+
+    /**
+     * Bind the gatt returned by connectGatt
+     * @param _gatt connection
+     * @param _listener result listener of the operation queue
+     */
+    void attach(BluetoothGatt _gatt, GattOperationQueue.OperationListener _listener) {
+        gatt = _gatt;
+        queue = new GattOperationQueue(_gatt);
+        queue.setListener(_listener);
+    }
+
+    /**
+     * Drop the work of the lost link, the gatt and the cached characteristics are kept
+     */
+    void suspend() {
+        if (queue != null) {
+            queue.clear();
+        }
+        if (stream != null) {
+            stream.reset();
+            stream = null;
+        }
+        mtu = DEFAULT_MTU;
+        txPhy = BluetoothDevice.PHY_LE_1M;
+        rxPhy = BluetoothDevice.PHY_LE_1M;
+        priority = BluetoothGatt.CONNECTION_PRIORITY_BALANCED;
+    }
+
+    /**
+     * Drop pending work, the cached characteristics and close the gatt
+     */
+    void close() {
+        suspend();
+        characteristics.clear();
+        if (gatt != null) {
+            gatt.disconnect();
+            gatt.close();
+            gatt = null;
+        }
+    }
+
+    public BluetoothDevice getDevice() {
+        return device;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public BluetoothGatt getGatt() {
+        return gatt;
+    }
+
+    public int getMtu() {
+        return mtu;
+    }
+
+    /**
+     * @return completed when the first session is open, failed if the connection is closed before
+     */
+    public GattFuture<DeviceConnection> getSession() {
+        return session;
+    }
+
+    /**
+     * @return transmitter PHY, BluetoothDevice.PHY_LE_1M, PHY_LE_2M or PHY_LE_CODED
+     */
+    public int getTxPhy() {
+        return txPhy;
+    }
+
+    /**
+     * @return receiver PHY, BluetoothDevice.PHY_LE_1M, PHY_LE_2M or PHY_LE_CODED
+     */
+    public int getRxPhy() {
+        return rxPhy;
+    }
+
+    /**
+     * @return BluetoothGatt.CONNECTION_PRIORITY_* last requested
+     */
+    public int getPriority() {
+        return priority;
+    }
+
+    /**
+     * @return true if data can be sent
+     */
+    public boolean isReady() {
+        return state == State.READY && gatt != null;
+    }
+
+    @Override
+    public String toString() {
+        return address + " " + state;
+    }
+}
@@ -0,0 +1,259 @@
+package com.exam.ble.central;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.os.ParcelUuid;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.UUID;
+
+/**
+ * Scanned devices kept across scans, updated in place.
+ * 장치마다 평활화된 RSSI, 마지막 수신 시간, 광고 수, 서비스 데이타를 가진다.
+ * 오래된 장치는 TTL 로, 넘치는 장치는 가장 오래 안 본 순서(LRU)로 지운다.
+ */
+public class DeviceRegistry {
+
+    /**
+     * One scanned device
+     */
+    public static class Entry {
+        public final String address;
+        // null for a restored device until it is seen again
+        @Nullable
+        public BluetoothDevice device;
+        @Nullable
+        public String name;
+        // exponentially smoothed RSSI in dBm
+        public float rssi;
+        // RSSI of the last advertisement in dBm
+        public int lastRssi;
+        // advertised TX power in dBm, Integer.MIN_VALUE if not advertised
+        public int txPower = Integer.MIN_VALUE;
+        // elapsed realtime of the first and the last advertisement in milliseconds
+        public long firstSeen;
+        public long lastSeen;
+        // advertisements received
+        public int adCount;
+        // service data of the last advertisement carrying each UUID
+        public final Map<UUID, byte[]> serviceData = new HashMap<>();
+
+        Entry(String _address, @Nullable BluetoothDevice _device) {
+            address = _address;
+            device = _device;
+        }
+
+        /**
+         * @return copy not updated by later advertisements
+         */
+        Entry copy() {
+            Entry copy = new Entry(address, device);
+            copy.name = name;
+            copy.rssi = rssi;
+            copy.lastRssi = lastRssi;
+            copy.txPower = txPower;
+            copy.firstSeen = firstSeen;
+            copy.lastSeen = lastSeen;
+            copy.adCount = adCount;
+            copy.serviceData.putAll(serviceData);
+            return copy;
+        }
+
+        @Override
+        public String toString() {
+            return address + ", " + name + ", " + Math.round(rssi) + "dBm";
+        }
+    }
+
+    private static final Comparator<Entry> BY_RSSI = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry _a, Entry _b) {
+            return Float.compare(_a.rssi, _b.rssi);
+        }
+    };
+
+    private final int maxSize;
+    private final long ttl;
+    private final float alpha;
+    // insertion ordered and re-put on every advertisement, the eldest entry is the least recently seen
+    private final LinkedHashMap<String, Entry> entries;
+
+    /**
+     * @param _max_size max devices kept
+     * @param _ttl devices not seen for this time in milliseconds are removed
+     * @param _alpha RSSI smoothing factor in (0, 1], weight of the newest sample
+     */
+    public DeviceRegistry(int _max_size, long _ttl, float _alpha) {
+        if (_max_size <= 0 || _ttl <= 0 || _alpha <= 0 || _alpha > 1) {
+            throw new IllegalArgumentException("invalid registry options");
+        }
+        maxSize = _max_size;
+        ttl = _ttl;
+        alpha = _alpha;
+        entries = new LinkedHashMap<String, Entry>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> _eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Update the device of a scan result
+     * @param _result scan result
+     */
+    public void update(ScanResult _result) {
+        BluetoothDevice device = _result.getDevice();
+        ScanRecord record = _result.getScanRecord();
+        // timestamp of the advertisement, batched results are older than now
+        long seen = _result.getTimestampNanos() / 1000000L;
+        synchronized (this) {
+            Entry entry = update(device.getAddress(), device, _result.getRssi(), seen);
+            if (record == null) {
+                return;
+            }
+            if (record.getDeviceName() != null) {
+                entry.name = record.getDeviceName();
+            }
+            if (record.getTxPowerLevel() != Integer.MIN_VALUE) {
+                entry.txPower = record.getTxPowerLevel();
+            }
+            Map<ParcelUuid, byte[]> service_data = record.getServiceData();
+            if (service_data != null) {
+                for (Map.Entry<ParcelUuid, byte[]> data : service_data.entrySet()) {
+                    entry.serviceData.put(data.getKey().getUuid(), data.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Update or add a device
+     * @param _address device address
+     * @param _device device, null in tests
+     * @param _rssi RSSI of the advertisement
+     * @param _now elapsed realtime of the advertisement in milliseconds
+     * @return entry of the device
+     */
+    synchronized Entry update(String _address, @Nullable BluetoothDevice _device, int _rssi, long _now) {
+        // 읽기로는 순서가 바뀌지 않게, 광고를 받았을 때만 맨 뒤로 옮긴다
+        Entry entry = entries.remove(_address);
+        if (entry == null) {
+            entry = new Entry(_address, _device);
+            entry.firstSeen = _now;
+            entry.lastSeen = _now;
+            entry.rssi = _rssi;
+        } else {
+            entry.rssi += alpha * (_rssi - entry.rssi);
+            if (entry.device == null) {
+                entry.device = _device;
+            }
+        }
+        entries.put(_address, entry);
+        entry.lastRssi = _rssi;
+        entry.lastSeen = Math.max(entry.lastSeen, _now);
+        entry.adCount++;
+        return entry;
+    }
+
+    /**
+     * Remove devices not seen within the TTL
+     * @param _now elapsed realtime in milliseconds
+     * @return number of removed devices
+     */
+    public synchronized int evictStale(long _now) {
+        int removed = 0;
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            if (_now - iterator.next().lastSeen > ttl) {
+                iterator.remove();
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * @param _address device address
+     * @return copy of the device entry, null if unknown
+     */
+    @Nullable
+    public synchronized Entry get(String _address) {
+        Entry entry = entries.get(_address);
+        return entry == null ? null : entry.copy();
+    }
+
+    /**
+     * Strongest devices by smoothed RSSI
+     * @param _count max devices returned
+     * @param _now elapsed realtime in milliseconds, stale devices are skipped
+     * @return copies sorted by RSSI, strongest first
+     */
+    public synchronized List<Entry> top(int _count, long _now) {
+        // min heap of the best _count entries
+        PriorityQueue<Entry> best = new PriorityQueue<>(Math.max(1, _count), BY_RSSI);
+        for (Entry entry : entries.values()) {
+            if (_count <= 0 || _now - entry.lastSeen > ttl) {
+                continue;
+            }
+            if (best.size() < _count) {
+                best.add(entry);
+            } else if (entry.rssi > best.peek().rssi) {
+                best.poll();
+                best.add(entry);
+            }
+        }
+        List<Entry> result = new ArrayList<>(best.size());
+        for (Entry entry : best) {
+            result.add(entry.copy());
+        }
+        Collections.sort(result, Collections.reverseOrder(BY_RSSI));
+        return result;
+    }
+
+    /**
+     * @return copies of every device, the least recently seen first
+     */
+    public synchronized List<Entry> snapshot() {
+        List<Entry> result = new ArrayList<>(entries.size());
+        for (Entry entry : entries.values()) {
+            result.add(entry.copy());
+        }
+        return result;
+    }
+
+    /**
+     * Put back a saved device, restore the least recently seen first to keep the eviction order
+     * @param _entry saved device
+     */
+    synchronized void restore(Entry _entry) {
+        entries.put(_entry.address, _entry.copy());
+    }
+
+    /**
+     * @param _address device address
+     * @return true if the device is kept
+     */
+    public synchronized boolean contains(String _address) {
+        return entries.containsKey(_address);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+}
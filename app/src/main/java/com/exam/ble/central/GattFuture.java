@@ -0,0 +1,229 @@
+package com.exam.ble.central;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Result of an asynchronous GATT request, with its GATT status and timing.
+ * minSdk 21 에는 CompletableFuture 가 없어서 필요한 만큼만 구현한다.
+ * 완료는 한번만 되고, listener 는 executor 가 있으면 executor 에서, 없으면 완료한 스레드에서 호출된다.
+ * CentralManager 의 future 는 main 스레드 executor 를 쓰므로 listener 가 큐나 풀의 lock 을 잡은 채로 불리지 않는다.
+ * @param <T> value of a successful result
+ */
+public class GattFuture<T> {
+
+    // status of a successful result, BluetoothGatt.GATT_SUCCESS
+    public final static int STATUS_SUCCESS = 0;
+
+    /**
+     * Completion listener
+     */
+    public interface Listener<T> {
+        void onComplete(GattFuture<T> _future);
+    }
+
+    /**
+     * Next request of a chain, started with the value of a successful result
+     */
+    public interface Step<T, R> {
+        GattFuture<R> run(T _value);
+    }
+
+    private final long startTime = System.nanoTime();
+    private long endTime;
+    private boolean done = false;
+    private int status;
+    private T value;
+    private List<Listener<T>> listeners = new ArrayList<>();
+    // runs the listeners, null for the completing thread
+    @Nullable
+    private final Executor executor;
+
+    public GattFuture() {
+        this(null);
+    }
+
+    /**
+     * @param _executor runs every listener, also one added after completion, null for the calling thread
+     */
+    public GattFuture(@Nullable Executor _executor) {
+        executor = _executor;
+    }
+
+    /**
+     * @param _value result
+     * @return false if already completed
+     */
+    public boolean complete(@Nullable T _value) {
+        return finish(STATUS_SUCCESS, _value);
+    }
+
+    /**
+     * @param _status GATT status or GattOperationQueue.STATUS_*, not STATUS_SUCCESS
+     * @return false if already completed
+     */
+    public boolean fail(int _status) {
+        if (_status == STATUS_SUCCESS) {
+            throw new IllegalArgumentException("failure with a success status");
+        }
+        return finish(_status, null);
+    }
+
+    /**
+     * Stop waiting for the result, the request itself may still run
+     * @return false if already completed
+     */
+    public boolean cancel() {
+        return finish(GattOperationQueue.STATUS_CANCELLED, null);
+    }
+
+    private boolean finish(int _status, T _value) {
+        List<Listener<T>> notified;
+        synchronized (this) {
+            if (done) {
+                return false;
+            }
+            done = true;
+            status = _status;
+            value = _value;
+            endTime = System.nanoTime();
+            notified = listeners;
+            listeners = null;
+            notifyAll();
+        }
+        for (Listener<T> listener : notified) {
+            notify(listener);
+        }
+        return true;
+    }
+
+    private void notify(final Listener<T> _listener) {
+        if (executor == null) {
+            _listener.onComplete(this);
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                _listener.onComplete(GattFuture.this);
+            }
+        });
+    }
+
+    /**
+     * Complete with the result of another future
+     * @param _source future to follow
+     */
+    public void completeFrom(GattFuture<? extends T> _source) {
+        follow(_source);
+    }
+
+    private <S extends T> void follow(GattFuture<S> _source) {
+        _source.addListener(new Listener<S>() {
+            @Override
+            public void onComplete(GattFuture<S> _future) {
+                if (_future.isSuccess()) {
+                    complete(_future.getValue());
+                } else {
+                    fail(_future.getStatus());
+                }
+            }
+        });
+    }
+
+    /**
+     * @param _listener called once when completed, right away (or posted to the executor) if already completed
+     * @return this
+     */
+    public GattFuture<T> addListener(Listener<T> _listener) {
+        synchronized (this) {
+            if (!done) {
+                listeners.add(_listener);
+                return this;
+            }
+        }
+        notify(_listener);
+        return this;
+    }
+
+    /**
+     * Run the next request once this one succeeded, a failure skips it
+     * @param _step next request
+     * @return result of the next request, or the failure of this one, on the executor of this one
+     */
+    public <R> GattFuture<R> then(final Step<? super T, R> _step) {
+        final GattFuture<R> next = new GattFuture<>(executor);
+        addListener(new Listener<T>() {
+            @Override
+            public void onComplete(GattFuture<T> _future) {
+                if (_future.isSuccess()) {
+                    next.completeFrom(_step.run(_future.getValue()));
+                } else {
+                    next.fail(_future.getStatus());
+                }
+            }
+        });
+        return next;
+    }
+
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    public synchronized boolean isSuccess() {
+        return done && status == STATUS_SUCCESS;
+    }
+
+    /**
+     * @return GATT status or GattOperationQueue.STATUS_*, only valid once done
+     */
+    public synchronized int getStatus() {
+        return status;
+    }
+
+    /**
+     * @return value of a successful result, null otherwise
+     */
+    @Nullable
+    public synchronized T getValue() {
+        return value;
+    }
+
+    /**
+     * @return time from the request to the result in milliseconds, up to now if not done
+     */
+    public synchronized long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis((done ? endTime : System.nanoTime()) - startTime);
+    }
+
+    /**
+     * Wait for the result, never on a thread that completes it, ex) the GATT callback or the main thread
+     * @param _timeout max wait
+     * @param _unit unit of the timeout
+     * @return this, done
+     */
+    public synchronized GattFuture<T> await(long _timeout, TimeUnit _unit) throws InterruptedException, TimeoutException {
+        long deadline = System.nanoTime() + _unit.toNanos(_timeout);
+        while (!done) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new TimeoutException();
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return this;
+    }
+
+    @Override
+    public synchronized String toString() {
+        if (!done) {
+            return "pending";
+        }
+        return (status == STATUS_SUCCESS ? "success" : "status " + status) + " in " + getElapsedMillis() + "ms";
+    }
+}
@@ -0,0 +1,200 @@
+package com.exam.ble.central;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.os.Build;
+
+/**
+ * One GATT request waiting in a {@link GattOperationQueue}.
+ * Android 는 한번에 하나의 GATT 요청만 처리하므로 요청은 큐를 통해서만 실행한다.
+ */
+public class GattOperation {
+
+    public enum Type {
+        WRITE,
+        READ,
+        WRITE_DESCRIPTOR,
+        REQUEST_MTU,
+        SET_PHY,
+        DISCOVER_SERVICES
+    }
+
+    /**
+     * Completion callback of one operation
+     */
+    public interface Callback {
+        /**
+         * @param _operation finished operation
+         * @param _status GATT status or GattOperationQueue.STATUS_*
+         */
+        void onDone(GattOperation _operation, int _status);
+    }
+
+    // default timeout of an operation in milliseconds
+    public final static long DEFAULT_TIMEOUT = 5000;
+    // timeout of a service discovery in milliseconds, a large database takes several connection events
+    public final static long DISCOVERY_TIMEOUT = 15000;
+
+    final Type type;
+    final BluetoothGattCharacteristic characteristic;
+    final BluetoothGattDescriptor descriptor;
+    final byte[] value;
+    final int writeType;
+    final int mtu;
+    final int txPhy;
+    final int rxPhy;
+    final int phyOptions;
+
+    // timeout in milliseconds
+    long timeout = DEFAULT_TIMEOUT;
+    // number of busy retries done
+    int retries = 0;
+    // called when the operation finished
+    Callback callback;
+    // value of a completed read
+    byte[] result;
+
+    private GattOperation(Type _type, BluetoothGattCharacteristic _characteristic, BluetoothGattDescriptor _descriptor,
+                          byte[] _value, int _write_type, int _mtu, int _tx_phy, int _rx_phy, int _phy_options) {
+        type = _type;
+        characteristic = _characteristic;
+        descriptor = _descriptor;
+        value = _value;
+        writeType = _write_type;
+        mtu = _mtu;
+        txPhy = _tx_phy;
+        rxPhy = _rx_phy;
+        phyOptions = _phy_options;
+    }
+
+    /**
+     * Write a value to the characteristic
+     * @param _characteristic target characteristic
+     * @param _value value to write, set on the characteristic when the operation starts
+     * @param _write_type BluetoothGattCharacteristic.WRITE_TYPE_*
+     */
+    public static GattOperation write(BluetoothGattCharacteristic _characteristic, byte[] _value, int _write_type) {
+        return new GattOperation(Type.WRITE, _characteristic, null, _value, _write_type, 0, 0, 0, 0);
+    }
+
+    /**
+     * Read the characteristic
+     * @param _characteristic target characteristic
+     */
+    public static GattOperation read(BluetoothGattCharacteristic _characteristic) {
+        return new GattOperation(Type.READ, _characteristic, null, null, 0, 0, 0, 0, 0);
+    }
+
+    /**
+     * Write a value to the descriptor
+     * @param _descriptor target descriptor
+     * @param _value value to write
+     */
+    public static GattOperation writeDescriptor(BluetoothGattDescriptor _descriptor, byte[] _value) {
+        return new GattOperation(Type.WRITE_DESCRIPTOR, null, _descriptor, _value, 0, 0, 0, 0, 0);
+    }
+
+    /**
+     * Request a new ATT MTU
+     * @param _mtu requested mtu
+     */
+    public static GattOperation requestMtu(int _mtu) {
+        return new GattOperation(Type.REQUEST_MTU, null, null, null, 0, _mtu, 0, 0, 0);
+    }
+
+    /**
+     * Set the preferred PHY. Skipped below Android O.
+     * @param _tx_phy BluetoothDevice.PHY_LE_*_MASK
+     * @param _rx_phy BluetoothDevice.PHY_LE_*_MASK
+     * @param _phy_options BluetoothDevice.PHY_OPTION_*
+     */
+    public static GattOperation setPreferredPhy(int _tx_phy, int _rx_phy, int _phy_options) {
+        return new GattOperation(Type.SET_PHY, null, null, null, 0, 0, _tx_phy, _rx_phy, _phy_options);
+    }
+
+    /**
+     * Discover the services of the peripheral, completed by onServicesDiscovered
+     */
+    public static GattOperation discoverServices() {
+        return new GattOperation(Type.DISCOVER_SERVICES, null, null, null, 0, 0, 0, 0, 0).setTimeout(DISCOVERY_TIMEOUT);
+    }
+
+    /**
+     * Change the timeout of this operation
+     * @param _timeout timeout in milliseconds
+     * @return this
+     */
+    public GattOperation setTimeout(long _timeout) {
+        timeout = _timeout;
+        return this;
+    }
+
+    /**
+     * Set the completion callback
+     * @param _callback called once with the result
+     * @return this
+     */
+    public GattOperation setCallback(Callback _callback) {
+        callback = _callback;
+        return this;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return value of a completed read, null for the other operations
+     */
+    public byte[] getResult() {
+        return result;
+    }
+
+    /**
+     * @return false if the operation can not run on this platform
+     */
+    boolean isSupported() {
+        if (type == Type.SET_PHY) {
+            return Build.VERSION.SDK_INT >= Build.VERSION_CODES.O;
+        }
+        return true;
+    }
+
+    /**
+     * Start the operation
+     * @param _gatt gatt to run on
+     * @return false if the stack did not accept the request (busy)
+     */
+    boolean execute(BluetoothGatt _gatt) {
+        switch (type) {
+            case WRITE:
+                characteristic.setValue(value);
+                characteristic.setWriteType(writeType);
+                return _gatt.writeCharacteristic(characteristic);
+            case READ:
+                return _gatt.readCharacteristic(characteristic);
+            case WRITE_DESCRIPTOR:
+                descriptor.setValue(value);
+                return _gatt.writeDescriptor(descriptor);
+            case REQUEST_MTU:
+                return _gatt.requestMtu(mtu);
+            case SET_PHY:
+                _gatt.setPreferredPhy(txPhy, rxPhy, phyOptions);
+                return true;
+            case DISCOVER_SERVICES:
+                return _gatt.discoverServices();
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        if (characteristic != null) {
+            return type + " " + characteristic.getUuid();
+        } else if (descriptor != null) {
+            return type + " " + descriptor.getUuid();
+        }
+        return type.toString();
+    }
+}
@@ -0,0 +1,203 @@
+package com.exam.ble.central;
+
+import android.bluetooth.BluetoothGatt;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Queue;
+
+/**
+ * Serialized GATT operation queue of one BluetoothGatt.
+ * 한 연결에서는 이전 요청의 콜백이 도착한 뒤에만 다음 요청을 실행한다.
+ * 다음 요청은 완료 콜백에서 바로 시작되므로 작업이 남아있는 동안 버스가 쉬지 않는다.
+ */
+public class GattOperationQueue {
+    private final String TAG = GattOperationQueue.class.getSimpleName();
+
+    // operation was not completed within its timeout
+    public final static int STATUS_TIMEOUT = -1;
+    // stack kept rejecting the operation
+    public final static int STATUS_BUSY = -2;
+    // operation is not supported on this platform
+    public final static int STATUS_UNSUPPORTED = -3;
+    // queue was cleared before the operation completed
+    public final static int STATUS_CANCELLED = -4;
+    // link was closed before the request completed
+    public final static int STATUS_DISCONNECTED = -5;
+    // device or characteristic is unknown
+    public final static int STATUS_NOT_FOUND = -6;
+
+    // retries when the stack is busy
+    private final static int MAX_BUSY_RETRIES = 10;
+    // delay between busy retries in milliseconds
+    private final static long BUSY_RETRY_DELAY = 20;
+
+    /**
+     * Operation result listener
+     */
+    public interface OperationListener {
+        /**
+         * @param _operation finished operation
+         * @param _status GATT status or one of STATUS_*
+         */
+        void onOperationDone(GattOperation _operation, int _status);
+    }
+
+    private final BluetoothGatt gatt;
+    private final Handler handler;
+    private final Queue<GattOperation> pending = new ArrayDeque<>();
+    // operation waiting for its callback
+    private GattOperation current;
+    private OperationListener listener;
+
+    private final Runnable timeoutRunnable = this::onTimeout;
+    private final Runnable retryRunnable = this::onRetry;
+
+    public GattOperationQueue(BluetoothGatt _gatt) {
+        gatt = _gatt;
+        handler = new Handler(Looper.getMainLooper());
+    }
+
+    public void setListener(OperationListener _listener) {
+        listener = _listener;
+    }
+
+    public BluetoothGatt getGatt() {
+        return gatt;
+    }
+
+    /**
+     * Add an operation, started right away if the queue is idle
+     * @param _operation operation to run
+     */
+    public synchronized void enqueue(GattOperation _operation) {
+        pending.add(_operation);
+        if (current == null) {
+            next();
+        }
+    }
+
+    /**
+     * Add operations back to back, no operation of another caller gets between them
+     * @param _operations operations to run in order, ex) the fragments of one message
+     */
+    public synchronized void enqueueAll(Collection<GattOperation> _operations) {
+        pending.addAll(_operations);
+        if (current == null) {
+            next();
+        }
+    }
+
+    /**
+     * Called from the GattCallback when an operation completed
+     * @param _type completed operation type
+     * @param _status GATT status
+     */
+    public synchronized void onCompleted(GattOperation.Type _type, int _status) {
+        onCompleted(_type, _status, null);
+    }
+
+    /**
+     * Called from the GattCallback when an operation completed with a value
+     * @param _type completed operation type
+     * @param _status GATT status
+     * @param _value value of a read, kept by the operation
+     */
+    public synchronized void onCompleted(GattOperation.Type _type, int _status, byte[] _value) {
+        if (current == null || current.type != _type) {
+            Log.w(TAG, "Unexpected completion: " + _type);
+            return;
+        }
+        current.result = _value;
+        finish(_status);
+        next();
+    }
+
+    /**
+     * @return number of operations not finished yet, including the running one
+     */
+    public synchronized int size() {
+        return pending.size() + (current == null ? 0 : 1);
+    }
+
+    /**
+     * Drop every operation, used when the connection is closed
+     */
+    public synchronized void clear() {
+        handler.removeCallbacks(timeoutRunnable);
+        handler.removeCallbacks(retryRunnable);
+        if (current != null) {
+            finish(STATUS_CANCELLED);
+        }
+        while (!pending.isEmpty()) {
+            notifyDone(pending.poll(), STATUS_CANCELLED);
+        }
+    }
+
+    /**
+     * Start pending operations until one is waiting for its callback
+     */
+    private void next() {
+        while (current == null && !pending.isEmpty()) {
+            current = pending.poll();
+            if (!current.isSupported()) {
+                finish(STATUS_UNSUPPORTED);
+                continue;
+            }
+            start();
+        }
+    }
+
+    private void start() {
+        if (current.execute(gatt)) {
+            handler.postDelayed(timeoutRunnable, current.timeout);
+            return;
+        }
+
+        // stack is busy, try again later instead of dropping the connection
+        if (current.retries < MAX_BUSY_RETRIES) {
+            current.retries++;
+            handler.postDelayed(retryRunnable, BUSY_RETRY_DELAY);
+            return;
+        }
+
+        Log.e(TAG, "Operation rejected: " + current);
+        finish(STATUS_BUSY);
+    }
+
+    private synchronized void onRetry() {
+        if (current != null) {
+            start();
+            next();
+        }
+    }
+
+    private synchronized void onTimeout() {
+        if (current == null) {
+            return;
+        }
+        Log.e(TAG, "Operation timeout: " + current);
+        finish(STATUS_TIMEOUT);
+        next();
+    }
+
+    private void finish(int _status) {
+        handler.removeCallbacks(timeoutRunnable);
+        handler.removeCallbacks(retryRunnable);
+        GattOperation done = current;
+        current = null;
+        notifyDone(done, _status);
+    }
+
+    private void notifyDone(GattOperation _operation, int _status) {
+        if (_operation.callback != null) {
+            _operation.callback.onDone(_operation, _status);
+        }
+        if (listener != null) {
+            listener.onOperationDone(_operation, _status);
+        }
+    }
+}
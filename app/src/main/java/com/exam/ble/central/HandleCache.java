@@ -0,0 +1,52 @@
+package com.exam.ble.central;
+
+import androidx.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Resolved GATT handles of one connection keyed by UUID.
+ * 서비스 탐색이 끝났을때 한번만 채우고, 보낼때는 문자열 변환이나 서비스 탐색 없이 찾는다.
+ * @param <T> handle type, ex) BluetoothGattCharacteristic
+ */
+public class HandleCache<T> {
+
+    private final Map<UUID, T> handles = new HashMap<>();
+
+    /**
+     * Add a handle, the first one of a UUID is kept
+     * @param _uuid uuid of the handle
+     * @param _handle handle
+     */
+    public synchronized void put(UUID _uuid, T _handle) {
+        if (!handles.containsKey(_uuid)) {
+            handles.put(_uuid, _handle);
+        }
+    }
+
+    /**
+     * @param _uuid uuid to find
+     * @return handle of the uuid, null if not cached
+     */
+    @Nullable
+    public synchronized T get(UUID _uuid) {
+        return handles.get(_uuid);
+    }
+
+    /**
+     * Drop every handle, used on disconnect or when the services changed
+     */
+    public synchronized void clear() {
+        handles.clear();
+    }
+
+    public synchronized int size() {
+        return handles.size();
+    }
+
+    public synchronized boolean isEmpty() {
+        return handles.isEmpty();
+    }
+}
@@ -0,0 +1,53 @@
+package com.exam.ble.central;
+
+import java.util.Random;
+
+/**
+ * Exponential backoff with jitter for reconnect attempts.
+ * 여러 장치가 동시에 끊겨도 재연결 시점이 겹치지 않도록 지연시간을 흩어놓는다.
+ */
+public class ReconnectPolicy {
+
+    private final long baseDelay;
+    private final long maxDelay;
+    private final int maxAttempts;
+    private final Random random;
+
+    /**
+     * @param _base_delay delay of the first attempt in milliseconds
+     * @param _max_delay upper bound of the delay in milliseconds
+     * @param _max_attempts attempts before giving up, 0 for no limit
+     */
+    public ReconnectPolicy(long _base_delay, long _max_delay, int _max_attempts) {
+        this(_base_delay, _max_delay, _max_attempts, new Random());
+    }
+
+    ReconnectPolicy(long _base_delay, long _max_delay, int _max_attempts, Random _random) {
+        baseDelay = _base_delay;
+        maxDelay = _max_delay;
+        maxAttempts = _max_attempts;
+        random = _random;
+    }
+
+    /**
+     * @param _attempt number of attempts already made
+     * @return true if another attempt is allowed
+     */
+    public boolean canRetry(int _attempt) {
+        return maxAttempts <= 0 || _attempt < maxAttempts;
+    }
+
+    /**
+     * Delay before the next attempt, between half and all of base * 2^attempt
+     * @param _attempt number of attempts already made
+     * @return delay in milliseconds
+     */
+    public long getDelay(int _attempt) {
+        long delay = baseDelay << Math.min(_attempt, 30);
+        if (delay <= 0 || delay > maxDelay) {
+            delay = maxDelay;
+        }
+        long half = delay / 2;
+        return half + (long) (random.nextDouble() * (delay - half));
+    }
+}
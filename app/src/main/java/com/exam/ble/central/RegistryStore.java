@@ -0,0 +1,217 @@
+package com.exam.ble.central;
+
+import android.bluetooth.le.ScanResult;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import static com.exam.ble.Constants.REGISTRY_MAX_DEVICES;
+import static com.exam.ble.Constants.BACKGROUND_REGISTRY_TTL;
+import static com.exam.ble.Constants.RSSI_SMOOTHING;
+
+/**
+ * DeviceRegistry of the background scan, kept in SharedPreferences across process restarts.
+ * 장치마다 주소를 키로 한 줄씩 저장하고, 결과가 올 때마다 바뀐 장치만 다시 쓴다.
+ * 등록부의 시간은 부팅 후 경과 시간이라 저장할 때 벽시계 시간으로 바꾼다.
+ */
+public class RegistryStore {
+    private final static String TAG = RegistryStore.class.getSimpleName();
+
+    private final static String PREFS_NAME = "ble_registry";
+
+    private static RegistryStore sInstance = null;
+
+    private final SharedPreferences prefs;
+    private final DeviceRegistry registry = new DeviceRegistry(REGISTRY_MAX_DEVICES, BACKGROUND_REGISTRY_TTL, RSSI_SMOOTHING);
+    // keys in the preferences, removed once the registry drops the device
+    private final Set<String> savedAddresses = new HashSet<>();
+
+    private static final Comparator<DeviceRegistry.Entry> BY_LAST_SEEN = new Comparator<DeviceRegistry.Entry>() {
+        @Override
+        public int compare(DeviceRegistry.Entry _a, DeviceRegistry.Entry _b) {
+            return Long.compare(_a.lastSeen, _b.lastSeen);
+        }
+    };
+
+    /**
+     * @param _context context of the app, the saved devices are loaded on the first call of the process
+     * @return store shared by the process
+     */
+    public static synchronized RegistryStore getInstance(Context _context) {
+        if (sInstance == null) {
+            sInstance = new RegistryStore(_context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE));
+        }
+        return sInstance;
+    }
+
+    private RegistryStore(SharedPreferences _prefs) {
+        prefs = _prefs;
+        load();
+    }
+
+    /**
+     * @return copies of the devices found by the background scan, the least recently seen first
+     */
+    public List<DeviceRegistry.Entry> getDevices() {
+        return registry.snapshot();
+    }
+
+    /**
+     * Update and save the devices of delivered scan results
+     * @param _results results of the scan
+     */
+    public synchronized void update(List<ScanResult> _results) {
+        Set<String> changed = new HashSet<>();
+        for (ScanResult result : _results) {
+            registry.update(result);
+            changed.add(result.getDevice().getAddress());
+        }
+        registry.evictStale(SystemClock.elapsedRealtime());
+        save(changed);
+    }
+
+    public synchronized void clear() {
+        registry.clear();
+        savedAddresses.clear();
+        prefs.edit().clear().apply();
+    }
+
+    /**
+     * @return wall clock minus elapsed realtime in milliseconds
+     */
+    private static long clockOffset() {
+        return System.currentTimeMillis() - SystemClock.elapsedRealtime();
+    }
+
+    private void load() {
+        long offset = clockOffset();
+        List<DeviceRegistry.Entry> saved = new ArrayList<>();
+        for (Map.Entry<String, ?> item : prefs.getAll().entrySet()) {
+            DeviceRegistry.Entry entry = item.getValue() instanceof String ? decode(item.getKey(), (String) item.getValue(), offset) : null;
+            if (entry == null) {
+                Log.w(TAG, "Dropped a saved device : " + item.getKey());
+                continue;
+            }
+            saved.add(entry);
+        }
+        savedAddresses.addAll(prefs.getAll().keySet());
+        Collections.sort(saved, BY_LAST_SEEN);
+        // stale devices are removed by the next update, a restart alone does not drop them
+        for (DeviceRegistry.Entry entry : saved) {
+            registry.restore(entry);
+        }
+    }
+
+    /**
+     * Write the changed devices and remove the dropped ones, the other lines are kept
+     * @param _changed addresses updated since the last save
+     */
+    private void save(Set<String> _changed) {
+        long offset = clockOffset();
+        SharedPreferences.Editor editor = prefs.edit();
+        Iterator<String> iterator = savedAddresses.iterator();
+        while (iterator.hasNext()) {
+            String address = iterator.next();
+            if (!registry.contains(address)) {
+                editor.remove(address);
+                iterator.remove();
+            }
+        }
+        for (String address : _changed) {
+            DeviceRegistry.Entry entry = registry.get(address);
+            if (entry != null) {
+                editor.putString(address, encode(entry, offset));
+                savedAddresses.add(address);
+            }
+        }
+        editor.apply();
+    }
+
+    /**
+     * Saved form of a device
+     * lastSeen,firstSeen,rssi,lastRssi,txPower,adCount,serviceData,name
+     * 시간은 벽시계 시간, serviceData 는 uuid=hex 를 ';' 로 이은 것이고 이름은 ',' 를 포함할 수 있어 마지막에 둔다.
+     * @param _entry device
+     * @param _clock_offset wall clock minus elapsed realtime in milliseconds
+     * @return saved value
+     */
+    static String encode(DeviceRegistry.Entry _entry, long _clock_offset) {
+        StringBuilder builder = new StringBuilder();
+        builder.append(_entry.lastSeen + _clock_offset).append(',')
+                .append(_entry.firstSeen + _clock_offset).append(',')
+                .append(_entry.rssi).append(',')
+                .append(_entry.lastRssi).append(',')
+                .append(_entry.txPower).append(',')
+                .append(_entry.adCount).append(',');
+        boolean first = true;
+        for (Map.Entry<UUID, byte[]> data : _entry.serviceData.entrySet()) {
+            if (!first) {
+                builder.append(';');
+            }
+            first = false;
+            builder.append(data.getKey()).append('=');
+            for (byte b : data.getValue()) {
+                builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+        }
+        builder.append(',');
+        if (_entry.name != null) {
+            builder.append(_entry.name);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @param _address device address
+     * @param _value saved value
+     * @param _clock_offset wall clock minus elapsed realtime in milliseconds
+     * @return device, null if the value is malformed
+     */
+    @Nullable
+    static DeviceRegistry.Entry decode(String _address, String _value, long _clock_offset) {
+        String[] fields = _value.split(",", 8);
+        if (fields.length != 8) {
+            return null;
+        }
+        try {
+            DeviceRegistry.Entry entry = new DeviceRegistry.Entry(_address, null);
+            entry.lastSeen = Long.parseLong(fields[0]) - _clock_offset;
+            entry.firstSeen = Long.parseLong(fields[1]) - _clock_offset;
+            entry.rssi = Float.parseFloat(fields[2]);
+            entry.lastRssi = Integer.parseInt(fields[3]);
+            entry.txPower = Integer.parseInt(fields[4]);
+            entry.adCount = Integer.parseInt(fields[5]);
+            if (!fields[6].isEmpty()) {
+                for (String data : fields[6].split(";")) {
+                    int split = data.indexOf('=');
+                    String hex = data.substring(split + 1);
+                    if (split < 0 || hex.length() % 2 != 0) {
+                        return null;
+                    }
+                    byte[] bytes = new byte[hex.length() / 2];
+                    for (int i = 0; i < bytes.length; i++) {
+                        bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+                    }
+                    entry.serviceData.put(UUID.fromString(data.substring(0, split)), bytes);
+                }
+            }
+            entry.name = fields[7].isEmpty() ? null : fields[7];
+            return entry;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.exam.ble.central;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.exam.ble.Constants.REGISTRY_MAX_DEVICES;
+
+/**
+ * Deduplicates scan results by device address between two UI updates.
+ * 같은 주소의 광고는 마지막 결과 하나로 합치고, 새 장치와 갱신된 장치를 나눠서 돌려준다.
+ * Not thread safe, used from the scan worker thread only.
+ * @param <T> scan result type
+ */
+public class ScanCoalescer<T> {
+
+    /**
+     * Changes since the last drain
+     */
+    public static class Diff<T> {
+        // devices seen for the first time
+        public final List<T> added;
+        // latest result of devices already reported
+        public final List<T> updated;
+
+        Diff(List<T> _added, List<T> _updated) {
+            added = _added;
+            updated = _updated;
+        }
+
+        public boolean isEmpty() {
+            return added.isEmpty() && updated.isEmpty();
+        }
+    }
+
+    // addresses reported in this scan, the least recently seen is dropped past maxKnown
+    private final LinkedHashMap<String, Boolean> known;
+    private final Map<String, T> added = new LinkedHashMap<>();
+    private final Map<String, T> updated = new LinkedHashMap<>();
+
+    public ScanCoalescer() {
+        this(REGISTRY_MAX_DEVICES);
+    }
+
+    /**
+     * @param _max_known max addresses remembered, a dropped device is reported as new when seen again
+     */
+    public ScanCoalescer(final int _max_known) {
+        if (_max_known <= 0) {
+            throw new IllegalArgumentException("invalid max known");
+        }
+        known = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> _eldest) {
+                return size() > _max_known;
+            }
+        };
+    }
+
+    /**
+     * Add a scan result
+     * @param _address device address
+     * @param _result scan result
+     * @return true if the device is new in this scan
+     */
+    public boolean offer(String _address, T _result) {
+        if (added.containsKey(_address)) {
+            known.put(_address, Boolean.TRUE);
+            added.put(_address, _result);
+            return false;
+        }
+        if (known.put(_address, Boolean.TRUE) == null) {
+            added.put(_address, _result);
+            return true;
+        }
+        updated.put(_address, _result);
+        return false;
+    }
+
+    /**
+     * @return true if there are changes to drain
+     */
+    public boolean hasPending() {
+        return !added.isEmpty() || !updated.isEmpty();
+    }
+
+    /**
+     * Take the changes since the last drain
+     * @return added and updated devices, one result per address
+     */
+    public Diff<T> drain() {
+        Diff<T> diff = new Diff<>(new ArrayList<>(added.values()), new ArrayList<>(updated.values()));
+        added.clear();
+        updated.clear();
+        return diff;
+    }
+
+    /**
+     * @return number of devices remembered in this scan
+     */
+    public int size() {
+        return known.size();
+    }
+
+    /**
+     * Forget every device, used when a new scan starts
+     */
+    public void clear() {
+        known.clear();
+        added.clear();
+        updated.clear();
+    }
+}
@@ -0,0 +1,286 @@
+package com.exam.ble.central;
+
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.os.ParcelUuid;
+
+import androidx.annotation.Nullable;
+
+import com.exam.ble.protocol.AdRecord;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+
+/**
+ * Declarative match of the scanned devices, compiled into hardware ScanFilters.
+ * 종류(service uuid, manufacturer data, service data, address)끼리는 AND, 같은 종류 안에서는 OR 로 매칭한다.
+ * ScanFilter 는 필터끼리 OR 이므로 종류마다 하나씩 고른 조합이 필터 하나가 된다.
+ * 컨트롤러의 필터 슬롯이 부족하면 더 넓은 필터(LEVEL_COARSE)나 필터 없이(LEVEL_NONE) scan 하고
+ * 그때만 matches 로 소프트웨어 매칭을 한다.
+ */
+public class ScanMatchSpec {
+
+    // every criterion in hardware
+    public final static int LEVEL_FULL = 0;
+    // one kind of criterion in hardware, the rest in software
+    public final static int LEVEL_COARSE = 1;
+    // no hardware filter, everything in software
+    public final static int LEVEL_NONE = 2;
+
+    /**
+     * One criterion matched in place
+     */
+    interface Match {
+        boolean matches(AdRecord _record);
+    }
+
+    /**
+     * Service uuid with a mask, compared as two longs
+     */
+    static class UuidMatch implements Match {
+        final UUID uuid;
+        @Nullable
+        final UUID mask;
+        final long msb;
+        final long lsb;
+        final long maskMsb;
+        final long maskLsb;
+
+        UuidMatch(UUID _uuid, @Nullable UUID _mask) {
+            uuid = _uuid;
+            mask = _mask;
+            maskMsb = _mask == null ? -1L : _mask.getMostSignificantBits();
+            maskLsb = _mask == null ? -1L : _mask.getLeastSignificantBits();
+            msb = _uuid.getMostSignificantBits() & maskMsb;
+            lsb = _uuid.getLeastSignificantBits() & maskLsb;
+        }
+
+        @Override
+        public boolean matches(AdRecord _record) {
+            return _record.hasServiceUuid(msb, lsb, maskMsb, maskLsb);
+        }
+    }
+
+    /**
+     * Data prefix with a mask, of a manufacturer id or a service uuid
+     */
+    static class DataMatch implements Match {
+        final int manufacturerId;
+        @Nullable
+        final UUID serviceUuid;
+        final byte[] data;
+        @Nullable
+        final byte[] mask;
+
+        DataMatch(int _manufacturer_id, @Nullable UUID _service_uuid, byte[] _data, @Nullable byte[] _mask) {
+            if (_mask != null && _mask.length != _data.length) {
+                throw new IllegalArgumentException("mask and data lengths differ");
+            }
+            manufacturerId = _manufacturer_id;
+            serviceUuid = _service_uuid;
+            data = _data;
+            mask = _mask;
+        }
+
+        @Override
+        public boolean matches(AdRecord _record) {
+            int index = serviceUuid == null ? _record.findManufacturerData(manufacturerId) : _record.findServiceData(serviceUuid);
+            return index >= 0 && _record.dataStartsWith(index, data, mask);
+        }
+    }
+
+    final List<UuidMatch> serviceUuids;
+    final List<DataMatch> manufacturerData;
+    final List<DataMatch> serviceData;
+    // upper case addresses
+    final List<String> addresses;
+
+    private ScanMatchSpec(Builder _builder) {
+        serviceUuids = Collections.unmodifiableList(new ArrayList<>(_builder.serviceUuids));
+        manufacturerData = Collections.unmodifiableList(new ArrayList<>(_builder.manufacturerData));
+        serviceData = Collections.unmodifiableList(new ArrayList<>(_builder.serviceData));
+        addresses = Collections.unmodifiableList(new ArrayList<>(_builder.addresses));
+    }
+
+    /**
+     * @param _service_uuid service uuid to look for
+     * @return spec of the devices advertising the service
+     */
+    public static ScanMatchSpec forService(UUID _service_uuid) {
+        return new Builder().addServiceUuid(_service_uuid).build();
+    }
+
+    /**
+     * @return hardware filters needed by LEVEL_FULL, the product of the criteria counts
+     */
+    public int getFilterCount() {
+        int count = 1;
+        for (int size : new int[]{serviceUuids.size(), manufacturerData.size(), serviceData.size(), addresses.size()}) {
+            if (size > 0) {
+                count *= size;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Build the hardware filters
+     * @param _level LEVEL_FULL, LEVEL_COARSE or LEVEL_NONE
+     * @return filters of startScan, empty for LEVEL_NONE
+     */
+    public List<ScanFilter> toScanFilters(int _level) {
+        List<ScanFilter> filters = new ArrayList<>();
+        if (_level == LEVEL_NONE) {
+            return filters;
+        }
+        if (_level == LEVEL_COARSE) {
+            // the first non empty kind alone, one filter per entry
+            if (!serviceUuids.isEmpty()) {
+                for (UuidMatch uuid : serviceUuids) {
+                    filters.add(addServiceUuid(new ScanFilter.Builder(), uuid).build());
+                }
+            } else if (!manufacturerData.isEmpty()) {
+                for (DataMatch data : manufacturerData) {
+                    filters.add(new ScanFilter.Builder().setManufacturerData(data.manufacturerId, new byte[0]).build());
+                }
+            } else if (!serviceData.isEmpty()) {
+                for (DataMatch data : serviceData) {
+                    filters.add(new ScanFilter.Builder().setServiceData(new ParcelUuid(data.serviceUuid), new byte[0]).build());
+                }
+            } else {
+                for (String address : addresses) {
+                    filters.add(new ScanFilter.Builder().setDeviceAddress(address).build());
+                }
+            }
+            return filters;
+        }
+
+        // one filter per combination, null stands for an empty kind
+        for (UuidMatch uuid : orNull(serviceUuids)) {
+            for (DataMatch manufacturer : orNull(manufacturerData)) {
+                for (DataMatch service : orNull(serviceData)) {
+                    for (String address : orNull(addresses)) {
+                        ScanFilter.Builder builder = new ScanFilter.Builder();
+                        if (uuid != null) {
+                            addServiceUuid(builder, uuid);
+                        }
+                        if (manufacturer != null) {
+                            builder.setManufacturerData(manufacturer.manufacturerId, manufacturer.data, manufacturer.mask);
+                        }
+                        if (service != null) {
+                            builder.setServiceData(new ParcelUuid(service.serviceUuid), service.data, service.mask);
+                        }
+                        if (address != null) {
+                            builder.setDeviceAddress(address);
+                        }
+                        filters.add(builder.build());
+                    }
+                }
+            }
+        }
+        return filters;
+    }
+
+    private static ScanFilter.Builder addServiceUuid(ScanFilter.Builder _builder, UuidMatch _uuid) {
+        if (_uuid.mask == null) {
+            return _builder.setServiceUuid(new ParcelUuid(_uuid.uuid));
+        }
+        return _builder.setServiceUuid(new ParcelUuid(_uuid.uuid), new ParcelUuid(_uuid.mask));
+    }
+
+    private static <T> List<T> orNull(List<T> _list) {
+        return _list.isEmpty() ? Collections.<T>singletonList(null) : _list;
+    }
+
+    /**
+     * Software match of a scan result, used when the hardware filters are coarser than the spec
+     * @param _result scan result
+     * @param _record parser reused by the calling thread
+     * @return true if the device matches every kind of criterion
+     */
+    public boolean matches(ScanResult _result, AdRecord _record) {
+        ScanRecord record = _result.getScanRecord();
+        _record.parse(record == null ? null : record.getBytes());
+        return matches(_result.getDevice().getAddress(), _record);
+    }
+
+    /**
+     * @param _address device address
+     * @param _record parsed advertisement
+     * @return true if the device matches every kind of criterion
+     */
+    boolean matches(String _address, AdRecord _record) {
+        if (!addresses.isEmpty() && !addresses.contains(_address)) {
+            return false;
+        }
+        return matchesAny(serviceUuids, _record) && matchesAny(manufacturerData, _record) && matchesAny(serviceData, _record);
+    }
+
+    private static boolean matchesAny(List<? extends Match> _matches, AdRecord _record) {
+        if (_matches.isEmpty()) {
+            return true;
+        }
+        for (int i = 0; i < _matches.size(); i++) {
+            if (_matches.get(i).matches(_record)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static class Builder {
+        private final List<UuidMatch> serviceUuids = new ArrayList<>();
+        private final List<DataMatch> manufacturerData = new ArrayList<>();
+        private final List<DataMatch> serviceData = new ArrayList<>();
+        private final List<String> addresses = new ArrayList<>();
+
+        public Builder addServiceUuid(UUID _uuid) {
+            return addServiceUuid(_uuid, null);
+        }
+
+        /**
+         * @param _uuid advertised service uuid
+         * @param _mask bits of the uuid to compare, null compares every bit
+         */
+        public Builder addServiceUuid(UUID _uuid, @Nullable UUID _mask) {
+            serviceUuids.add(new UuidMatch(_uuid, _mask));
+            return this;
+        }
+
+        /**
+         * @param _manufacturer_id company identifier
+         * @param _data prefix of the manufacturer data
+         * @param _mask bits of the data to compare, same length as the data, null compares every bit
+         */
+        public Builder addManufacturerData(int _manufacturer_id, byte[] _data, @Nullable byte[] _mask) {
+            manufacturerData.add(new DataMatch(_manufacturer_id, null, _data, _mask));
+            return this;
+        }
+
+        /**
+         * @param _service_uuid uuid of the service data
+         * @param _data prefix of the service data
+         * @param _mask bits of the data to compare, same length as the data, null compares every bit
+         */
+        public Builder addServiceData(UUID _service_uuid, byte[] _data, @Nullable byte[] _mask) {
+            serviceData.add(new DataMatch(0, _service_uuid, _data, _mask));
+            return this;
+        }
+
+        /**
+         * @param _address device address to allow, ex) AA:BB:CC:DD:EE:FF
+         */
+        public Builder addAddress(String _address) {
+            addresses.add(_address.toUpperCase(Locale.US));
+            return this;
+        }
+
+        public ScanMatchSpec build() {
+            return new ScanMatchSpec(this);
+        }
+    }
+}
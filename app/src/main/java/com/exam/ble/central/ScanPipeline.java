@@ -0,0 +1,149 @@
+package com.exam.ble.central;
+
+import android.bluetooth.le.ScanResult;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.List;
+
+/**
+ * Scan results processing off the main thread.
+ * 스캔 콜백은 worker 스레드로 넘겨 DeviceRegistry 를 갱신하고, 주소로 중복을 제거한 뒤
+ * 정해진 간격마다 한번만 main 스레드에 변경분을 전달한다.
+ */
+public class ScanPipeline {
+
+    /**
+     * Coalesced scan changes, called on the main thread
+     */
+    public interface Listener {
+        void onScanDiff(ScanCoalescer.Diff<ScanResult> _diff);
+    }
+
+    private final long interval;
+    private final DeviceRegistry registry;
+    private final Listener listener;
+    private final HandlerThread thread;
+    private final Handler worker;
+    private final Handler main = new Handler(Looper.getMainLooper());
+    // used on the worker thread only
+    private final ScanCoalescer<ScanResult> coalescer = new ScanCoalescer<>();
+    // uptime of the last delivered diff, worker thread only
+    private long lastFlush = 0;
+    private boolean flushScheduled = false;
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flushScheduled = false;
+            flush();
+        }
+    };
+
+    /**
+     * @param _interval minimum time between two diffs in milliseconds
+     * @param _registry devices updated by every result
+     * @param _listener diff listener
+     */
+    public ScanPipeline(long _interval, DeviceRegistry _registry, Listener _listener) {
+        interval = _interval;
+        registry = _registry;
+        listener = _listener;
+        thread = new HandlerThread("ble-scan");
+        thread.start();
+        worker = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Forget the devices of the previous scan
+     */
+    public void reset() {
+        worker.post(new Runnable() {
+            @Override
+            public void run() {
+                worker.removeCallbacks(flushTask);
+                flushScheduled = false;
+                coalescer.clear();
+            }
+        });
+    }
+
+    /**
+     * Called from ScanCallback.onScanResult
+     * @param _result scan result
+     */
+    public void onResult(final ScanResult _result) {
+        worker.post(new Runnable() {
+            @Override
+            public void run() {
+                registry.update(_result);
+                coalescer.offer(_result.getDevice().getAddress(), _result);
+                scheduleFlush();
+            }
+        });
+    }
+
+    /**
+     * Called from ScanCallback.onBatchScanResults
+     * @param _results hardware batched results
+     */
+    public void onResults(final List<ScanResult> _results) {
+        worker.post(new Runnable() {
+            @Override
+            public void run() {
+                for (ScanResult result : _results) {
+                    registry.update(result);
+                    coalescer.offer(result.getDevice().getAddress(), result);
+                }
+                scheduleFlush();
+            }
+        });
+    }
+
+    /**
+     * Deliver the pending changes now, ex) when the scan stopped
+     */
+    public void flushNow() {
+        worker.post(new Runnable() {
+            @Override
+            public void run() {
+                worker.removeCallbacks(flushTask);
+                flushScheduled = false;
+                flush();
+            }
+        });
+    }
+
+    /**
+     * Stop the worker thread
+     */
+    public void quit() {
+        thread.quitSafely();
+    }
+
+    private void scheduleFlush() {
+        if (flushScheduled || !coalescer.hasPending()) {
+            return;
+        }
+        flushScheduled = true;
+        long wait = lastFlush + interval - SystemClock.uptimeMillis();
+        worker.postDelayed(flushTask, Math.max(0, wait));
+    }
+
+    private void flush() {
+        if (!coalescer.hasPending()) {
+            return;
+        }
+        lastFlush = SystemClock.uptimeMillis();
+        registry.evictStale(SystemClock.elapsedRealtime());
+        final ScanCoalescer.Diff<ScanResult> diff = coalescer.drain();
+        main.post(new Runnable() {
+            @Override
+            public void run() {
+                listener.onScanDiff(diff);
+            }
+        });
+    }
+}
@@ -0,0 +1,284 @@
+package com.exam.ble.central;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.le.ScanSettings;
+import android.os.Build;
+
+import androidx.annotation.Nullable;
+
+import static com.exam.ble.Constants.SCAN_PERIOD;
+import static com.exam.ble.Constants.SCAN_REPORT_DELAY;
+
+/**
+ * Scan settings and scan window of one CentralManager.startScan.
+ * 배포 환경에 맞게 탐색 지연과 배터리 사용량을 조절한다.
+ */
+public class ScanProfile {
+
+    // report delay chosen from the controller, batched if offloaded batching is supported
+    public final static long REPORT_DELAY_AUTO = -1;
+
+    final int scanMode;
+    // total scan time in milliseconds, 0 scans until stopScan
+    final long duration;
+    // radio on time of one duty cycle in milliseconds, 0 scans continuously
+    final long dutyWindow;
+    // duty cycle period in milliseconds
+    final long dutyInterval;
+    final int callbackType;
+    final int matchMode;
+    final int numOfMatches;
+    final long reportDelay;
+    // stop the scan when the target is found
+    final boolean stopOnFound;
+    // address to look for, set when stopOnFound is
+    final String target;
+
+    private ScanProfile(Builder _builder) {
+        scanMode = _builder.scanMode;
+        duration = _builder.duration;
+        dutyWindow = _builder.dutyWindow;
+        dutyInterval = _builder.dutyInterval;
+        callbackType = _builder.callbackType;
+        matchMode = _builder.matchMode;
+        numOfMatches = _builder.numOfMatches;
+        reportDelay = _builder.reportDelay;
+        stopOnFound = _builder.stopOnFound;
+        target = _builder.target;
+    }
+
+    /**
+     * Low power scan for SCAN_PERIOD, the default
+     */
+    public static ScanProfile lowPower() {
+        return new Builder().build();
+    }
+
+    /**
+     * Fastest discovery, results are reported right away
+     */
+    public static ScanProfile lowLatency() {
+        return new Builder()
+                .setScanMode(ScanSettings.SCAN_MODE_LOW_LATENCY)
+                .setReportDelay(0)
+                .build();
+    }
+
+    /**
+     * Fastest discovery of one device, the scan stops once it is found
+     * @param _target address to look for
+     */
+    public static ScanProfile lowLatency(String _target) {
+        return new Builder()
+                .setScanMode(ScanSettings.SCAN_MODE_LOW_LATENCY)
+                .setReportDelay(0)
+                .setStopOnFound(true, _target)
+                .build();
+    }
+
+    /**
+     * Balanced scan for SCAN_PERIOD
+     */
+    public static ScanProfile balanced() {
+        return new Builder()
+                .setScanMode(ScanSettings.SCAN_MODE_BALANCED)
+                .build();
+    }
+
+    /**
+     * Only results of scans started by other apps, no radio time of our own
+     */
+    public static ScanProfile opportunistic() {
+        return new Builder()
+                .setScanMode(ScanSettings.SCAN_MODE_OPPORTUNISTIC)
+                .setDuration(0)
+                .build();
+    }
+
+    /**
+     * Low latency bursts repeated until stopScan
+     * @param _window radio on time of one cycle in milliseconds
+     * @param _interval cycle period in milliseconds, keep it above 6 s (Android N+ blocks more than 5 scan starts in 30 s)
+     */
+    public static ScanProfile dutyCycled(long _window, long _interval) {
+        return new Builder()
+                .setScanMode(ScanSettings.SCAN_MODE_LOW_LATENCY)
+                .setDuration(0)
+                .setDutyCycle(_window, _interval)
+                .build();
+    }
+
+    public boolean isDutyCycled() {
+        return dutyWindow > 0;
+    }
+
+    /**
+     * @param _address scanned device address
+     * @return true if the device ends a stop-on-found scan
+     */
+    boolean isTarget(String _address) {
+        return stopOnFound && target.equalsIgnoreCase(_address);
+    }
+
+    /**
+     * Build the ScanSettings, options the platform or the controller do not support are dropped
+     * @param _adapter adapter of the scan
+     * @return settings of the scan
+     */
+    ScanSettings toScanSettings(BluetoothAdapter _adapter) {
+        return toScanSettings(_adapter, true);
+    }
+
+    /**
+     * Build the ScanSettings of a scan with or without hardware filters
+     * @param _adapter adapter of the scan
+     * @param _filtered false if startScan gets no filter, match callbacks fail with SCAN_FAILED_FEATURE_UNSUPPORTED then
+     * @return settings of the scan
+     */
+    ScanSettings toScanSettings(BluetoothAdapter _adapter, boolean _filtered) {
+        // opportunistic mode was added in Android M
+        int mode = scanMode;
+        if (mode == ScanSettings.SCAN_MODE_OPPORTUNISTIC && Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            mode = ScanSettings.SCAN_MODE_LOW_POWER;
+        }
+        ScanSettings.Builder builder = new ScanSettings.Builder().setScanMode(mode);
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            if (_filtered && hasMatchCallbacks(_adapter)) {
+                builder.setCallbackType(callbackType);
+            }
+            builder.setMatchMode(matchMode);
+            builder.setNumOfMatches(numOfMatches);
+        }
+
+        long delay = getReportDelay(_adapter);
+        if (delay > 0) {
+            builder.setReportDelay(delay);
+        }
+        return builder.build();
+    }
+
+    /**
+     * @param _adapter adapter of the scan
+     * @return true if first match / match lost callbacks are used, they need hardware filtering
+     */
+    boolean hasMatchCallbacks(BluetoothAdapter _adapter) {
+        return callbackType != ScanSettings.CALLBACK_TYPE_ALL_MATCHES
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M
+                && _adapter.isOffloadedFilteringSupported();
+    }
+
+    /**
+     * @param _adapter adapter of the scan
+     * @return report delay used by the scan, 0 if the results are not batched
+     */
+    long getReportDelay(BluetoothAdapter _adapter) {
+        // match callbacks are reported one by one
+        if (!_adapter.isOffloadedScanBatchingSupported() || hasMatchCallbacks(_adapter)) {
+            return 0;
+        }
+        return reportDelay == REPORT_DELAY_AUTO ? SCAN_REPORT_DELAY : reportDelay;
+    }
+
+    public static class Builder {
+        private int scanMode = ScanSettings.SCAN_MODE_LOW_POWER;
+        private long duration = SCAN_PERIOD;
+        private long dutyWindow = 0;
+        private long dutyInterval = 0;
+        private int callbackType = ScanSettings.CALLBACK_TYPE_ALL_MATCHES;
+        private int matchMode = ScanSettings.MATCH_MODE_AGGRESSIVE;
+        private int numOfMatches = ScanSettings.MATCH_NUM_MAX_ADVERTISEMENT;
+        private long reportDelay = REPORT_DELAY_AUTO;
+        private boolean stopOnFound = false;
+        private String target = null;
+
+        /**
+         * @param _scan_mode ScanSettings.SCAN_MODE_*
+         */
+        public Builder setScanMode(int _scan_mode) {
+            scanMode = _scan_mode;
+            return this;
+        }
+
+        /**
+         * @param _duration total scan time in milliseconds, 0 scans until stopScan
+         */
+        public Builder setDuration(long _duration) {
+            if (_duration < 0) {
+                throw new IllegalArgumentException("duration < 0");
+            }
+            duration = _duration;
+            return this;
+        }
+
+        /**
+         * Scan _window milliseconds out of every _interval milliseconds
+         * @param _window radio on time of one cycle
+         * @param _interval cycle period
+         */
+        public Builder setDutyCycle(long _window, long _interval) {
+            if (_window <= 0 || _interval <= _window) {
+                throw new IllegalArgumentException("duty window must be > 0 and shorter than the interval");
+            }
+            dutyWindow = _window;
+            dutyInterval = _interval;
+            return this;
+        }
+
+        /**
+         * @param _callback_type ScanSettings.CALLBACK_TYPE_*, ignored below Android M or without hardware filtering
+         */
+        public Builder setCallbackType(int _callback_type) {
+            callbackType = _callback_type;
+            return this;
+        }
+
+        /**
+         * @param _match_mode ScanSettings.MATCH_MODE_*, ignored below Android M
+         */
+        public Builder setMatchMode(int _match_mode) {
+            matchMode = _match_mode;
+            return this;
+        }
+
+        /**
+         * @param _num_of_matches ScanSettings.MATCH_NUM_*, ignored below Android M
+         */
+        public Builder setNumOfMatches(int _num_of_matches) {
+            numOfMatches = _num_of_matches;
+            return this;
+        }
+
+        /**
+         * @param _report_delay hardware batching delay in milliseconds, 0 reports right away, REPORT_DELAY_AUTO by default
+         */
+        public Builder setReportDelay(long _report_delay) {
+            if (_report_delay < 0 && _report_delay != REPORT_DELAY_AUTO) {
+                throw new IllegalArgumentException("report delay < 0");
+            }
+            reportDelay = _report_delay;
+            return this;
+        }
+
+        /**
+         * @param _stop_on_found stop the scan when the target is found
+         * @param _target address to look for, required to stop on found
+         */
+        public Builder setStopOnFound(boolean _stop_on_found, @Nullable String _target) {
+            if (_stop_on_found && _target == null) {
+                // any result would stop the scan, use connectOnScan for the first matching device
+                throw new IllegalArgumentException("stop on found needs a target address");
+            }
+            stopOnFound = _stop_on_found;
+            target = _target;
+            return this;
+        }
+
+        public ScanProfile build() {
+            if (dutyWindow > 0 && scanMode == ScanSettings.SCAN_MODE_OPPORTUNISTIC) {
+                throw new IllegalArgumentException("opportunistic scan can not be duty cycled");
+            }
+            return new ScanProfile(this);
+        }
+    }
+}
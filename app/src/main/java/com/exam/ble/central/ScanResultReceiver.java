@@ -0,0 +1,35 @@
+package com.exam.ble.central;
+
+import android.bluetooth.le.BluetoothLeScanner;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+import java.util.List;
+
+/**
+ * Receives the results of the BackgroundScanner and saves them in the RegistryStore.
+ * 프로세스가 없으면 시스템이 새로 띄워서 호출한다.
+ */
+public class ScanResultReceiver extends BroadcastReceiver {
+
+    @Override
+    public void onReceive(Context _context, Intent _intent) {
+        if (!BackgroundScanner.ACTION_SCAN_RESULT.equals(_intent.getAction())) {
+            return;
+        }
+        if (_intent.hasExtra(BluetoothLeScanner.EXTRA_ERROR_CODE)) {
+            new BackgroundScanner(_context).onFailed(_intent.getIntExtra(BluetoothLeScanner.EXTRA_ERROR_CODE, 0));
+            return;
+        }
+        int callback_type = _intent.getIntExtra(BluetoothLeScanner.EXTRA_CALLBACK_TYPE, ScanSettings.CALLBACK_TYPE_ALL_MATCHES);
+        List<ScanResult> results = _intent.getParcelableArrayListExtra(BluetoothLeScanner.EXTRA_LIST_SCAN_RESULT);
+        // a lost device is left to the registry TTL
+        if (results == null || callback_type == ScanSettings.CALLBACK_TYPE_MATCH_LOST) {
+            return;
+        }
+        RegistryStore.getInstance(_context).update(results);
+    }
+}
@@ -0,0 +1,180 @@
+package com.exam.ble.peripheral;
+
+import android.bluetooth.le.AdvertiseSettings;
+import android.bluetooth.le.AdvertisingSetParameters;
+
+import static com.exam.ble.Constants.ADVERTISE_FAST_PERIOD;
+
+/**
+ * Interval and TX power of the advertising, with an optional fast phase.
+ * 시작하거나 연결이 끊긴 직후에는 빠르게 advertise 해서 연결 지연을 줄이고, 이후에는 느리게 해서 배터리를 아낀다.
+ */
+public class AdvertiseProfile {
+
+    // steady state, AdvertiseSettings.ADVERTISE_MODE_* and ADVERTISE_TX_POWER_*
+    final int mode;
+    final int txPower;
+    // fast phase, used for fastDuration milliseconds
+    final int fastMode;
+    final int fastTxPower;
+    final long fastDuration;
+    final boolean connectable;
+    // Bluetooth 5 extended advertising where the controller supports it
+    final boolean extended;
+
+    private AdvertiseProfile(Builder _builder) {
+        mode = _builder.mode;
+        txPower = _builder.txPower;
+        fastMode = _builder.fastMode;
+        fastTxPower = _builder.fastTxPower;
+        fastDuration = _builder.fastDuration;
+        connectable = _builder.connectable;
+        extended = _builder.extended;
+    }
+
+    /**
+     * Balanced mode and medium TX power without a fast phase, the previous fixed settings
+     */
+    public static AdvertiseProfile balanced() {
+        return new Builder().build();
+    }
+
+    /**
+     * Lowest duty cycle and TX power
+     */
+    public static AdvertiseProfile lowPower() {
+        return new Builder()
+                .setMode(AdvertiseSettings.ADVERTISE_MODE_LOW_POWER, AdvertiseSettings.ADVERTISE_TX_POWER_LOW)
+                .build();
+    }
+
+    /**
+     * Low latency for ADVERTISE_FAST_PERIOD, then low power
+     */
+    public static AdvertiseProfile fastThenSlow() {
+        return new Builder()
+                .setMode(AdvertiseSettings.ADVERTISE_MODE_LOW_POWER, AdvertiseSettings.ADVERTISE_TX_POWER_MEDIUM)
+                .setFastPhase(AdvertiseSettings.ADVERTISE_MODE_LOW_LATENCY, AdvertiseSettings.ADVERTISE_TX_POWER_HIGH, ADVERTISE_FAST_PERIOD)
+                .build();
+    }
+
+    public boolean hasFastPhase() {
+        return fastDuration > 0;
+    }
+
+    /**
+     * @param _fast true for the fast phase
+     * @return settings of BluetoothLeAdvertiser.startAdvertising
+     */
+    AdvertiseSettings toAdvertiseSettings(boolean _fast) {
+        return new AdvertiseSettings.Builder()
+                .setAdvertiseMode(_fast ? fastMode : mode)
+                .setTxPowerLevel(_fast ? fastTxPower : txPower)
+                .setConnectable(connectable)
+                .build();
+    }
+
+    /**
+     * @param _fast true for the fast phase
+     * @param _extended true if the controller supports extended advertising
+     * @return parameters of BluetoothLeAdvertiser.startAdvertisingSet
+     */
+    AdvertisingSetParameters toAdvertisingSetParameters(boolean _fast, boolean _extended) {
+        AdvertisingSetParameters.Builder builder = new AdvertisingSetParameters.Builder()
+                .setInterval(toInterval(_fast ? fastMode : mode))
+                .setTxPowerLevel(toTxPower(_fast ? fastTxPower : txPower))
+                .setConnectable(connectable);
+        if (_extended) {
+            // an extended connectable advertising can not be scannable, everything goes in the advertising data
+            builder.setLegacyMode(false).setScannable(!connectable);
+        } else {
+            builder.setLegacyMode(true).setScannable(true);
+        }
+        return builder.build();
+    }
+
+    /**
+     * @param _mode AdvertiseSettings.ADVERTISE_MODE_*
+     * @return AdvertisingSetParameters.INTERVAL_* of the same duty cycle
+     */
+    static int toInterval(int _mode) {
+        switch (_mode) {
+            case AdvertiseSettings.ADVERTISE_MODE_LOW_LATENCY:
+                return AdvertisingSetParameters.INTERVAL_LOW;
+            case AdvertiseSettings.ADVERTISE_MODE_BALANCED:
+                return AdvertisingSetParameters.INTERVAL_MEDIUM;
+            default:
+                return AdvertisingSetParameters.INTERVAL_HIGH;
+        }
+    }
+
+    /**
+     * @param _level AdvertiseSettings.ADVERTISE_TX_POWER_*
+     * @return AdvertisingSetParameters.TX_POWER_* in dBm
+     */
+    static int toTxPower(int _level) {
+        switch (_level) {
+            case AdvertiseSettings.ADVERTISE_TX_POWER_ULTRA_LOW:
+                return AdvertisingSetParameters.TX_POWER_ULTRA_LOW;
+            case AdvertiseSettings.ADVERTISE_TX_POWER_LOW:
+                return AdvertisingSetParameters.TX_POWER_LOW;
+            case AdvertiseSettings.ADVERTISE_TX_POWER_HIGH:
+                return AdvertisingSetParameters.TX_POWER_HIGH;
+            default:
+                return AdvertisingSetParameters.TX_POWER_MEDIUM;
+        }
+    }
+
+    public static class Builder {
+        private int mode = AdvertiseSettings.ADVERTISE_MODE_BALANCED;
+        private int txPower = AdvertiseSettings.ADVERTISE_TX_POWER_MEDIUM;
+        private int fastMode = AdvertiseSettings.ADVERTISE_MODE_LOW_LATENCY;
+        private int fastTxPower = AdvertiseSettings.ADVERTISE_TX_POWER_HIGH;
+        private long fastDuration = 0;
+        private boolean connectable = true;
+        private boolean extended = false;
+
+        /**
+         * @param _mode steady AdvertiseSettings.ADVERTISE_MODE_*
+         * @param _tx_power steady AdvertiseSettings.ADVERTISE_TX_POWER_*
+         */
+        public Builder setMode(int _mode, int _tx_power) {
+            mode = _mode;
+            txPower = _tx_power;
+            return this;
+        }
+
+        /**
+         * @param _mode AdvertiseSettings.ADVERTISE_MODE_* of the fast phase
+         * @param _tx_power AdvertiseSettings.ADVERTISE_TX_POWER_* of the fast phase
+         * @param _duration fast phase after start and after a disconnect in milliseconds, 0 for none
+         */
+        public Builder setFastPhase(int _mode, int _tx_power, long _duration) {
+            if (_duration < 0) {
+                throw new IllegalArgumentException("duration < 0");
+            }
+            fastMode = _mode;
+            fastTxPower = _tx_power;
+            fastDuration = _duration;
+            return this;
+        }
+
+        public Builder setConnectable(boolean _connectable) {
+            connectable = _connectable;
+            return this;
+        }
+
+        /**
+         * @param _extended use extended advertising on Android O+ when the controller supports it,
+         *                  centrals without Bluetooth 5 do not see it
+         */
+        public Builder setExtended(boolean _extended) {
+            extended = _extended;
+            return this;
+        }
+
+        public AdvertiseProfile build() {
+            return new AdvertiseProfile(this);
+        }
+    }
+}
@@ -0,0 +1,352 @@
+package com.exam.ble.peripheral;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.le.AdvertiseCallback;
+import android.bluetooth.le.AdvertiseData;
+import android.bluetooth.le.AdvertiseSettings;
+import android.bluetooth.le.AdvertisingSet;
+import android.bluetooth.le.AdvertisingSetCallback;
+import android.bluetooth.le.BluetoothLeAdvertiser;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelUuid;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.util.UUID;
+
+import static com.exam.ble.Constants.ADVERTISE_MAX_RETRIES;
+import static com.exam.ble.Constants.ADVERTISE_RETRY_DELAY;
+
+/**
+ * Advertising of the GATT server.
+ * Android O 이상에서는 AdvertisingSet 으로 멈추지 않고 데이타와 파라미터를 바꾸고,
+ * 그 아래에서는 startAdvertising 을 다시 호출한다. 시작에 실패하면 backoff 후 다시 시도한다.
+ * 모든 호출과 콜백은 main thread 에서 처리된다.
+ */
+public class Advertiser {
+    private final String TAG = Advertiser.class.getSimpleName();
+
+    /**
+     * Advertising state listener
+     */
+    public interface Listener {
+        /**
+         * Advertising started or switched phase
+         * @param fast true in the fast phase
+         */
+        void onAdvertising(boolean fast);
+
+        /**
+         * Advertising could not be started and is not retried
+         * @param errorCode AdvertiseCallback.ADVERTISE_FAILED_*
+         */
+        void onAdvertiseFailed(int errorCode);
+    }
+
+    private final BluetoothAdapter adapter;
+    private final Listener listener;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private BluetoothLeAdvertiser advertiser;
+    private AdvertiseProfile profile = AdvertiseProfile.balanced();
+    private UUID serviceUuid;
+    private byte[] serviceData;
+    private boolean running = false;
+    private boolean fast = false;
+    // AdvertisingSet used, Android O+
+    private boolean useSet = false;
+    // extended advertising used, no scan response
+    private boolean extended = false;
+    // start attempts since the last success
+    private int attempts = 0;
+    private AdvertisingSet advertisingSet;
+    // parameters are updated once the set is disabled
+    private boolean parametersPending = false;
+    // service data changed while the set was starting
+    private boolean dataPending = false;
+
+    private final Runnable slowTask = new Runnable() {
+        @Override
+        public void run() {
+            setPhase(false);
+        }
+    };
+    private final Runnable retryTask = new Runnable() {
+        @Override
+        public void run() {
+            if (running) {
+                stopAdvertiser();
+                startAdvertiser();
+            }
+        }
+    };
+
+    /**
+     * @param _adapter adapter of the advertiser
+     * @param _listener advertising state listener
+     */
+    public Advertiser(BluetoothAdapter _adapter, Listener _listener) {
+        adapter = _adapter;
+        listener = _listener;
+    }
+
+    /**
+     * Start advertising the service, the running advertising is stopped first
+     * @param _profile interval and TX power
+     * @param _service_uuid service in the advertising data
+     */
+    public void start(AdvertiseProfile _profile, UUID _service_uuid) {
+        stop();
+        profile = _profile;
+        serviceUuid = _service_uuid;
+        running = true;
+        fast = _profile.hasFastPhase();
+        attempts = 0;
+        startAdvertiser();
+    }
+
+    public void stop() {
+        running = false;
+        stopAdvertiser();
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Go back to the fast phase, ex) when a central disconnected
+     */
+    public void boost() {
+        if (!running || !profile.hasFastPhase()) {
+            return;
+        }
+        if (fast) {
+            handler.removeCallbacks(slowTask);
+            handler.postDelayed(slowTask, profile.fastDuration);
+            return;
+        }
+        setPhase(true);
+    }
+
+    /**
+     * Set the service data of the service uuid, updated in place on Android O+
+     * @param _data service data, null to remove it
+     */
+    public void setServiceData(@Nullable byte[] _data) {
+        serviceData = _data;
+        if (!running) {
+            return;
+        }
+        if (!useSet) {
+            stopAdvertiser();
+            startAdvertiser();
+        } else if (advertisingSet != null) {
+            updateSetData(advertisingSet);
+        } else {
+            // set on onAdvertisingSetStarted
+            dataPending = true;
+        }
+    }
+
+    private void updateSetData(AdvertisingSet _set) {
+        if (extended) {
+            _set.setAdvertisingData(buildAdvertiseData());
+        } else {
+            _set.setScanResponseData(buildScanResponse());
+        }
+    }
+
+    private void startAdvertiser() {
+        advertiser = adapter.getBluetoothLeAdvertiser();
+        if (advertiser == null) {
+            Log.w(TAG, "Failed to create advertiser");
+            running = false;
+            listener.onAdvertiseFailed(AdvertiseCallback.ADVERTISE_FAILED_FEATURE_UNSUPPORTED);
+            return;
+        }
+
+        useSet = Build.VERSION.SDK_INT >= Build.VERSION_CODES.O;
+        extended = useSet && profile.extended && adapter.isLeExtendedAdvertisingSupported();
+        if (useSet) {
+            advertiser.startAdvertisingSet(profile.toAdvertisingSetParameters(fast, extended), buildAdvertiseData(),
+                    extended ? null : buildScanResponse(), null, null, mSetCallback);
+        } else {
+            advertiser.startAdvertising(profile.toAdvertiseSettings(fast), buildAdvertiseData(), buildScanResponse(), mAdvCallback);
+        }
+        if (fast) {
+            handler.postDelayed(slowTask, profile.fastDuration);
+        }
+    }
+
+    private void stopAdvertiser() {
+        handler.removeCallbacks(slowTask);
+        handler.removeCallbacks(retryTask);
+        if (advertiser != null) {
+            if (useSet) {
+                advertiser.stopAdvertisingSet(mSetCallback);
+            } else {
+                advertiser.stopAdvertising(mAdvCallback);
+            }
+        }
+        advertisingSet = null;
+        parametersPending = false;
+        dataPending = false;
+    }
+
+    /**
+     * Switch between the fast and the steady parameters
+     * @param _fast true for the fast phase
+     */
+    private void setPhase(boolean _fast) {
+        handler.removeCallbacks(slowTask);
+        fast = _fast;
+        if (!running) {
+            return;
+        }
+        if (useSet && advertisingSet != null) {
+            // parameters can only be changed while the set is disabled
+            parametersPending = true;
+            advertisingSet.enableAdvertising(false, 0, 0);
+            if (fast) {
+                handler.postDelayed(slowTask, profile.fastDuration);
+            }
+            return;
+        }
+        stopAdvertiser();
+        startAdvertiser();
+    }
+
+    private AdvertiseData buildAdvertiseData() {
+        AdvertiseData.Builder builder = new AdvertiseData.Builder()
+                .setIncludeTxPowerLevel(true)
+                .addServiceUuid(new ParcelUuid(serviceUuid));
+        if (extended) {
+            builder.setIncludeDeviceName(true);
+            if (serviceData != null) {
+                builder.addServiceData(new ParcelUuid(serviceUuid), serviceData);
+            }
+        }
+        return builder.build();
+    }
+
+    private AdvertiseData buildScanResponse() {
+        AdvertiseData.Builder builder = new AdvertiseData.Builder();
+        // a 128-bit service data leaves no room for the name in 31 bytes
+        if (serviceData != null) {
+            builder.addServiceData(new ParcelUuid(serviceUuid), serviceData);
+        } else {
+            builder.setIncludeDeviceName(true);
+        }
+        return builder.build();
+    }
+
+    private void onStarted() {
+        attempts = 0;
+        listener.onAdvertising(fast);
+    }
+
+    /**
+     * Retry with backoff, errors that a retry can not fix are reported
+     * @param _error_code AdvertiseCallback.ADVERTISE_FAILED_*
+     */
+    private void onStartFailure(int _error_code) {
+        if (!running) {
+            return;
+        }
+        if (_error_code == AdvertiseCallback.ADVERTISE_FAILED_ALREADY_STARTED) {
+            onStarted();
+            return;
+        }
+        boolean retryable = _error_code == AdvertiseCallback.ADVERTISE_FAILED_TOO_MANY_ADVERTISERS
+                || _error_code == AdvertiseCallback.ADVERTISE_FAILED_INTERNAL_ERROR;
+        if (!retryable || attempts >= ADVERTISE_MAX_RETRIES) {
+            Log.e(TAG, "Advertising failed : " + _error_code);
+            stop();
+            listener.onAdvertiseFailed(_error_code);
+            return;
+        }
+        long delay = (long) ADVERTISE_RETRY_DELAY << attempts;
+        attempts++;
+        Log.w(TAG, "Advertising failed : " + _error_code + ", retry in " + delay + "ms");
+        handler.removeCallbacks(slowTask);
+        handler.postDelayed(retryTask, delay);
+    }
+
+    /**
+     * Callback of startAdvertising, below Android O
+     */
+    private final AdvertiseCallback mAdvCallback = new AdvertiseCallback() {
+        @Override
+        public void onStartSuccess(AdvertiseSettings settingsInEffect) {
+            super.onStartSuccess(settingsInEffect);
+            onStarted();
+        }
+
+        @Override
+        public void onStartFailure(int errorCode) {
+            super.onStartFailure(errorCode);
+            Advertiser.this.onStartFailure(errorCode);
+        }
+    };
+
+    /**
+     * Callback of startAdvertisingSet, Android O+.
+     * 클래스는 처음 사용할 때 로드되므로 O 미만에서는 만들어지지 않는다.
+     */
+    private final AdvertisingSetCallback mSetCallback = Build.VERSION.SDK_INT < Build.VERSION_CODES.O ? null : new AdvertisingSetCallback() {
+        @Override
+        public void onAdvertisingSetStarted(AdvertisingSet set, int txPower, int status) {
+            if (status != AdvertisingSetCallback.ADVERTISE_SUCCESS) {
+                onStartFailure(status);
+                return;
+            }
+            if (!running) {
+                return;
+            }
+            advertisingSet = set;
+            if (dataPending) {
+                dataPending = false;
+                updateSetData(set);
+            }
+            onStarted();
+        }
+
+        @Override
+        public void onAdvertisingEnabled(AdvertisingSet set, boolean enable, int status) {
+            if (!enable && parametersPending && set == advertisingSet) {
+                set.setAdvertisingParameters(profile.toAdvertisingSetParameters(fast, extended));
+            }
+        }
+
+        @Override
+        public void onAdvertisingParametersUpdated(AdvertisingSet set, int txPower, int status) {
+            if (set != advertisingSet) {
+                return;
+            }
+            parametersPending = false;
+            if (status != AdvertisingSetCallback.ADVERTISE_SUCCESS) {
+                Log.e(TAG, "Advertising parameters not updated : " + status);
+            }
+            set.enableAdvertising(true, 0, 0);
+            listener.onAdvertising(fast);
+        }
+
+        @Override
+        public void onAdvertisingDataSet(AdvertisingSet set, int status) {
+            if (status != AdvertisingSetCallback.ADVERTISE_SUCCESS) {
+                Log.e(TAG, "Advertising data not set : " + status);
+            }
+        }
+
+        @Override
+        public void onScanResponseDataSet(AdvertisingSet set, int status) {
+            if (status != AdvertisingSetCallback.ADVERTISE_SUCCESS) {
+                Log.e(TAG, "Scan response not set : " + status);
+            }
+        }
+    };
+}
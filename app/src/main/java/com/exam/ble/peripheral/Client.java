@@ -0,0 +1,64 @@
+package com.exam.ble.peripheral;
+
+import android.bluetooth.BluetoothDevice;
+
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.exam.ble.Constants.DEFAULT_MTU;
+import static com.exam.ble.Constants.LONG_WRITE_MAX_SIZE;
+
+/**
+ * One central connected to the {@link PeripheralManager}.
+ * 연결된 장치마다 MTU 와 특성별 notify / indicate 설정을 따로 가진다.
+ */
+class Client {
+    // CCCD bits
+    static final int CCCD_NOTIFY = 0x01;
+    static final int CCCD_INDICATE = 0x02;
+
+    final BluetoothDevice device;
+    final String address;
+    // ATT MTU from onMtuChanged
+    volatile int mtu = DEFAULT_MTU;
+    // PHY from onPhyUpdate
+    volatile int txPhy = BluetoothDevice.PHY_LE_1M;
+    volatile int rxPhy = BluetoothDevice.PHY_LE_1M;
+    // CCCD written by the central, keyed by characteristic
+    private final ConcurrentHashMap<UUID, Integer> cccd = new ConcurrentHashMap<>();
+    // prepared writes waiting for onExecuteWrite
+    final PreparedWriteBuffer preparedWrites = new PreparedWriteBuffer(LONG_WRITE_MAX_SIZE);
+
+    Client(BluetoothDevice _device) {
+        device = _device;
+        address = _device.getAddress();
+    }
+
+    /**
+     * @param _characteristic characteristic uuid
+     * @return CCCD bits of the characteristic, 0 if never written
+     */
+    int getCccd(UUID _characteristic) {
+        Integer bits = cccd.get(_characteristic);
+        return bits == null ? 0 : bits;
+    }
+
+    void setCccd(UUID _characteristic, int _bits) {
+        if (_bits == 0) {
+            cccd.remove(_characteristic);
+        } else {
+            cccd.put(_characteristic, _bits);
+        }
+    }
+
+    boolean isSubscribed(UUID _characteristic) {
+        return getCccd(_characteristic) != 0;
+    }
+
+    /**
+     * @return true if notifications or indications of any characteristic are enabled
+     */
+    boolean isSubscribed() {
+        return !cccd.isEmpty();
+    }
+}
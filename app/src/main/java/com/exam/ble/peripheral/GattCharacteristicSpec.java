@@ -0,0 +1,93 @@
+package com.exam.ble.peripheral;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import androidx.annotation.Nullable;
+
+import java.util.UUID;
+
+/**
+ * Declaration of one characteristic of a {@link GattServiceSpec}.
+ * 특성마다 속성, 권한, 쓰기 핸들러를 따로 가지며, notify / indicate 특성에는 CCCD 가 붙는다.
+ */
+public class GattCharacteristicSpec {
+
+    public final UUID uuid;
+    public final int properties;
+    public final int permissions;
+    // receives the written values on the worker of this characteristic, null if not writable
+    @Nullable
+    public final InboundHandler handler;
+    // value read before the first setValue or notify
+    public final byte[] initialValue;
+
+    private GattCharacteristicSpec(Builder _builder) {
+        uuid = _builder.uuid;
+        properties = _builder.properties;
+        permissions = _builder.permissions;
+        handler = _builder.handler;
+        initialValue = _builder.initialValue;
+    }
+
+    /**
+     * @return true if the characteristic needs a CCCD
+     */
+    public boolean hasNotifications() {
+        return (properties & (BluetoothGattCharacteristic.PROPERTY_NOTIFY | BluetoothGattCharacteristic.PROPERTY_INDICATE)) != 0;
+    }
+
+    /**
+     * @return true if the centrals can write the characteristic
+     */
+    public boolean isWritable() {
+        return (properties & (BluetoothGattCharacteristic.PROPERTY_WRITE | BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE)) != 0;
+    }
+
+    public static class Builder {
+        private final UUID uuid;
+        private int properties = BluetoothGattCharacteristic.PROPERTY_READ;
+        private int permissions = BluetoothGattCharacteristic.PERMISSION_READ;
+        private InboundHandler handler;
+        private byte[] initialValue = new byte[0];
+
+        public Builder(UUID _uuid) {
+            uuid = _uuid;
+        }
+
+        /**
+         * @param _properties BluetoothGattCharacteristic.PROPERTY_ flags
+         */
+        public Builder setProperties(int _properties) {
+            properties = _properties;
+            return this;
+        }
+
+        /**
+         * @param _permissions BluetoothGattCharacteristic.PERMISSION_ flags
+         */
+        public Builder setPermissions(int _permissions) {
+            permissions = _permissions;
+            return this;
+        }
+
+        /**
+         * @param _handler receives every written value, called on a worker owned by this characteristic
+         */
+        public Builder setHandler(@Nullable InboundHandler _handler) {
+            handler = _handler;
+            return this;
+        }
+
+        public Builder setInitialValue(byte[] _value) {
+            initialValue = _value;
+            return this;
+        }
+
+        public GattCharacteristicSpec build() {
+            if (handler != null && (properties & (BluetoothGattCharacteristic.PROPERTY_WRITE | BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE)) == 0) {
+                throw new IllegalArgumentException("Handler set on a characteristic that is not writable: " + uuid);
+            }
+            return new GattCharacteristicSpec(this);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.exam.ble.peripheral;
+
+import android.bluetooth.BluetoothGattService;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Declaration of one service of the GATT server, registered with {@link PeripheralManager#addService}.
+ * ex) control, bulk data, telemetry 를 각자의 특성으로 나누어 서로의 트래픽을 막지 않게 한다.
+ */
+public class GattServiceSpec {
+
+    public final UUID uuid;
+    // BluetoothGattService.SERVICE_TYPE_PRIMARY or SERVICE_TYPE_SECONDARY
+    public final int type;
+    public final List<GattCharacteristicSpec> characteristics;
+
+    private GattServiceSpec(Builder _builder) {
+        uuid = _builder.uuid;
+        type = _builder.type;
+        characteristics = Collections.unmodifiableList(new ArrayList<>(_builder.characteristics));
+    }
+
+    public static class Builder {
+        private final UUID uuid;
+        private int type = BluetoothGattService.SERVICE_TYPE_PRIMARY;
+        private final List<GattCharacteristicSpec> characteristics = new ArrayList<>();
+
+        public Builder(UUID _uuid) {
+            uuid = _uuid;
+        }
+
+        public Builder setSecondary(boolean _secondary) {
+            type = _secondary ? BluetoothGattService.SERVICE_TYPE_SECONDARY : BluetoothGattService.SERVICE_TYPE_PRIMARY;
+            return this;
+        }
+
+        public Builder addCharacteristic(GattCharacteristicSpec _characteristic) {
+            for (GattCharacteristicSpec characteristic : characteristics) {
+                if (characteristic.uuid.equals(_characteristic.uuid)) {
+                    throw new IllegalArgumentException("Duplicate characteristic: " + _characteristic.uuid);
+                }
+            }
+            characteristics.add(_characteristic);
+            return this;
+        }
+
+        public GattServiceSpec build() {
+            if (characteristics.isEmpty()) {
+                throw new IllegalArgumentException("Service without characteristic: " + uuid);
+            }
+            return new GattServiceSpec(this);
+        }
+    }
+}
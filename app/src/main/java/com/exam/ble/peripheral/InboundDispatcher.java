@@ -0,0 +1,56 @@
+package com.exam.ble.peripheral;
+
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+
+/**
+ * Hands complete inbound messages to their consumer.
+ * 재조립 버퍼는 호출 후 재사용되므로 한 번만 복사한다. executor 가 없으면 호출한 스레드(write worker)에서 바로 처리한다.
+ */
+class InboundDispatcher {
+
+    interface Consumer {
+        /**
+         * @param source address of the central
+         * @param message copy of the payload
+         */
+        void onMessage(String source, byte[] message);
+    }
+
+    private final Consumer consumer;
+    // null runs the consumer on the calling thread, owned by the caller otherwise
+    private volatile Executor executor;
+
+    InboundDispatcher(Consumer _consumer) {
+        consumer = _consumer;
+    }
+
+    /**
+     * @param _executor executor of the consumer, null for the calling thread
+     */
+    void setExecutor(@Nullable Executor _executor) {
+        executor = _executor;
+    }
+
+    /**
+     * @param _source address of the central
+     * @param _buffer reassembly buffer, reused after this call
+     * @param _length payload length
+     */
+    void dispatch(final String _source, byte[] _buffer, int _length) {
+        final byte[] message = Arrays.copyOf(_buffer, _length);
+        Executor current = executor;
+        if (current == null) {
+            consumer.onMessage(_source, message);
+            return;
+        }
+        current.execute(new Runnable() {
+            @Override
+            public void run() {
+                consumer.onMessage(_source, message);
+            }
+        });
+    }
+}
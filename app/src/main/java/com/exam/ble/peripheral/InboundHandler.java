@@ -0,0 +1,17 @@
+package com.exam.ble.peripheral;
+
+import android.bluetooth.BluetoothDevice;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receives complete inbound messages of the GATT server.
+ * binder 스레드가 아닌 write worker 에서, 또는 PeripheralManager 에 설정한 executor 에서 호출된다.
+ */
+public interface InboundHandler {
+    /**
+     * @param device central that wrote the message
+     * @param message read-only view of the payload, owned by the handler
+     */
+    void onMessage(BluetoothDevice device, ByteBuffer message);
+}
@@ -0,0 +1,341 @@
+package com.exam.ble.peripheral;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Notification frames waiting per subscribed central.
+ * 장치마다 큐를 따로 두고 돌아가며 하나씩 보내므로, 느린 장치가 다른 장치의 전달을 막지 않는다.
+ * 장치마다 한 프레임만 전송중일 수 있고, onNotificationSent 로 확인된 뒤에 다음 프레임이 나간다.
+ * 한 장치의 큐가 가득 차면 그 장치로 가는 메세지만 버려진다.
+ * 장치 안에서도 특성(channel)마다 큐를 나누어 돌아가며 보내므로, bulk 전송이 명령 응답을 막지 않는다.
+ * stream 의 credit / ACK 같은 제어 프레임은 용량 제한 없이 따로 쌓이고 데이타보다 먼저 나간다.
+ */
+public class NotificationQueue {
+
+    /**
+     * Next frame to notify
+     */
+    public static class Pending {
+        public final String address;
+        // channel the frame was offered on
+        public final int channel;
+        public final byte[] frame;
+
+        Pending(String _address, int _channel, byte[] _frame) {
+            address = _address;
+            channel = _channel;
+            frame = _frame;
+        }
+    }
+
+    private static class Subscriber {
+        // frames per channel, grown on the first offer of a channel
+        final ArrayList<ArrayDeque<byte[]>> channels = new ArrayList<>();
+        // control frames of channel 0, never dropped and sent before the data
+        final ArrayDeque<byte[]> controls = new ArrayDeque<>();
+        // frames waiting over every channel
+        int queued = 0;
+        // channel polled last
+        int lastChannel = -1;
+        // frame waiting for onNotificationSent
+        byte[] inFlight;
+        int inFlightChannel;
+        boolean inFlightControl;
+        // a frame of this subscriber is in flight or was rejected by the stack
+        boolean busy = false;
+        // confirmed frames of the current rate window
+        long windowStart = 0;
+        long windowBytes = 0;
+        int windowFrames = 0;
+        // rate of the last complete window
+        long bytesPerSecond = 0;
+        int framesPerSecond = 0;
+        long lastSent = 0;
+    }
+
+    // length of a drain rate window in nanoseconds
+    private final static long RATE_WINDOW = 1000000000L;
+
+    private final int capacity;
+    // insertion ordered, polled round robin
+    private final LinkedHashMap<String, Subscriber> subscribers = new LinkedHashMap<>();
+    // address polled last
+    private String lastPolled;
+
+    /**
+     * @param _capacity max frames waiting per subscriber and channel
+     */
+    public NotificationQueue(int _capacity) {
+        capacity = _capacity;
+    }
+
+    /**
+     * @param _address central that enabled notifications
+     */
+    public synchronized void subscribe(String _address) {
+        if (!subscribers.containsKey(_address)) {
+            subscribers.put(_address, new Subscriber());
+        }
+    }
+
+    /**
+     * @param _address central that disabled notifications or disconnected
+     * @return frames dropped
+     */
+    public synchronized int unsubscribe(String _address) {
+        Subscriber subscriber = subscribers.remove(_address);
+        return subscriber == null ? 0 : subscriber.queued + subscriber.controls.size();
+    }
+
+    /**
+     * Drop the frames of one channel, ex) the central disabled notifications of that characteristic only
+     * @param _address subscriber
+     * @param _channel channel
+     * @return frames dropped
+     */
+    public synchronized int clear(String _address, int _channel) {
+        Subscriber subscriber = subscribers.get(_address);
+        if (subscriber == null || _channel >= subscriber.channels.size()) {
+            return 0;
+        }
+        ArrayDeque<byte[]> frames = subscriber.channels.get(_channel);
+        int dropped = frames.size();
+        frames.clear();
+        subscriber.queued -= dropped;
+        return dropped;
+    }
+
+    public synchronized boolean isSubscribed(String _address) {
+        return subscribers.containsKey(_address);
+    }
+
+    /**
+     * @return addresses of every subscriber
+     */
+    public synchronized List<String> getSubscribers() {
+        return new ArrayList<>(subscribers.keySet());
+    }
+
+    /**
+     * Queue the frames of one message on channel 0, all or none
+     * @param _address subscriber
+     * @param _frames frames in order
+     * @return false if the address is not subscribed or its queue has no room
+     */
+    public boolean offer(String _address, List<byte[]> _frames) {
+        return offer(_address, 0, _frames);
+    }
+
+    /**
+     * Queue the frames of one message, all or none
+     * @param _address subscriber
+     * @param _channel channel of the characteristic
+     * @param _frames frames in order
+     * @return false if the address is not subscribed or the queue of the channel has no room
+     */
+    public synchronized boolean offer(String _address, int _channel, List<byte[]> _frames) {
+        Subscriber subscriber = subscribers.get(_address);
+        if (subscriber == null) {
+            return false;
+        }
+        while (subscriber.channels.size() <= _channel) {
+            subscriber.channels.add(new ArrayDeque<byte[]>());
+        }
+        ArrayDeque<byte[]> frames = subscriber.channels.get(_channel);
+        if (frames.size() + _frames.size() > capacity) {
+            return false;
+        }
+        frames.addAll(_frames);
+        subscriber.queued += _frames.size();
+        return true;
+    }
+
+    /**
+     * Queue a control frame on channel 0, ahead of the data and outside the capacity
+     * @param _address subscriber
+     * @param _frame control frame
+     * @return false if the address is not subscribed
+     */
+    public synchronized boolean offerControl(String _address, byte[] _frame) {
+        Subscriber subscriber = subscribers.get(_address);
+        if (subscriber == null) {
+            return false;
+        }
+        subscriber.controls.add(_frame);
+        return true;
+    }
+
+    /**
+     * Take the next frame, one subscriber after the other
+     * @return next frame, null if every subscriber is empty or busy
+     */
+    @Nullable
+    public synchronized Pending poll() {
+        // first ready subscriber up to the last polled one, used when none is ready after it
+        Map.Entry<String, Subscriber> wrapped = null;
+        boolean after = lastPolled == null;
+        for (Map.Entry<String, Subscriber> entry : subscribers.entrySet()) {
+            Subscriber subscriber = entry.getValue();
+            boolean ready = !subscriber.busy && (subscriber.queued > 0 || !subscriber.controls.isEmpty());
+            if (ready && after) {
+                return take(entry);
+            }
+            if (ready && wrapped == null) {
+                wrapped = entry;
+            }
+            if (entry.getKey().equals(lastPolled)) {
+                after = true;
+            }
+        }
+        return wrapped == null ? null : take(wrapped);
+    }
+
+    private Pending take(Map.Entry<String, Subscriber> _entry) {
+        Subscriber subscriber = _entry.getValue();
+        lastPolled = _entry.getKey();
+        subscriber.busy = true;
+        if (!subscriber.controls.isEmpty()) {
+            subscriber.inFlight = subscriber.controls.poll();
+            subscriber.inFlightChannel = 0;
+            subscriber.inFlightControl = true;
+            return new Pending(_entry.getKey(), 0, subscriber.inFlight);
+        }
+        // next non empty channel after the last polled one
+        int count = subscriber.channels.size();
+        int channel = subscriber.lastChannel;
+        ArrayDeque<byte[]> frames;
+        do {
+            channel = (channel + 1) % count;
+            frames = subscriber.channels.get(channel);
+        } while (frames.isEmpty());
+        subscriber.lastChannel = channel;
+        subscriber.inFlight = frames.poll();
+        subscriber.inFlightChannel = channel;
+        subscriber.inFlightControl = false;
+        subscriber.queued--;
+        return new Pending(_entry.getKey(), channel, subscriber.inFlight);
+    }
+
+    /**
+     * The frame in flight was confirmed, the next frame of the subscriber can be polled
+     * @param _address subscriber
+     */
+    public void onSent(String _address) {
+        onSent(_address, System.nanoTime());
+    }
+
+    synchronized void onSent(String _address, long _now) {
+        Subscriber subscriber = subscribers.get(_address);
+        if (subscriber == null || subscriber.inFlight == null) {
+            return;
+        }
+        subscriber.lastSent = _now;
+        // the first confirmation only opens the window
+        if (subscriber.windowStart == 0) {
+            subscriber.windowStart = _now;
+        } else {
+            subscriber.windowBytes += subscriber.inFlight.length;
+            subscriber.windowFrames++;
+        }
+        long elapsed = _now - subscriber.windowStart;
+        if (elapsed >= RATE_WINDOW) {
+            subscriber.bytesPerSecond = subscriber.windowBytes * 1000000000L / elapsed;
+            subscriber.framesPerSecond = (int) (subscriber.windowFrames * 1000000000L / elapsed);
+            subscriber.windowStart = _now;
+            subscriber.windowBytes = 0;
+            subscriber.windowFrames = 0;
+        }
+        subscriber.inFlight = null;
+        subscriber.busy = false;
+    }
+
+    /**
+     * The stack rejected or failed the frame in flight, it is sent again after resume
+     * @param _address subscriber
+     */
+    public synchronized void onFailed(String _address) {
+        Subscriber subscriber = subscribers.get(_address);
+        if (subscriber != null && subscriber.inFlight != null) {
+            if (subscriber.inFlightControl) {
+                subscriber.controls.addFirst(subscriber.inFlight);
+            } else {
+                subscriber.channels.get(subscriber.inFlightChannel).addFirst(subscriber.inFlight);
+                subscriber.queued++;
+            }
+            subscriber.inFlight = null;
+        }
+    }
+
+    /**
+     * Let a subscriber blocked by onFailed send again
+     * @param _address subscriber
+     */
+    public synchronized void resume(String _address) {
+        Subscriber subscriber = subscribers.get(_address);
+        if (subscriber != null && subscriber.inFlight == null) {
+            subscriber.busy = false;
+        }
+    }
+
+    /**
+     * @param _address subscriber
+     * @return frames waiting for the subscriber, the one in flight included
+     */
+    public synchronized int size(String _address) {
+        Subscriber subscriber = subscribers.get(_address);
+        if (subscriber == null) {
+            return 0;
+        }
+        return subscriber.queued + subscriber.controls.size() + (subscriber.inFlight == null ? 0 : 1);
+    }
+
+    /**
+     * @return frames waiting for every subscriber
+     */
+    public synchronized int size() {
+        int size = 0;
+        for (String address : subscribers.keySet()) {
+            size += size(address);
+        }
+        return size;
+    }
+
+    /**
+     * @param _address subscriber
+     * @return confirmed bytes per second of the last second, 0 if idle
+     */
+    public long getBytesPerSecond(String _address) {
+        return getBytesPerSecond(_address, System.nanoTime());
+    }
+
+    synchronized long getBytesPerSecond(String _address, long _now) {
+        Subscriber subscriber = subscribers.get(_address);
+        if (subscriber == null || _now - subscriber.lastSent > 2 * RATE_WINDOW) {
+            return 0;
+        }
+        return subscriber.bytesPerSecond;
+    }
+
+    /**
+     * @param _address subscriber
+     * @return confirmed frames per second of the last second, 0 if idle
+     */
+    public synchronized int getFramesPerSecond(String _address) {
+        Subscriber subscriber = subscribers.get(_address);
+        if (subscriber == null || System.nanoTime() - subscriber.lastSent > 2 * RATE_WINDOW) {
+            return 0;
+        }
+        return subscriber.framesPerSecond;
+    }
+
+    public synchronized void clear() {
+        subscribers.clear();
+        lastPolled = null;
+    }
+}
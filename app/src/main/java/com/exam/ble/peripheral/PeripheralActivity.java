@@ -101,6 +101,8 @@ public class PeripheralActivity extends AppCompatActivity {
      */
     private void initServer() {
         PeripheralManager.getInstance(PeripheralActivity.this).setCallBack(peripheralCallback);
+        // this screen shows the messages as text
+        PeripheralManager.getInstance(PeripheralActivity.this).setDecodeText(true);
         PeripheralManager.getInstance(PeripheralActivity.this).initServer();
     }
 
@@ -9,20 +9,49 @@ import android.bluetooth.BluetoothGattServer;
 import android.bluetooth.BluetoothGattServerCallback;
 import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothManager;
-import android.bluetooth.le.AdvertiseCallback;
-import android.bluetooth.le.AdvertiseData;
-import android.bluetooth.le.AdvertiseSettings;
-import android.bluetooth.le.BluetoothLeAdvertiser;
 import android.content.Context;
-import android.os.ParcelUuid;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 
+import androidx.annotation.Nullable;
+
+import com.exam.ble.protocol.BroadcastCodec;
+import com.exam.ble.protocol.BufferPool;
+import com.exam.ble.protocol.FrameAssembler;
+import com.exam.ble.protocol.FrameCodec;
+import com.exam.ble.protocol.StreamReceiver;
+import com.exam.ble.protocol.StreamSender;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import static com.exam.ble.Constants.CHARACTERISTIC_UUID;
-import static com.exam.ble.Constants.CONFIG_UUID;
-import static com.exam.ble.Constants.SERVICE_STRING;
+import static com.exam.ble.Constants.BROADCAST_HOLD_TIME;
+import static com.exam.ble.Constants.BROADCAST_QUEUE_CAPACITY;
+import static com.exam.ble.Constants.CMD_CHARACTERISTIC_UUID;
+import static com.exam.ble.Constants.CONFIG_DESCRIPTOR_UUID;
+import static com.exam.ble.Constants.DEFAULT_MTU;
+import static com.exam.ble.Constants.FRAME_POOL_SIZE;
+import static com.exam.ble.Constants.NOTIFY_QUEUE_CAPACITY;
+import static com.exam.ble.Constants.NOTIFY_RETRY_DELAY;
+import static com.exam.ble.Constants.NOTIFY_SENT_TIMEOUT;
 import static com.exam.ble.Constants.SERVICE_UUID;
+import static com.exam.ble.Constants.WRITE_QUEUE_CAPACITY;
+import static com.exam.ble.Constants.WRITE_QUEUE_TIMEOUT;
 
 public class PeripheralManager {
 
@@ -35,15 +64,116 @@ public class PeripheralManager {
     private BluetoothManager mBluetoothManager;
     private BluetoothAdapter mBluetoothAdapter;
     private BluetoothGattServer mGattServer;
-    private BluetoothGattService mBluetoothGattService;
-    private BluetoothLeAdvertiser mAdvertiser;
-    private BluetoothDevice mBluetoothDevice;
-    private BluetoothGattCharacteristic mCharacteristic;
+    private Advertiser mAdvertiser;
+    private volatile AdvertiseProfile mAdvertiseProfile = AdvertiseProfile.fastThenSlow();
+    // service data of the advertising, null for none
+    private volatile byte[] mAdvertiseData;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    // PHY requested for every central, BluetoothDevice.PHY_LE_*_MASK
+    private volatile int mPreferredPhy = BluetoothDevice.PHY_LE_1M_MASK;
+    private volatile int mPhyOptions = BluetoothDevice.PHY_OPTION_NO_PREFERRED;
+    // connectionless messages waiting for their turn in the advertised service data
+    private final ArrayDeque<byte[]> mBroadcastQueue = new ArrayDeque<>();
+    // a message is being advertised, guarded by mBroadcastQueue
+    private boolean mBroadcasting = false;
+    // random start so the centrals do not take the first message after a restart for a repeat
+    private final AtomicInteger mBroadcastSequence = new AtomicInteger(new Random().nextInt(256));
+    private final Runnable mBroadcastTask = new Runnable() {
+        @Override
+        public void run() {
+            rotateBroadcast();
+        }
+    };
+    // services of the server, the command service is channel 0
+    private final ServiceRegistry mServiceRegistry = new ServiceRegistry();
 
     private PeripheralCallback listener;
 
+    // connected centrals keyed by device address
+    private final ConcurrentHashMap<String, Client> mClients = new ConcurrentHashMap<>();
+    // frames waiting per subscribed central
+    private final NotificationQueue mNotificationQueue = new NotificationQueue(NOTIFY_QUEUE_CAPACITY);
+    // sends the queued notifications off the binder and main threads, started again by initServer after close
+    private HandlerThread mNotifyThread;
+    private volatile Handler mNotifyHandler;
+    private final Runnable mNotifyTask = new Runnable() {
+        @Override
+        public void run() {
+            drainNotifications();
+        }
+    };
+    // prefer indications for centrals that enabled them
+    private volatile boolean mReliable = false;
+    // value read by the centrals, never the shared characteristic value
+    private final ValueStore mValueStore = new ValueStore(new byte[]{0, 0});
+    // id of the next framed message
+    private final AtomicInteger mMessageId = new AtomicInteger();
+    // reassembly of written fragments
+    private final BufferPool mBufferPool = new BufferPool(FrameCodec.MAX_PAYLOAD_SIZE, FRAME_POOL_SIZE);
+    // binary handler of inbound messages
+    private volatile InboundHandler mInboundHandler;
+    // decode inbound messages as text for the status messages
+    private volatile boolean mDecodeText = false;
+    // processes written fragments in order, off the binder thread
+    private volatile WriteWorker mWriteWorker;
+    private volatile WriteResponseMode mWriteResponseMode = WriteResponseMode.IMMEDIATE;
+    private volatile WriteValidator mWriteValidator;
+    // runs the inbound handler on the write worker, or on the executor given to setInboundHandler
+    private final InboundDispatcher mInboundDispatcher = new InboundDispatcher(new InboundDispatcher.Consumer() {
+        @Override
+        public void onMessage(String source, byte[] message) {
+            InboundHandler handler = mInboundHandler;
+            if (handler != null) {
+                Client client = mClients.get(source);
+                BluetoothDevice device = client != null ? client.device : mBluetoothAdapter.getRemoteDevice(source);
+                handler.onMessage(device, ByteBuffer.wrap(message).asReadOnlyBuffer());
+            }
+            if (mDecodeText) {
+                String text = new String(message, StandardCharsets.UTF_8);
+                listener.onStatusMsg("read : " + text);
+                listener.onToast(text);
+            }
+        }
+    });
+    private final FrameAssembler.MessageListener mMessageListener = new FrameAssembler.MessageListener() {
+        @Override
+        public void onMessage(String source, int messageId, byte[] buffer, int length) {
+            if (mInboundHandler == null && !mDecodeText) {
+                return;
+            }
+            mInboundDispatcher.dispatch(source, buffer, length);
+        }
+    };
+    private final FrameAssembler mFrameAssembler = new FrameAssembler(mBufferPool, mMessageListener);
+    // credit stream of write without response, credits and acks go back as notifications
+    private final StreamReceiver mStreamReceiver = new StreamReceiver(StreamSender.DEFAULT_WINDOW, mBufferPool, mMessageListener,
+            new StreamReceiver.ControlWriter() {
+        @Override
+        public void write(String source, byte[] frame) {
+            Client client = mClients.get(source);
+            // ahead of the data and never dropped for a full queue
+            if (client != null && client.isSubscribed(CMD_CHARACTERISTIC_UUID)
+                    && mNotificationQueue.offerControl(source, frame)) {
+                mNotifyHandler.post(mNotifyTask);
+            } else {
+                // the sender resets its credits after StreamSender.ACK_TIMEOUT
+                Log.w(TAG, "Stream control frame dropped, not subscribed : " + source);
+            }
+        }
+    });
+
     public PeripheralManager(Context context) {
         this.mContext = context.getApplicationContext();
+        startWorkers();
+
+        // framed messages of sendData and the write stream, always registered first
+        mServiceRegistry.register(new GattServiceSpec.Builder(SERVICE_UUID)
+                .addCharacteristic(new GattCharacteristicSpec.Builder(CMD_CHARACTERISTIC_UUID)
+                        .setProperties(BluetoothGattCharacteristic.PROPERTY_READ | BluetoothGattCharacteristic.PROPERTY_WRITE
+                                | BluetoothGattCharacteristic.PROPERTY_NOTIFY | BluetoothGattCharacteristic.PROPERTY_INDICATE)
+                        .setPermissions(BluetoothGattCharacteristic.PERMISSION_READ | BluetoothGattCharacteristic.PERMISSION_WRITE)
+                        .build())
+                .build());
     }
 
     public void setCallBack(PeripheralCallback listener) {
@@ -60,6 +190,7 @@ public class PeripheralManager {
 
     public void initServer() {
         Log.d(TAG, "initServer =================================== IN");
+        startWorkers();
 
         mBluetoothManager = (BluetoothManager) mContext.getSystemService(Context.BLUETOOTH_SERVICE);
         mBluetoothAdapter = mBluetoothManager.getAdapter();
@@ -72,48 +203,20 @@ public class PeripheralManager {
             return;
         }
 
-        mBluetoothGattService = new BluetoothGattService(SERVICE_UUID, BluetoothGattService.SERVICE_TYPE_PRIMARY);
-
-        mCharacteristic = new BluetoothGattCharacteristic(UUID.fromString(CHARACTERISTIC_UUID),
-                BluetoothGattCharacteristic.PROPERTY_READ | BluetoothGattCharacteristic.PROPERTY_WRITE | BluetoothGattCharacteristic.PROPERTY_NOTIFY,
-                BluetoothGattCharacteristic.PERMISSION_READ | BluetoothGattCharacteristic.PERMISSION_WRITE);
-        mCharacteristic.addDescriptor(new BluetoothGattDescriptor(UUID.fromString(CONFIG_UUID), (BluetoothGattCharacteristic.PERMISSION_WRITE | BluetoothGattCharacteristic.PERMISSION_READ)));
-        mCharacteristic.setValue(new byte[]{0, 0});
-
-        mBluetoothGattService.addCharacteristic(mCharacteristic);
-
         startAdvertising();
         startServer();
     }
 
     /**
      * Begin advertising over Bluetooth that this device is connectable
-     * and supports the Current Time Service.
+     * and supports the service.
      */
     private void startAdvertising() {
-        mAdvertiser = mBluetoothAdapter.getBluetoothLeAdvertiser();
         if (mAdvertiser == null) {
-            Log.w(TAG, "Failed to create advertiser");
-            listener.onStatusMsg("Failed to create advertiser");
-            return;
+            mAdvertiser = new Advertiser(mBluetoothAdapter, mAdvListener);
         }
-
-        AdvertiseSettings advSettings = new AdvertiseSettings.Builder()
-                .setAdvertiseMode(AdvertiseSettings.ADVERTISE_MODE_BALANCED)
-                .setTxPowerLevel(AdvertiseSettings.ADVERTISE_TX_POWER_MEDIUM)
-                .setConnectable(true)
-                .build();
-
-        AdvertiseData advData = new AdvertiseData.Builder()
-                .setIncludeTxPowerLevel(true)
-                .addServiceUuid(ParcelUuid.fromString(SERVICE_STRING))
-                .build();
-
-        AdvertiseData advScanResponse = new AdvertiseData.Builder()
-                .setIncludeDeviceName(true)
-                .build();
-
-        mAdvertiser.startAdvertising(advSettings, advData, advScanResponse, mAdvCallBack);
+        mAdvertiser.setServiceData(mAdvertiseData);
+        mAdvertiser.start(mAdvertiseProfile, SERVICE_UUID);
     }
 
     /**
@@ -123,7 +226,39 @@ public class PeripheralManager {
         if (mAdvertiser == null)
             return;
 
-        mAdvertiser.stopAdvertising(mAdvCallBack);
+        mAdvertiser.stop();
+    }
+
+    /**
+     * Interval and TX power of the advertising, a running advertising is restarted with it
+     * @param profile advertise profile, AdvertiseProfile.fastThenSlow() by default
+     */
+    public void setAdvertiseProfile(final AdvertiseProfile profile) {
+        mAdvertiseProfile = profile;
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mAdvertiser != null && mAdvertiser.isRunning()) {
+                    mAdvertiser.start(profile, SERVICE_UUID);
+                }
+            }
+        });
+    }
+
+    /**
+     * Service data advertised under SERVICE_UUID, updated without restarting the advertising on Android O+
+     * @param data service data, null to remove it
+     */
+    public void setAdvertiseData(@Nullable final byte[] data) {
+        mAdvertiseData = data;
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mAdvertiser != null) {
+                    mAdvertiser.setServiceData(data);
+                }
+            }
+        });
     }
 
     /**
@@ -137,7 +272,55 @@ public class PeripheralManager {
             return;
         }
 
-        mGattServer.addService(mBluetoothGattService);
+        mServiceRegistry.reset();
+        addNextService();
+    }
+
+    /**
+     * Add the next registered service, the one after it waits for onServiceAdded
+     */
+    private void addNextService() {
+        GattServiceSpec spec;
+        while (mGattServer != null && (spec = mServiceRegistry.next()) != null) {
+            if (mGattServer.addService(buildService(spec))) {
+                return;
+            }
+            Log.e(TAG, "addService failed : " + spec.uuid);
+            mServiceRegistry.onAdded(spec.uuid);
+        }
+    }
+
+    /**
+     * @param spec registered service
+     * @return service with a CCCD on every notify / indicate characteristic
+     */
+    private BluetoothGattService buildService(GattServiceSpec spec) {
+        BluetoothGattService service = new BluetoothGattService(spec.uuid, spec.type);
+        for (GattCharacteristicSpec characteristic_spec : spec.characteristics) {
+            ServiceRegistry.Channel channel = mServiceRegistry.get(characteristic_spec.uuid);
+            BluetoothGattCharacteristic characteristic = new BluetoothGattCharacteristic(characteristic_spec.uuid,
+                    characteristic_spec.properties, characteristic_spec.permissions);
+            if (characteristic_spec.hasNotifications()) {
+                characteristic.addDescriptor(new BluetoothGattDescriptor(CONFIG_DESCRIPTOR_UUID,
+                        (BluetoothGattCharacteristic.PERMISSION_WRITE | BluetoothGattCharacteristic.PERMISSION_READ)));
+            }
+            if (characteristic_spec.handler != null && channel.worker == null) {
+                channel.worker = new WriteWorker("ble-write-" + channel.index, WRITE_QUEUE_CAPACITY);
+            }
+            channel.characteristic = characteristic;
+            service.addCharacteristic(characteristic);
+        }
+        return service;
+    }
+
+    /**
+     * Register a service, added right away if the server is open.
+     * 특성 UUID 는 모든 서비스에서 유일해야 한다.
+     * @param spec service and its characteristics
+     */
+    public void addService(GattServiceSpec spec) {
+        mServiceRegistry.register(spec);
+        addNextService();
     }
 
     /**
@@ -159,55 +342,602 @@ public class PeripheralManager {
             stopServer();
             stopAdvertising();
         }
+        mNotificationQueue.clear();
+        mClients.clear();
+        synchronized (mBroadcastQueue) {
+            mBroadcastQueue.clear();
+        }
+        stopWorkers();
+    }
+
+    /**
+     * Start the notify thread and the write worker, stopped by close
+     */
+    private synchronized void startWorkers() {
+        if (mNotifyThread == null) {
+            mNotifyThread = new HandlerThread("ble-notify");
+            mNotifyThread.start();
+            mNotifyHandler = new Handler(mNotifyThread.getLooper());
+        }
+        if (mWriteWorker == null || !mWriteWorker.isRunning()) {
+            mWriteWorker = new WriteWorker("ble-write", WRITE_QUEUE_CAPACITY);
+        }
+    }
+
+    /**
+     * Stop the notify thread and every write worker, a late post to them is dropped
+     */
+    private synchronized void stopWorkers() {
+        if (mNotifyThread != null) {
+            mNotifyThread.quitSafely();
+            mNotifyThread = null;
+        }
+        mWriteWorker.quit();
+        for (ServiceRegistry.Channel channel : mServiceRegistry.getChannels()) {
+            if (channel.worker != null) {
+                channel.worker.quit();
+                channel.worker = null;
+            }
+        }
+    }
+
+    /**
+     * @param device connected central
+     * @return ATT MTU of the device, DEFAULT_MTU until the central negotiates
+     */
+    public int getMtu(BluetoothDevice device) {
+        Client client = mClients.get(device.getAddress());
+        return client == null ? DEFAULT_MTU : client.mtu;
+    }
+
+    /**
+     * Set the handler of inbound messages
+     * @param handler binary handler, null to drop messages
+     * @param executor executor of the handler, owned by the caller, null runs the handler on the write worker in order
+     */
+    public void setInboundHandler(@Nullable InboundHandler handler, @Nullable Executor executor) {
+        mInboundDispatcher.setExecutor(executor);
+        mInboundHandler = handler;
+    }
+
+    /**
+     * Choose when a write request is acknowledged, the processing always runs on the write worker
+     * @param mode IMMEDIATE responds once queued, VALIDATED responds with the validator status
+     * @param validator check run on the binder thread in VALIDATED mode, null accepts every write
+     */
+    public void setWriteResponseMode(WriteResponseMode mode, @Nullable WriteValidator validator) {
+        mWriteValidator = validator;
+        mWriteResponseMode = mode;
+    }
+
+    /**
+     * @return writes waiting for the write worker
+     */
+    public int getPendingWrites() {
+        return mWriteWorker.getPending();
+    }
+
+    /**
+     * PHY requested for the connected centrals and the next ones, Android O+.
+     * 컨트롤러가 지원하지 않는 PHY 는 빠진다. 결과는 onPhyUpdate 로 온다.
+     * @param phy BluetoothDevice.PHY_LE_*_MASK
+     * @param options BluetoothDevice.PHY_OPTION_* of the coded PHY
+     */
+    public void setPreferredPhy(int phy, int options) {
+        mPreferredPhy = phy;
+        mPhyOptions = options;
+        for (Client client : mClients.values()) {
+            requestPhy(client.device);
+        }
+    }
+
+    /**
+     * @param device central
+     * @return transmitter PHY of the link, BluetoothDevice.PHY_LE_1M until onPhyUpdate
+     */
+    public int getTxPhy(BluetoothDevice device) {
+        Client client = mClients.get(device.getAddress());
+        return client == null ? BluetoothDevice.PHY_LE_1M : client.txPhy;
+    }
+
+    private void requestPhy(BluetoothDevice device) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O || mGattServer == null) {
+            return;
+        }
+        int phy = mPreferredPhy | BluetoothDevice.PHY_LE_1M_MASK;
+        if (!mBluetoothAdapter.isLe2MPhySupported()) {
+            phy &= ~BluetoothDevice.PHY_LE_2M_MASK;
+        }
+        if (!mBluetoothAdapter.isLeCodedPhySupported()) {
+            phy &= ~BluetoothDevice.PHY_LE_CODED_MASK;
+        }
+        if (phy != BluetoothDevice.PHY_LE_1M_MASK) {
+            mGattServer.setPreferredPhy(device, phy, phy, mPhyOptions);
+        }
+    }
+
+    /**
+     * Opt in to decoding inbound messages as UTF-8 for onStatusMsg and onToast
+     * @param decode true to decode
+     */
+    public void setDecodeText(boolean decode) {
+        mDecodeText = decode;
+    }
+
+    /**
+     * Reliable mode, frames to centrals that enabled indications are indicated and acknowledged by the central
+     * @param reliable true to prefer indications over notifications
+     */
+    public void setReliable(boolean reliable) {
+        mReliable = reliable;
+    }
+
+    /**
+     * @param device subscribed central
+     * @return frames waiting for the central, the one in flight included
+     */
+    public int getQueueDepth(BluetoothDevice device) {
+        return mNotificationQueue.size(device.getAddress());
+    }
+
+    /**
+     * @return frames waiting for every central
+     */
+    public int getQueueDepth() {
+        return mNotificationQueue.size();
+    }
+
+    /**
+     * @param device subscribed central
+     * @return bytes per second confirmed by onNotificationSent over the last second
+     */
+    public long getDrainRate(BluetoothDevice device) {
+        return mNotificationQueue.getBytesPerSecond(device.getAddress());
+    }
+
+    /**
+     * @return connected centrals
+     */
+    public List<BluetoothDevice> getConnectedDevices() {
+        List<BluetoothDevice> devices = new ArrayList<>();
+        for (Client client : mClients.values()) {
+            devices.add(client.device);
+        }
+        return devices;
+    }
+
+    /**
+     * @return centrals that enabled notifications or indications
+     */
+    public List<BluetoothDevice> getSubscribers() {
+        List<BluetoothDevice> devices = new ArrayList<>();
+        for (String address : mNotificationQueue.getSubscribers()) {
+            Client client = mClients.get(address);
+            if (client != null) {
+                devices.add(client.device);
+            }
+        }
+        return devices;
     }
 
     /**
      * 데이타를 전달한다.
-     * @param message 20바이트 제한.
+     * @param message 긴 데이타는 조각으로 나누어 보낸다.
      */
     public void sendData(String message) {
-        /**
-         * 테스트중 아래의 오류가 발생한적이 있다.
-         * java.lang.NullPointerException: Attempt to invoke virtual method 'java.lang.String android.bluetooth.BluetoothDevice.getAddress()' on a null object reference
-         * if 문으로 체크해보자.
-         */
-        if (mBluetoothDevice == null) {
-            Log.e(TAG, "BluetoothDevice is null");
-            listener.onStatusMsg("BluetoothDevice is null");
-            return;
-        } else if (mBluetoothDevice.getAddress() == null) {
-            Log.e(TAG, "GattServer lost device address");
-            listener.onStatusMsg("GattServer lost device address");
-            return;
-        } else if (mGattServer == null) {
+        if (sendData(message.getBytes())) {
+            listener.onStatusMsg("write : " + message);
+        }
+    }
+
+    /**
+     * 데이타를 조각으로 나누어 모든 구독 장치에 notify 한다.
+     * @param payload data up to FrameCodec.MAX_PAYLOAD_SIZE
+     * @return true if the message was queued for at least one subscriber
+     */
+    public boolean sendData(byte[] payload) {
+        if (mGattServer == null) {
             Log.e(TAG, "GattServer is null");
             listener.onStatusMsg("GattServer is null");
+            return false;
+        }
+        List<String> subscribers = new ArrayList<>();
+        for (Client client : mClients.values()) {
+            if (client.isSubscribed(CMD_CHARACTERISTIC_UUID)) {
+                subscribers.add(client.address);
+            }
+        }
+        if (subscribers.isEmpty()) {
+            Log.e(TAG, "No subscribed device");
+            listener.onStatusMsg("No subscribed device");
+            return false;
+        }
+
+        // reads return the last message
+        mValueStore.publish(payload);
+
+        // every subscriber gets the same message id, fragments are encoded once per MTU
+        int message_id = mMessageId.getAndIncrement();
+        Map<Integer, List<byte[]>> encoded = new HashMap<>();
+        int queued = 0;
+        for (String address : subscribers) {
+            Client client = mClients.get(address);
+            if (client == null) {
+                continue;
+            }
+            int fragment_size = FrameCodec.fragmentSize(client.mtu);
+            List<byte[]> fragments = encoded.get(fragment_size);
+            if (fragments == null) {
+                fragments = FrameCodec.encode(message_id, payload, fragment_size);
+                encoded.put(fragment_size, fragments);
+            }
+            if (mNotificationQueue.offer(address, fragments)) {
+                queued++;
+            } else {
+                // only this slow central misses the message
+                Log.e(TAG, "Notification queue full: " + address);
+            }
+        }
+        mNotifyHandler.post(mNotifyTask);
+        return queued > 0;
+    }
+
+    /**
+     * Broadcast a small message in the advertised service data, without any connection.
+     * 메세지마다 BROADCAST_HOLD_TIME 동안 advertise 한 뒤 다음 메세지로 바뀌고, 마지막 메세지는 계속 남는다.
+     * setAdvertiseData 로 설정한 데이타를 대신한다.
+     * @param payload data up to BroadcastCodec.MAX_PAYLOAD_SIZE
+     * @return false if the payload is too large or too many messages are waiting
+     */
+    public boolean broadcast(byte[] payload) {
+        if (payload.length > BroadcastCodec.MAX_PAYLOAD_SIZE) {
+            Log.e(TAG, "Broadcast payload too large: " + payload.length);
+            return false;
+        }
+        synchronized (mBroadcastQueue) {
+            if (mBroadcastQueue.size() >= BROADCAST_QUEUE_CAPACITY) {
+                Log.e(TAG, "Broadcast queue full");
+                return false;
+            }
+            mBroadcastQueue.add(BroadcastCodec.encode(mBroadcastSequence.getAndIncrement(), payload));
+            if (mBroadcasting) {
+                return true;
+            }
+            mBroadcasting = true;
+        }
+        mMainHandler.post(mBroadcastTask);
+        return true;
+    }
+
+    /**
+     * Advertise the next broadcast message, on the main thread
+     */
+    private void rotateBroadcast() {
+        byte[] data;
+        synchronized (mBroadcastQueue) {
+            data = mBroadcastQueue.poll();
+            if (data == null) {
+                mBroadcasting = false;
+                return;
+            }
+        }
+        mAdvertiseData = data;
+        if (mAdvertiser != null) {
+            mAdvertiser.setServiceData(data);
+        }
+        mMainHandler.postDelayed(mBroadcastTask, BROADCAST_HOLD_TIME);
+    }
+
+    /**
+     * Set the value read by the centrals, without notifying
+     * @param characteristic registered characteristic
+     * @param value new value
+     */
+    public void setValue(UUID characteristic, byte[] value) {
+        ServiceRegistry.Channel channel = mServiceRegistry.get(characteristic);
+        if (channel == null) {
+            throw new IllegalArgumentException("Unknown characteristic: " + characteristic);
+        }
+        channel.values.publish(value);
+    }
+
+    /**
+     * Notify a raw value, without framing, to every central subscribed to the characteristic.
+     * 특성마다 큐가 따로 있어 다른 특성의 전송이 밀려 있어도 기다리지 않는다.
+     * @param characteristic registered characteristic with notify or indicate
+     * @param value value up to FrameCodec.fragmentSize of the MTU of each central
+     * @return true if the value was queued for at least one central
+     */
+    public boolean notify(UUID characteristic, byte[] value) {
+        ServiceRegistry.Channel channel = mServiceRegistry.get(characteristic);
+        if (channel == null) {
+            throw new IllegalArgumentException("Unknown characteristic: " + characteristic);
+        }
+        channel.values.publish(value);
+        if (mGattServer == null) {
+            return false;
+        }
+        List<byte[]> frames = Collections.singletonList(value);
+        int queued = 0;
+        for (Client client : mClients.values()) {
+            if (!client.isSubscribed(characteristic)) {
+                continue;
+            }
+            if (value.length > FrameCodec.fragmentSize(client.mtu)) {
+                Log.e(TAG, "Value longer than the MTU of " + client.address + " : " + value.length);
+            } else if (mNotificationQueue.offer(client.address, channel.index, frames)) {
+                queued++;
+            } else {
+                Log.e(TAG, "Notification queue full: " + client.address + ", " + characteristic);
+            }
+        }
+        mNotifyHandler.post(mNotifyTask);
+        return queued > 0;
+    }
+
+    /**
+     * 한 장치에만 데이타를 notify 한다.
+     * @param device subscribed central
+     * @param payload data up to FrameCodec.MAX_PAYLOAD_SIZE
+     * @return true if the message was queued
+     */
+    public boolean sendData(BluetoothDevice device, byte[] payload) {
+        Client client = mClients.get(device.getAddress());
+        if (mGattServer == null || client == null) {
+            Log.e(TAG, "Device is not connected: " + device.getAddress());
+            return false;
+        }
+        if (!client.isSubscribed(CMD_CHARACTERISTIC_UUID)) {
+            Log.e(TAG, "Device is not subscribed: " + client.address);
+            return false;
+        }
+        mValueStore.publish(client.address, payload);
+        List<byte[]> fragments = FrameCodec.encode(mMessageId.getAndIncrement(), payload, FrameCodec.fragmentSize(client.mtu));
+        if (!mNotificationQueue.offer(client.address, fragments)) {
+            Log.e(TAG, "Device is not subscribed or its queue is full: " + client.address);
+            return false;
+        }
+        mNotifyHandler.post(mNotifyTask);
+        return true;
+    }
+
+    /**
+     * Notify the queued frames, one subscriber after the other.
+     * 장치마다 onNotificationSent 를 받은 뒤에 다음 프레임을 보낸다.
+     * 스택이 거절한 장치는 잠시 후 다시 보내고, 그 사이 다른 장치는 계속 보낸다.
+     */
+    private void drainNotifications() {
+        NotificationQueue.Pending pending;
+        while ((pending = mNotificationQueue.poll()) != null) {
+            final Client client = mClients.get(pending.address);
+            if (client == null || mGattServer == null) {
+                mNotificationQueue.unsubscribe(pending.address);
+                continue;
+            }
+            ServiceRegistry.Channel channel = mServiceRegistry.get(pending.channel);
+            if (channel == null || channel.characteristic == null) {
+                // service not added yet or the server was closed, the frame is dropped
+                mNotificationQueue.onSent(client.address);
+                continue;
+            }
+            if (notifyFrame(client, channel.characteristic, pending.frame)) {
+                // released by onNotificationSent, or by the timeout if the stack never reports it
+                mNotifyHandler.postAtTime(new Runnable() {
+                    @Override
+                    public void run() {
+                        Log.w(TAG, "onNotificationSent timeout : " + client.address);
+                        mNotificationQueue.onSent(client.address);
+                        drainNotifications();
+                    }
+                }, client, SystemClock.uptimeMillis() + NOTIFY_SENT_TIMEOUT);
+            } else {
+                retryLater(client);
+            }
+        }
+    }
+
+    /**
+     * Send the failed frame of the central again after NOTIFY_RETRY_DELAY
+     * @param client central
+     */
+    private void retryLater(final Client client) {
+        mNotificationQueue.onFailed(client.address);
+        mNotifyHandler.postAtTime(new Runnable() {
+            @Override
+            public void run() {
+                mNotificationQueue.resume(client.address);
+                drainNotifications();
+            }
+        }, client, SystemClock.uptimeMillis() + NOTIFY_RETRY_DELAY);
+    }
+
+    /**
+     * @param device central
+     * @return value the central reads now
+     */
+    public byte[] getValue(BluetoothDevice device) {
+        return mValueStore.get(device.getAddress()).read(0);
+    }
+
+    /**
+     * 한 프레임을 notify 한다.
+     * 특성의 값은 notify thread 에서만 바꾸고, 읽기는 ValueStore 에서 응답한다.
+     * @param client target central
+     * @param characteristic characteristic of the frame channel
+     * @param frame fragment, control frame or raw value
+     * @return false if the stack rejected it
+     */
+    private boolean notifyFrame(Client client, BluetoothGattCharacteristic characteristic, byte[] frame) {
+        int bits = client.getCccd(characteristic.getUuid());
+        boolean notify = (bits & Client.CCCD_NOTIFY) != 0;
+        // indicate in reliable mode, or when the central only enabled indications
+        boolean indicate = (bits & Client.CCCD_INDICATE) != 0 && (mReliable || !notify);
+        synchronized (characteristic) {
+            characteristic.setValue(frame);
+            return mGattServer.notifyCharacteristicChanged(client.device, characteristic, indicate);
+        }
+    }
+
+    /**
+     * Forget the state of a central that disconnected
+     * @param device central
+     */
+    private void onClientLost(BluetoothDevice device) {
+        final String address = device.getAddress();
+        // the assembler and the stream receiver are used on the write worker only
+        mWriteWorker.submit(new Runnable() {
+            @Override
+            public void run() {
+                mFrameAssembler.reset(address);
+                mStreamReceiver.reset(address);
+            }
+        }, WRITE_QUEUE_TIMEOUT);
+        mNotificationQueue.unsubscribe(device.getAddress());
+        mValueStore.remove(device.getAddress());
+        for (ServiceRegistry.Channel channel : mServiceRegistry.getChannels()) {
+            channel.values.remove(device.getAddress());
+        }
+        Client client = mClients.remove(device.getAddress());
+        if (client != null) {
+            client.preparedWrites.clear();
+            mNotifyHandler.removeCallbacksAndMessages(client);
+        }
+    }
+
+    /**
+     * Queue the processing of a write on the worker, then respond with the result, following mWriteResponseMode
+     * @param device central
+     * @param requestId request id of the response
+     * @param responseNeeded true if the central waits for the response
+     * @param value written value, checked by the validator in VALIDATED mode
+     * @param worker worker of the characteristic
+     * @param task processing of the value
+     */
+    private void submitWrite(BluetoothDevice device, int requestId, boolean responseNeeded, byte[] value,
+                             WriteWorker worker, Runnable task) {
+        int status = BluetoothGatt.GATT_SUCCESS;
+        // validated: only accepted writes are acknowledged and queued
+        WriteValidator validator = mWriteValidator;
+        if (mWriteResponseMode == WriteResponseMode.VALIDATED && validator != null) {
+            status = validator.validate(device, value);
+        }
+        // queued before the response in both modes, a full queue is reported instead of dropping an acked write
+        if (status == BluetoothGatt.GATT_SUCCESS && !worker.submit(task, WRITE_QUEUE_TIMEOUT)) {
+            Log.w(TAG, "Write queue full, refused : " + device.getAddress());
+            status = BluetoothGatt.GATT_CONNECTION_CONGESTED;
+        }
+        if (responseNeeded)
+            mGattServer.sendResponse(device, requestId, status, 0, null);
+    }
+
+    /**
+     * Write of a registered characteristic, the whole value goes to its handler on its own worker.
+     * 명령 특성의 조립 큐와 분리되어 있어 bulk 쓰기가 명령 처리를 막지 않는다.
+     * @param device central
+     * @param requestId request id of the response
+     * @param characteristic characteristic uuid
+     * @param preparedWrite true for a long write, only supported by the command characteristic
+     * @param responseNeeded true if the central waits for the response
+     * @param value written value
+     */
+    private void onChannelWrite(final BluetoothDevice device, int requestId, UUID characteristic, boolean preparedWrite,
+                                boolean responseNeeded, byte[] value) {
+        ServiceRegistry.Channel channel = mServiceRegistry.get(characteristic);
+        final InboundHandler handler = channel == null ? null : channel.spec.handler;
+        if (handler == null || channel.worker == null) {
+            if (responseNeeded)
+                mGattServer.sendResponse(device, requestId, BluetoothGatt.GATT_WRITE_NOT_PERMITTED, 0, null);
             return;
         }
+        if (preparedWrite) {
+            if (responseNeeded)
+                mGattServer.sendResponse(device, requestId, BluetoothGatt.GATT_REQUEST_NOT_SUPPORTED, 0, null);
+            return;
+        }
+        final byte[] message = value == null ? new byte[0] : value;
+        submitWrite(device, requestId, responseNeeded, message, channel.worker, new Runnable() {
+            @Override
+            public void run() {
+                handler.onMessage(device, ByteBuffer.wrap(message).asReadOnlyBuffer());
+            }
+        });
+    }
 
-        boolean indicate = (mCharacteristic.getProperties() & BluetoothGattCharacteristic.PROPERTY_INDICATE) == BluetoothGattCharacteristic.PROPERTY_INDICATE;
-        mCharacteristic.setValue(message.getBytes()); // 20byte limit
-        mGattServer.notifyCharacteristicChanged(mBluetoothDevice, mCharacteristic, indicate);
+    /**
+     * Queue a prepared write until onExecuteWrite
+     * @param device central
+     * @param requestId request id of the response
+     * @param responseNeeded true if the central waits for the response
+     * @param offset offset of the part
+     * @param value part of the value
+     */
+    private void onPrepareWrite(BluetoothDevice device, int requestId, boolean responseNeeded, int offset, byte[] value) {
+        Client client = mClients.get(device.getAddress());
+        int status = BluetoothGatt.GATT_FAILURE;
+        if (client != null) {
+            switch (client.preparedWrites.prepare(offset, value)) {
+                case PreparedWriteBuffer.RESULT_OK:
+                    status = BluetoothGatt.GATT_SUCCESS;
+                    break;
+                case PreparedWriteBuffer.RESULT_INVALID_OFFSET:
+                    status = BluetoothGatt.GATT_INVALID_OFFSET;
+                    break;
+                case PreparedWriteBuffer.RESULT_TOO_LONG:
+                    status = BluetoothGatt.GATT_INVALID_ATTRIBUTE_LENGTH;
+                    break;
+            }
+        }
+        // the prepare write response echoes the part so the central can verify it
+        if (responseNeeded)
+            mGattServer.sendResponse(device, requestId, status, offset, value);
+    }
 
-        listener.onStatusMsg("write : " + message);
+    /**
+     * CCCD write of a central
+     * @param device central
+     * @param characteristic characteristic owning the CCCD
+     * @param value ENABLE_NOTIFICATION_VALUE, ENABLE_INDICATION_VALUE or DISABLE_NOTIFICATION_VALUE
+     * @return GATT status of the response
+     */
+    private int onSubscriptionChanged(BluetoothDevice device, UUID characteristic, byte[] value) {
+        Client client = mClients.get(device.getAddress());
+        ServiceRegistry.Channel channel = mServiceRegistry.get(characteristic);
+        if (client == null || channel == null) {
+            return BluetoothGatt.GATT_FAILURE;
+        }
+        if (value == null || value.length != 2) {
+            return BluetoothGatt.GATT_INVALID_ATTRIBUTE_LENGTH;
+        }
+        // bit 0 notifications, bit 1 indications
+        client.setCccd(characteristic, value[0] & (Client.CCCD_NOTIFY | Client.CCCD_INDICATE));
+        if (!client.isSubscribed(characteristic)) {
+            mNotificationQueue.clear(client.address, channel.index);
+        }
+        if (client.isSubscribed()) {
+            mNotificationQueue.subscribe(client.address);
+            listener.onStatusMsg("Subscribed : " + client.address);
+        } else {
+            mNotificationQueue.unsubscribe(client.address);
+            mNotifyHandler.removeCallbacksAndMessages(client);
+            listener.onStatusMsg("Unsubscribed : " + client.address);
+        }
+        return BluetoothGatt.GATT_SUCCESS;
     }
 
     /**
-     * Advertise Callback
+     * Advertiser Listener
      */
-    private final AdvertiseCallback mAdvCallBack = new AdvertiseCallback() {
+    private final Advertiser.Listener mAdvListener = new Advertiser.Listener() {
         @Override
-        public void onStartSuccess(AdvertiseSettings settingsInEffect) {
-            super.onStartSuccess(settingsInEffect);
-            Log.e(TAG, "AdvertiseCallback onStartSuccess");
-            listener.onStatusMsg("GattServer onStartSuccess");
+        public void onAdvertising(boolean fast) {
+            Log.e(TAG, "Advertiser onAdvertising : " + (fast ? "fast" : "slow"));
+            listener.onStatusMsg("GattServer onStartSuccess" + (fast ? " (fast)" : ""));
         }
 
         @Override
-        public void onStartFailure(int errorCode) {
-            super.onStartFailure(errorCode);
-            Log.e(TAG, "AdvertiseCallback onStartFailure");
-            listener.onStatusMsg("GattServer onStartFailure");
+        public void onAdvertiseFailed(int errorCode) {
+            Log.e(TAG, "Advertiser onAdvertiseFailed : " + errorCode);
+            listener.onStatusMsg("GattServer onStartFailure : " + errorCode);
         }
     };
 
@@ -222,16 +952,38 @@ public class PeripheralManager {
             Log.e(TAG, "BluetoothGattServerCallback onConnectionStateChange");
             if (status == BluetoothGatt.GATT_SUCCESS) {
                 if (newState == BluetoothGatt.STATE_CONNECTED) {
-                    mBluetoothDevice = device;
-                    listener.onStatusMsg("GattServer STATE_CONNECTED");
+                    mClients.put(device.getAddress(), new Client(device));
+                    listener.onStatusMsg("GattServer STATE_CONNECTED : " + device.getAddress());
+                    requestPhy(device);
 
                 } else if (newState == BluetoothGatt.STATE_DISCONNECTED) {
-                    mBluetoothDevice = null;
-                    listener.onStatusMsg("GattServer STATE_DISCONNECTED");
+                    onClientLost(device);
+                    listener.onStatusMsg("GattServer STATE_DISCONNECTED : " + device.getAddress());
+                    // advertise fast again so the central can come back quickly
+                    mMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (mAdvertiser != null) {
+                                mAdvertiser.boost();
+                            }
+                        }
+                    });
                 }
             } else {
-                mBluetoothDevice = null;
-                listener.onStatusMsg("GattServer GATT_FAILURE");
+                onClientLost(device);
+                listener.onStatusMsg("GattServer GATT_FAILURE : " + device.getAddress());
+            }
+        }
+
+        @Override
+        public void onServiceAdded(int status, BluetoothGattService service) {
+            super.onServiceAdded(status, service);
+            Log.e(TAG, "BluetoothGattServerCallback onServiceAdded : " + service.getUuid() + ", status: " + status);
+            if (status != BluetoothGatt.GATT_SUCCESS) {
+                listener.onStatusMsg("addService failed : " + service.getUuid());
+            }
+            if (mServiceRegistry.onAdded(service.getUuid())) {
+                addNextService();
             }
         }
 
@@ -239,22 +991,51 @@ public class PeripheralManager {
         public void onCharacteristicReadRequest(BluetoothDevice device, int requestId, int offset, BluetoothGattCharacteristic characteristic) {
             super.onCharacteristicReadRequest(device, requestId, offset, characteristic);
             Log.e(TAG, "BluetoothGattServerCallback onCharacteristicReadRequest");
-            if (offset != 0) {
-                mGattServer.sendResponse(device, requestId, BluetoothGatt.GATT_INVALID_OFFSET, offset,null);
+            ValueStore store = mValueStore;
+            if (!CMD_CHARACTERISTIC_UUID.equals(characteristic.getUuid())) {
+                ServiceRegistry.Channel channel = mServiceRegistry.get(characteristic.getUuid());
+                if (channel == null) {
+                    mGattServer.sendResponse(device, requestId, BluetoothGatt.GATT_READ_NOT_PERMITTED, offset, null);
+                    return;
+                }
+                store = channel.values;
+            }
+            // a long read continues from the snapshot pinned at offset 0
+            ValueStore.Snapshot snapshot = store.read(device.getAddress(), offset);
+            byte[] value = snapshot.read(offset);
+            if (value == null) {
+                mGattServer.sendResponse(device, requestId, BluetoothGatt.GATT_INVALID_OFFSET, offset, null);
                 return;
             }
-            mGattServer.sendResponse(device, requestId, BluetoothGatt.GATT_SUCCESS, offset, characteristic.getValue());
+            mGattServer.sendResponse(device, requestId, BluetoothGatt.GATT_SUCCESS, offset, value);
         }
 
         @Override
         public void onCharacteristicWriteRequest(BluetoothDevice device, int requestId, BluetoothGattCharacteristic characteristic, boolean preparedWrite, boolean responseNeeded, int offset, byte[] value) {
             super.onCharacteristicWriteRequest(device, requestId, characteristic, preparedWrite, responseNeeded, offset, value);
             Log.e(TAG, "BluetoothGattServerCallback onCharacteristicWriteRequest");
-            listener.onStatusMsg("read : " + new String(value));
-            listener.onToast(new String(value));
+            if (!CMD_CHARACTERISTIC_UUID.equals(characteristic.getUuid())) {
+                onChannelWrite(device, requestId, characteristic.getUuid(), preparedWrite, responseNeeded, value);
+                return;
+            }
+            if (preparedWrite) {
+                onPrepareWrite(device, requestId, responseNeeded, offset, value);
+                return;
+            }
+            final String address = device.getAddress();
+            final byte[] fragment = value;
+            Runnable task = new Runnable() {
+                @Override
+                public void run() {
+                    if (fragment != null && fragment.length > 0 && FrameCodec.isStream(fragment)) {
+                        mStreamReceiver.onFragment(address, fragment);
+                    } else {
+                        mFrameAssembler.onFragment(address, fragment);
+                    }
+                }
+            };
 
-            if (responseNeeded)
-                mGattServer.sendResponse(device, requestId, 0, 0, null);
+            submitWrite(device, requestId, responseNeeded, value, mWriteWorker, task);
         }
 
         @Override
@@ -265,14 +1046,101 @@ public class PeripheralManager {
                 mGattServer.sendResponse(device, requestId, BluetoothGatt.GATT_INVALID_OFFSET, offset,null);
                 return;
             }
-            mGattServer.sendResponse(device, requestId, BluetoothGatt.GATT_SUCCESS, offset, descriptor.getValue());
+            byte[] value = descriptor.getValue();
+            // the CCCD value belongs to each central
+            if (CONFIG_DESCRIPTOR_UUID.equals(descriptor.getUuid())) {
+                Client client = mClients.get(device.getAddress());
+                int bits = client == null ? 0 : client.getCccd(descriptor.getCharacteristic().getUuid());
+                value = new byte[]{(byte) bits, 0};
+            }
+            mGattServer.sendResponse(device, requestId, BluetoothGatt.GATT_SUCCESS, offset, value);
         }
 
         @Override
         public void onDescriptorWriteRequest(BluetoothDevice device, int requestId, BluetoothGattDescriptor descriptor, boolean preparedWrite, boolean responseNeeded, int offset, byte[] value) {
             super.onDescriptorWriteRequest(device, requestId, descriptor, preparedWrite, responseNeeded, offset, value);
             Log.e(TAG, "BluetoothGattServerCallback onDescriptorWriteRequest");
-            mGattServer.sendResponse(device, requestId, BluetoothGatt.GATT_SUCCESS, 0, null);
+            int status = BluetoothGatt.GATT_SUCCESS;
+            if (CONFIG_DESCRIPTOR_UUID.equals(descriptor.getUuid())) {
+                status = onSubscriptionChanged(device, descriptor.getCharacteristic().getUuid(), value);
+            }
+            if (responseNeeded)
+                mGattServer.sendResponse(device, requestId, status, 0, null);
+        }
+
+        @Override
+        public void onExecuteWrite(BluetoothDevice device, int requestId, boolean execute) {
+            super.onExecuteWrite(device, requestId, execute);
+            Log.e(TAG, "BluetoothGattServerCallback onExecuteWrite : " + execute);
+            Client client = mClients.get(device.getAddress());
+            if (client == null) {
+                mGattServer.sendResponse(device, requestId, BluetoothGatt.GATT_FAILURE, 0, null);
+                return;
+            }
+            final byte[] value = client.preparedWrites.execute(execute);
+            int status = BluetoothGatt.GATT_SUCCESS;
+            if (value != null) {
+                final String address = client.address;
+                // queued before the response, a full queue is reported instead of dropping an acked value
+                boolean queued = mWriteWorker.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        // a long write carries the whole payload, no framing
+                        mMessageListener.onMessage(address, -1, value, value.length);
+                    }
+                }, WRITE_QUEUE_TIMEOUT);
+                if (!queued) {
+                    status = BluetoothGatt.GATT_CONNECTION_CONGESTED;
+                }
+            }
+            // nothing prepared or cancelled: ATT still expects a normal Execute Write Response
+            mGattServer.sendResponse(device, requestId, status, 0, null);
+        }
+
+        @Override
+        public void onNotificationSent(BluetoothDevice device, final int status) {
+            super.onNotificationSent(device, status);
+            final Client client = mClients.get(device.getAddress());
+            if (client == null) {
+                return;
+            }
+            // handled on the notify thread, after the timeout of the frame was posted
+            mNotifyHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mNotifyHandler.removeCallbacksAndMessages(client);
+                    if (status == BluetoothGatt.GATT_SUCCESS) {
+                        mNotificationQueue.onSent(client.address);
+                        drainNotifications();
+                    } else {
+                        Log.e(TAG, "Notification failed : " + client.address + ", status: " + status);
+                        retryLater(client);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void onPhyUpdate(BluetoothDevice device, int txPhy, int rxPhy, int status) {
+            super.onPhyUpdate(device, txPhy, rxPhy, status);
+            Log.e(TAG, "BluetoothGattServerCallback onPhyUpdate : " + txPhy + "/" + rxPhy + ", status: " + status);
+            Client client = mClients.get(device.getAddress());
+            if (client != null && status == BluetoothGatt.GATT_SUCCESS) {
+                client.txPhy = txPhy;
+                client.rxPhy = rxPhy;
+                listener.onStatusMsg("PHY : " + txPhy + "/" + rxPhy);
+            }
+        }
+
+        @Override
+        public void onMtuChanged(BluetoothDevice device, int mtu) {
+            super.onMtuChanged(device, mtu);
+            Log.e(TAG, "BluetoothGattServerCallback onMtuChanged : " + mtu);
+            Client client = mClients.get(device.getAddress());
+            if (client != null) {
+                client.mtu = mtu;
+            }
+            listener.onStatusMsg("MTU : " + mtu);
         }
     };
 }
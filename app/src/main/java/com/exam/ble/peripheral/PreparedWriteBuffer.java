@@ -0,0 +1,80 @@
+package com.exam.ble.peripheral;
+
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * Prepared (long / reliable) writes of one central, committed by onExecuteWrite.
+ * 준비된 쓰기는 offset 순서대로 모아두고 실행 요청이 오면 하나의 값으로 합친다.
+ */
+public class PreparedWriteBuffer {
+
+    // value was queued
+    public final static int RESULT_OK = 0;
+    // offset leaves a gap after the queued data
+    public final static int RESULT_INVALID_OFFSET = 1;
+    // value would be larger than the limit
+    public final static int RESULT_TOO_LONG = 2;
+
+    private final int maxSize;
+    private byte[] buffer = new byte[0];
+    // end of the assembled value
+    private int length = 0;
+    private boolean pending = false;
+
+    /**
+     * @param _max_size max assembled value size in bytes
+     */
+    public PreparedWriteBuffer(int _max_size) {
+        maxSize = _max_size;
+    }
+
+    /**
+     * Queue one prepared write
+     * @param _offset offset of the part in the value
+     * @param _value part of the value
+     * @return RESULT_*
+     */
+    public synchronized int prepare(int _offset, byte[] _value) {
+        int size = _value == null ? 0 : _value.length;
+        if (_offset < 0 || _offset > length) {
+            return RESULT_INVALID_OFFSET;
+        }
+        if (_offset + size > maxSize) {
+            return RESULT_TOO_LONG;
+        }
+        if (_offset + size > buffer.length) {
+            // grow by doubling, up to the limit
+            buffer = Arrays.copyOf(buffer, Math.min(maxSize, Math.max(_offset + size, buffer.length * 2)));
+        }
+        if (size > 0) {
+            System.arraycopy(_value, 0, buffer, _offset, size);
+        }
+        length = Math.max(length, _offset + size);
+        pending = true;
+        return RESULT_OK;
+    }
+
+    /**
+     * Commit or cancel the queued writes
+     * @param _execute true to commit, false to cancel
+     * @return assembled value, null if cancelled or nothing was queued
+     */
+    @Nullable
+    public synchronized byte[] execute(boolean _execute) {
+        byte[] value = _execute && pending ? Arrays.copyOf(buffer, length) : null;
+        clear();
+        return value;
+    }
+
+    public synchronized boolean isPending() {
+        return pending;
+    }
+
+    public synchronized void clear() {
+        buffer = new byte[0];
+        length = 0;
+        pending = false;
+    }
+}
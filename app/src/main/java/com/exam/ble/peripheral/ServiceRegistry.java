@@ -0,0 +1,133 @@
+package com.exam.ble.peripheral;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Services of the GATT server and the state of their characteristics.
+ * addService 는 한번에 하나만 진행할 수 있으므로, 다음 서비스는 onServiceAdded 를 받은 뒤에 추가한다.
+ * 특성마다 notification channel 번호를 하나씩 받고, 등록 순서대로 0 부터 매겨진다.
+ */
+class ServiceRegistry {
+
+    /**
+     * One registered characteristic
+     */
+    static class Channel {
+        final GattCharacteristicSpec spec;
+        // channel of its frames in the NotificationQueue
+        final int index;
+        // value read by the centrals
+        final ValueStore values;
+        // characteristic of the added service, set on the thread calling addService
+        volatile BluetoothGattCharacteristic characteristic;
+        // runs the handler of the written values in order
+        volatile WriteWorker worker;
+
+        Channel(GattCharacteristicSpec _spec, int _index) {
+            spec = _spec;
+            index = _index;
+            values = new ValueStore(_spec.initialValue);
+        }
+    }
+
+    private final List<GattServiceSpec> services = new ArrayList<>();
+    private final Map<UUID, Channel> channels = new HashMap<>();
+    private final List<Channel> channelList = new ArrayList<>();
+    // services waiting for addService
+    private final ArrayDeque<GattServiceSpec> pending = new ArrayDeque<>();
+    // service whose onServiceAdded is awaited
+    private GattServiceSpec adding;
+
+    /**
+     * @param _service service to add to the server
+     * @throws IllegalArgumentException if the service or one of its characteristics is already registered
+     */
+    synchronized void register(GattServiceSpec _service) {
+        for (GattServiceSpec service : services) {
+            if (service.uuid.equals(_service.uuid)) {
+                throw new IllegalArgumentException("Service already registered: " + _service.uuid);
+            }
+        }
+        // characteristics are found by UUID, so they must be unique over every service
+        for (GattCharacteristicSpec characteristic : _service.characteristics) {
+            if (channels.containsKey(characteristic.uuid)) {
+                throw new IllegalArgumentException("Characteristic already registered: " + characteristic.uuid);
+            }
+        }
+        services.add(_service);
+        for (GattCharacteristicSpec characteristic : _service.characteristics) {
+            Channel channel = new Channel(characteristic, channelList.size());
+            channels.put(characteristic.uuid, channel);
+            channelList.add(channel);
+        }
+        pending.add(_service);
+    }
+
+    /**
+     * Take the next service to add, one at a time
+     * @return service to pass to addService, null while one is being added or none is left
+     */
+    @Nullable
+    synchronized GattServiceSpec next() {
+        if (adding != null) {
+            return null;
+        }
+        adding = pending.poll();
+        return adding;
+    }
+
+    /**
+     * onServiceAdded of the service being added
+     * @param _uuid service uuid
+     * @return true if it was the awaited service, the next one can be added
+     */
+    synchronized boolean onAdded(UUID _uuid) {
+        if (adding == null || !adding.uuid.equals(_uuid)) {
+            return false;
+        }
+        adding = null;
+        return true;
+    }
+
+    /**
+     * Every service is added again to the next server
+     */
+    synchronized void reset() {
+        adding = null;
+        pending.clear();
+        pending.addAll(services);
+        for (Channel channel : channelList) {
+            channel.characteristic = null;
+        }
+    }
+
+    /**
+     * @return true if no service is waiting or being added
+     */
+    synchronized boolean isComplete() {
+        return adding == null && pending.isEmpty();
+    }
+
+    @Nullable
+    synchronized Channel get(UUID _characteristic) {
+        return channels.get(_characteristic);
+    }
+
+    @Nullable
+    synchronized Channel get(int _index) {
+        return _index < 0 || _index >= channelList.size() ? null : channelList.get(_index);
+    }
+
+    synchronized List<Channel> getChannels() {
+        return new ArrayList<>(channelList);
+    }
+}
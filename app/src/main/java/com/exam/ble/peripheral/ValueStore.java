@@ -0,0 +1,128 @@
+package com.exam.ble.peripheral;
+
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Versioned value of a characteristic, read by many centrals.
+ * 값이 바뀔때마다 새 불변 snapshot 을 만들고, 읽기는 lock 없이 snapshot 에서 응답한다.
+ * 한 장치의 long read(offset > 0)는 offset 0 에서 고정한 snapshot 으로 이어서 읽으므로 중간에 값이 바뀌어도 일관된다.
+ */
+public class ValueStore {
+
+    /**
+     * Immutable value of one version
+     */
+    public static class Snapshot {
+        public final long version;
+        private final byte[] value;
+
+        Snapshot(long _version, byte[] _value) {
+            version = _version;
+            value = _value;
+        }
+
+        public int length() {
+            return value.length;
+        }
+
+        /**
+         * @param _offset read offset
+         * @return copy of the value from the offset, null if the offset is past the end
+         */
+        @Nullable
+        public byte[] read(int _offset) {
+            if (_offset < 0 || _offset > value.length) {
+                return null;
+            }
+            return Arrays.copyOfRange(value, _offset, value.length);
+        }
+    }
+
+    private final AtomicReference<Snapshot> latest;
+    // value written for one central, overrides the shared value
+    private final ConcurrentHashMap<String, Snapshot> clientValues = new ConcurrentHashMap<>();
+    // snapshot a central is reading, pinned by its read at offset 0
+    private final ConcurrentHashMap<String, Snapshot> pinned = new ConcurrentHashMap<>();
+    private final AtomicLong versions = new AtomicLong();
+
+    /**
+     * @param _initial initial value, copied
+     */
+    public ValueStore(byte[] _initial) {
+        latest = new AtomicReference<>(new Snapshot(0, _initial.clone()));
+    }
+
+    /**
+     * Set the value every central reads
+     * @param _value new value, copied
+     * @return version of the value
+     */
+    public long publish(byte[] _value) {
+        Snapshot snapshot = newSnapshot(_value);
+        // a concurrent publish with a newer version wins
+        Snapshot current;
+        do {
+            current = latest.get();
+            if (current.version > snapshot.version) {
+                break;
+            }
+        } while (!latest.compareAndSet(current, snapshot));
+        return snapshot.version;
+    }
+
+    /**
+     * Set the value one central reads
+     * @param _address central
+     * @param _value new value, copied
+     * @return version of the value
+     */
+    public long publish(String _address, byte[] _value) {
+        Snapshot snapshot = newSnapshot(_value);
+        clientValues.put(_address, snapshot);
+        return snapshot.version;
+    }
+
+    /**
+     * @param _address central
+     * @return current value of the central, its own value if newer than the shared one
+     */
+    public Snapshot get(String _address) {
+        Snapshot shared = latest.get();
+        Snapshot own = clientValues.get(_address);
+        return own != null && own.version > shared.version ? own : shared;
+    }
+
+    /**
+     * Serve a read request
+     * @param _address central
+     * @param _offset read offset, 0 starts a new read
+     * @return snapshot the read is served from
+     */
+    public Snapshot read(String _address, int _offset) {
+        if (_offset == 0) {
+            Snapshot snapshot = get(_address);
+            pinned.put(_address, snapshot);
+            return snapshot;
+        }
+        Snapshot snapshot = pinned.get(_address);
+        return snapshot != null ? snapshot : read(_address, 0);
+    }
+
+    /**
+     * Forget a disconnected central
+     * @param _address central
+     */
+    public void remove(String _address) {
+        clientValues.remove(_address);
+        pinned.remove(_address);
+    }
+
+    private Snapshot newSnapshot(byte[] _value) {
+        return new Snapshot(versions.incrementAndGet(), _value.clone());
+    }
+}
@@ -0,0 +1,11 @@
+package com.exam.ble.peripheral;
+
+/**
+ * When the GATT server answers a write request.
+ */
+public enum WriteResponseMode {
+    // respond once the value is queued, before the processing
+    IMMEDIATE,
+    // respond with the status of the WriteValidator, only accepted values are queued
+    VALIDATED
+}
@@ -0,0 +1,16 @@
+package com.exam.ble.peripheral;
+
+import android.bluetooth.BluetoothDevice;
+
+/**
+ * Quick check of a write before it is acknowledged.
+ * binder 스레드에서 호출되므로 가볍게 유지해야 한다.
+ */
+public interface WriteValidator {
+    /**
+     * @param device central that wrote the value
+     * @param value written value, fragment or control frame
+     * @return BluetoothGatt.GATT_SUCCESS to accept, otherwise the status of the response
+     */
+    int validate(BluetoothDevice device, byte[] value);
+}
@@ -0,0 +1,107 @@
+package com.exam.ble.peripheral;
+
+import android.util.Log;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single worker thread with a bounded queue for inbound writes.
+ * 쓰기 요청은 받은 순서대로 처리되고, 큐가 가득 차면 제출하는 쪽(binder 스레드)이 기다리므로
+ * 스택이 다음 쓰기를 늦게 받아 central 이 자연스럽게 느려진다.
+ * 응답은 큐에 넣은 뒤에 보내므로, 끝내 자리가 없으면 버리지 않고 혼잡 상태로 응답한다.
+ */
+public class WriteWorker {
+    private final String TAG = WriteWorker.class.getSimpleName();
+
+    private final BlockingQueue<Runnable> queue;
+    private final Thread thread;
+    private final AtomicLong rejected = new AtomicLong();
+    private volatile boolean running = true;
+
+    /**
+     * @param _name thread name
+     * @param _capacity max tasks waiting
+     */
+    public WriteWorker(String _name, int _capacity) {
+        queue = new ArrayBlockingQueue<>(_capacity);
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, _name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Queue a task, waiting for room while the queue is full
+     * @param _task task to run on the worker
+     * @param _timeout max wait in milliseconds
+     * @return false if the queue stayed full or the worker stopped
+     */
+    public boolean submit(Runnable _task, long _timeout) {
+        if (!running) {
+            return false;
+        }
+        try {
+            if (queue.offer(_task, _timeout, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        rejected.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * @return tasks waiting
+     */
+    public int getPending() {
+        return queue.size();
+    }
+
+    /**
+     * @return tasks refused because the queue was full
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * @return false once quit
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Stop after the running task, waiting tasks are dropped
+     */
+    public void quit() {
+        running = false;
+        queue.clear();
+        thread.interrupt();
+    }
+
+    private void loop() {
+        while (running) {
+            Runnable task;
+            try {
+                task = queue.take();
+            } catch (InterruptedException e) {
+                continue;
+            }
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                // one bad write must not stop the worker
+                Log.e(TAG, "Write task failed", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package com.exam.ble.protocol;
+
+import java.util.UUID;
+
+/**
+ * Allocation free view of the AD structures of an advertisement, ex) ScanRecord.getBytes().
+ * 배열을 복사하지 않고 각 AD structure 의 type, offset, length 만 기록한다.
+ * uuid 는 두 long 으로 비교하므로 ParcelUuid 나 리스트를 만들지 않는다.
+ * 다시 parse 하면 이전 결과는 지워지므로 스레드마다 하나씩 재사용한다.
+ */
+public final class AdRecord {
+
+    // AD types, Bluetooth Assigned Numbers
+    public final static int TYPE_FLAGS = 0x01;
+    public final static int TYPE_UUID16_PARTIAL = 0x02;
+    public final static int TYPE_UUID16 = 0x03;
+    public final static int TYPE_UUID32_PARTIAL = 0x04;
+    public final static int TYPE_UUID32 = 0x05;
+    public final static int TYPE_UUID128_PARTIAL = 0x06;
+    public final static int TYPE_UUID128 = 0x07;
+    public final static int TYPE_NAME_SHORT = 0x08;
+    public final static int TYPE_NAME = 0x09;
+    public final static int TYPE_TX_POWER = 0x0A;
+    public final static int TYPE_SERVICE_DATA16 = 0x16;
+    public final static int TYPE_SERVICE_DATA32 = 0x20;
+    public final static int TYPE_SERVICE_DATA128 = 0x21;
+    public final static int TYPE_MANUFACTURER_DATA = 0xFF;
+
+    // same as ScanRecord.getTxPowerLevel()
+    public final static int TX_POWER_NOT_PRESENT = Integer.MIN_VALUE;
+
+    // 0000xxxx-0000-1000-8000-00805F9B34FB
+    private final static long BASE_MSB = 0x1000L;
+    private final static long BASE_LSB = 0x800000805F9B34FBL;
+
+    private byte[] bytes;
+    private int count = 0;
+    // type, data offset and data length of each structure, grown on demand
+    private int[] types = new int[16];
+    private int[] offsets = new int[16];
+    private int[] lengths = new int[16];
+
+    /**
+     * Parse an advertisement in place, the array must not change while it is used
+     * @param _bytes advertising data and scan response
+     * @return false if a structure runs past the end, the ones before it are kept
+     */
+    public boolean parse(byte[] _bytes) {
+        bytes = _bytes;
+        count = 0;
+        if (_bytes == null) {
+            return false;
+        }
+        int i = 0;
+        while (i < _bytes.length) {
+            int length = _bytes[i] & 0xFF;
+            if (length == 0) {
+                // zero padding, the scan response may follow a padded advertising data
+                i++;
+                continue;
+            }
+            if (i + 1 + length > _bytes.length) {
+                return false;
+            }
+            if (count == types.length) {
+                grow();
+            }
+            types[count] = _bytes[i + 1] & 0xFF;
+            offsets[count] = i + 2;
+            lengths[count] = length - 1;
+            count++;
+            i += 1 + length;
+        }
+        return true;
+    }
+
+    private void grow() {
+        int size = types.length * 2;
+        int[] new_types = new int[size];
+        int[] new_offsets = new int[size];
+        int[] new_lengths = new int[size];
+        System.arraycopy(types, 0, new_types, 0, count);
+        System.arraycopy(offsets, 0, new_offsets, 0, count);
+        System.arraycopy(lengths, 0, new_lengths, 0, count);
+        types = new_types;
+        offsets = new_offsets;
+        lengths = new_lengths;
+    }
+
+    /**
+     * @return array of the last parse
+     */
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return number of AD structures
+     */
+    public int size() {
+        return count;
+    }
+
+    public int getType(int _index) {
+        return types[_index];
+    }
+
+    /**
+     * @return offset of the structure data, after the type
+     */
+    public int getOffset(int _index) {
+        return offsets[_index];
+    }
+
+    public int getLength(int _index) {
+        return lengths[_index];
+    }
+
+    /**
+     * @param _type AD type
+     * @return index of the first structure of the type, -1 if absent
+     */
+    public int find(int _type) {
+        for (int i = 0; i < count; i++) {
+            if (types[i] == _type) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return advertising flags, -1 if absent
+     */
+    public int getFlags() {
+        int index = find(TYPE_FLAGS);
+        return index < 0 || lengths[index] < 1 ? -1 : bytes[offsets[index]] & 0xFF;
+    }
+
+    /**
+     * @return TX power level in dBm, TX_POWER_NOT_PRESENT if absent
+     */
+    public int getTxPowerLevel() {
+        int index = find(TYPE_TX_POWER);
+        return index < 0 || lengths[index] < 1 ? TX_POWER_NOT_PRESENT : bytes[offsets[index]];
+    }
+
+    public boolean hasServiceUuid(UUID _uuid) {
+        return hasServiceUuid(_uuid.getMostSignificantBits(), _uuid.getLeastSignificantBits());
+    }
+
+    /**
+     * Look for a uuid in the complete and partial service uuid lists
+     * @param _msb most significant bits of the uuid
+     * @param _lsb least significant bits of the uuid
+     * @return true if the uuid is advertised
+     */
+    public boolean hasServiceUuid(long _msb, long _lsb) {
+        return hasServiceUuid(_msb, _lsb, -1L, -1L);
+    }
+
+    /**
+     * Look for a masked uuid in the complete and partial service uuid lists
+     * @param _mask_msb bits of the most significant bits to compare
+     * @param _mask_lsb bits of the least significant bits to compare
+     * @return true if an advertised uuid matches the masked bits
+     */
+    public boolean hasServiceUuid(long _msb, long _lsb, long _mask_msb, long _mask_lsb) {
+        for (int i = 0; i < count; i++) {
+            int size = uuidSize(types[i]);
+            if (size == 0) {
+                continue;
+            }
+            int end = offsets[i] + lengths[i] - size;
+            for (int offset = offsets[i]; offset <= end; offset += size) {
+                if (uuidMatches(offset, size, _msb, _lsb, _mask_msb, _mask_lsb)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public int findServiceData(UUID _uuid) {
+        return findServiceData(_uuid.getMostSignificantBits(), _uuid.getLeastSignificantBits());
+    }
+
+    /**
+     * @param _msb most significant bits of the service uuid
+     * @param _lsb least significant bits of the service uuid
+     * @return index of the service data, -1 if absent. getDataOffset and getDataLength give the data
+     */
+    public int findServiceData(long _msb, long _lsb) {
+        for (int i = 0; i < count; i++) {
+            int size = serviceDataUuidSize(types[i]);
+            if (size > 0 && lengths[i] >= size && uuidMatches(offsets[i], size, _msb, _lsb, -1L, -1L)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param _manufacturer_id company identifier
+     * @return index of the manufacturer data, -1 if absent. getDataOffset and getDataLength give the data
+     */
+    public int findManufacturerData(int _manufacturer_id) {
+        for (int i = 0; i < count; i++) {
+            if (types[i] == TYPE_MANUFACTURER_DATA && lengths[i] >= 2
+                    && ((bytes[offsets[i]] & 0xFF) | (bytes[offsets[i] + 1] & 0xFF) << 8) == _manufacturer_id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return offset of the data after the uuid of a service data or the company id of a manufacturer data
+     */
+    public int getDataOffset(int _index) {
+        return offsets[_index] + headerSize(types[_index]);
+    }
+
+    public int getDataLength(int _index) {
+        return lengths[_index] - headerSize(types[_index]);
+    }
+
+    /**
+     * Compare a data prefix in place
+     * @param _index index of a service data or manufacturer data
+     * @param _data expected prefix
+     * @param _mask bits to compare, null for every bit
+     * @return true if the data starts with the masked prefix
+     */
+    public boolean dataStartsWith(int _index, byte[] _data, byte[] _mask) {
+        if (getDataLength(_index) < _data.length) {
+            return false;
+        }
+        int offset = getDataOffset(_index);
+        for (int i = 0; i < _data.length; i++) {
+            int m = _mask == null ? 0xFF : _mask[i];
+            if (((bytes[offset + i] ^ _data[i]) & m) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean uuidMatches(int _offset, int _size, long _msb, long _lsb, long _mask_msb, long _mask_lsb) {
+        long msb;
+        long lsb;
+        if (_size == 16) {
+            lsb = readLong(_offset);
+            msb = readLong(_offset + 8);
+        } else {
+            long value = 0;
+            for (int i = _size - 1; i >= 0; i--) {
+                value = value << 8 | (bytes[_offset + i] & 0xFF);
+            }
+            msb = value << 32 | BASE_MSB;
+            lsb = BASE_LSB;
+        }
+        return ((msb ^ _msb) & _mask_msb) == 0 && ((lsb ^ _lsb) & _mask_lsb) == 0;
+    }
+
+    /**
+     * @return little endian long at the offset
+     */
+    private long readLong(int _offset) {
+        long value = 0;
+        for (int i = 7; i >= 0; i--) {
+            value = value << 8 | (bytes[_offset + i] & 0xFF);
+        }
+        return value;
+    }
+
+    private static int uuidSize(int _type) {
+        switch (_type) {
+            case TYPE_UUID16_PARTIAL:
+            case TYPE_UUID16:
+                return 2;
+            case TYPE_UUID32_PARTIAL:
+            case TYPE_UUID32:
+                return 4;
+            case TYPE_UUID128_PARTIAL:
+            case TYPE_UUID128:
+                return 16;
+            default:
+                return 0;
+        }
+    }
+
+    private static int serviceDataUuidSize(int _type) {
+        switch (_type) {
+            case TYPE_SERVICE_DATA16:
+                return 2;
+            case TYPE_SERVICE_DATA32:
+                return 4;
+            case TYPE_SERVICE_DATA128:
+                return 16;
+            default:
+                return 0;
+        }
+    }
+
+    private static int headerSize(int _type) {
+        return _type == TYPE_MANUFACTURER_DATA ? 2 : serviceDataUuidSize(_type);
+    }
+}
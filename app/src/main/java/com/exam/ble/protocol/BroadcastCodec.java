@@ -0,0 +1,112 @@
+package com.exam.ble.protocol;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Connectionless messages in the advertised service data of SERVICE_UUID.
+ *
+ * Service data layout
+ * [0] sequence number, wraps at 256, then the payload bytes.
+ *
+ * 레거시 scan response 31 bytes 에서 길이, 타입, 128-bit UUID 18 bytes 를 빼면 13 bytes 가 남는다.
+ * 같은 광고는 여러번 수신되므로, 받는 쪽은 장치마다 마지막 sequence 와 같으면 버린다.
+ */
+public final class BroadcastCodec {
+
+    public final static int HEADER_SIZE = 1;
+    // service data of a 128-bit uuid that fits a legacy advertising packet
+    public final static int MAX_SERVICE_DATA_SIZE = 13;
+    public final static int MAX_PAYLOAD_SIZE = MAX_SERVICE_DATA_SIZE - HEADER_SIZE;
+
+    private BroadcastCodec() {
+    }
+
+    /**
+     * @param _sequence sequence number, wraps at 256
+     * @param _payload payload up to MAX_PAYLOAD_SIZE
+     * @return service data
+     */
+    public static byte[] encode(int _sequence, byte[] _payload) {
+        if (_payload.length > MAX_PAYLOAD_SIZE) {
+            throw new IllegalArgumentException("payload too large: " + _payload.length);
+        }
+        byte[] data = new byte[HEADER_SIZE + _payload.length];
+        data[0] = (byte) _sequence;
+        System.arraycopy(_payload, 0, data, HEADER_SIZE, _payload.length);
+        return data;
+    }
+
+    /**
+     * @param _data service data
+     * @return sequence number 0..255, -1 if the data is not a broadcast
+     */
+    public static int sequence(byte[] _data) {
+        if (_data == null || _data.length < HEADER_SIZE) {
+            return -1;
+        }
+        return _data[0] & 0xFF;
+    }
+
+    /**
+     * @param _bytes array of the service data, ex) AdRecord.getBytes()
+     * @param _offset offset of the service data
+     * @param _length length of the service data
+     * @return sequence number 0..255, -1 if the data is not a broadcast
+     */
+    public static int sequence(byte[] _bytes, int _offset, int _length) {
+        return _length < HEADER_SIZE ? -1 : _bytes[_offset] & 0xFF;
+    }
+
+    /**
+     * @param _data service data with a valid sequence
+     * @return copy of the payload
+     */
+    public static byte[] payload(byte[] _data) {
+        return payload(_data, 0, _data.length);
+    }
+
+    /**
+     * @param _bytes array of the service data with a valid sequence
+     * @param _offset offset of the service data
+     * @param _length length of the service data
+     * @return copy of the payload
+     */
+    public static byte[] payload(byte[] _bytes, int _offset, int _length) {
+        return Arrays.copyOfRange(_bytes, _offset + HEADER_SIZE, _offset + _length);
+    }
+
+    /**
+     * Drops the repeated advertisements of a message, per source
+     */
+    public static class SequenceFilter {
+        private final LinkedHashMap<String, Integer> last;
+
+        /**
+         * @param _max_sources sources remembered, the least recently heard is forgotten first
+         */
+        public SequenceFilter(final int _max_sources) {
+            last = new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Integer> _eldest) {
+                    return size() > _max_sources;
+                }
+            };
+        }
+
+        /**
+         * @param _source device address
+         * @param _sequence sequence of the received message
+         * @return true if it is a new message of the source
+         */
+        public synchronized boolean accept(String _source, int _sequence) {
+            Integer previous = last.put(_source, _sequence);
+            return previous == null || previous != _sequence;
+        }
+
+        public synchronized void clear() {
+            last.clear();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.exam.ble.protocol;
+
+import java.util.ArrayDeque;
+
+/**
+ * Pool of byte arrays in power of two size classes.
+ * 조각을 재조립할때 메세지마다 새 배열을 만들지 않도록 버퍼를 재사용한다.
+ */
+public class BufferPool {
+
+    // smallest buffer size, 2^6
+    private final static int MIN_SHIFT = 6;
+
+    private final int maxBufferSize;
+    private final int maxPerClass;
+    private final ArrayDeque<byte[]>[] classes;
+    // number of arrays created by this pool
+    private int allocated = 0;
+
+    /**
+     * @param _max_buffer_size largest buffer handed out
+     * @param _max_per_class free buffers kept per size class
+     */
+    @SuppressWarnings("unchecked")
+    public BufferPool(int _max_buffer_size, int _max_per_class) {
+        maxBufferSize = _max_buffer_size;
+        maxPerClass = _max_per_class;
+        classes = new ArrayDeque[classIndex(_max_buffer_size) + 1];
+        for (int i = 0; i < classes.length; i++) {
+            classes[i] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * Get a buffer of at least the given size
+     * @param _size minimum size
+     * @return pooled or new buffer, its length may be larger than size
+     */
+    public synchronized byte[] acquire(int _size) {
+        if (_size > maxBufferSize) {
+            throw new IllegalArgumentException("buffer too large: " + _size);
+        }
+        int index = classIndex(_size);
+        byte[] buffer = classes[index].poll();
+        if (buffer == null) {
+            allocated++;
+            buffer = new byte[1 << (index + MIN_SHIFT)];
+        }
+        return buffer;
+    }
+
+    /**
+     * Give the buffer back to the pool
+     * @param _buffer buffer from acquire()
+     */
+    public synchronized void release(byte[] _buffer) {
+        if (_buffer == null) {
+            return;
+        }
+        int index = classIndex(_buffer.length);
+        if (index >= classes.length || (1 << (index + MIN_SHIFT)) != _buffer.length) {
+            // not one of ours
+            return;
+        }
+        if (classes[index].size() < maxPerClass) {
+            classes[index].push(_buffer);
+        }
+    }
+
+    /**
+     * @return number of arrays created so far
+     */
+    public synchronized int getAllocatedCount() {
+        return allocated;
+    }
+
+    private static int classIndex(int _size) {
+        if (_size <= (1 << MIN_SHIFT)) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(_size - 1) - MIN_SHIFT;
+    }
+}
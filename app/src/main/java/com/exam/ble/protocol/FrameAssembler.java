@@ -0,0 +1,142 @@
+package com.exam.ble.protocol;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reassembly of fragments made by {@link FrameCodec}.
+ * 송신측(주소)마다 진행중인 메세지를 하나씩 유지하고 버퍼는 BufferPool 에서 빌려온다.
+ */
+public class FrameAssembler {
+
+    public final static int RESULT_INCOMPLETE = 0;
+    public final static int RESULT_COMPLETE = 1;
+    public final static int RESULT_ERROR = 2;
+    // fragment is not a data fragment
+    public final static int RESULT_IGNORED = 3;
+
+    /**
+     * Reassembled message listener
+     */
+    public interface MessageListener {
+        /**
+         * @param _source sender of the message
+         * @param _message_id id of the message
+         * @param _buffer pooled buffer, only valid during this call
+         * @param _length payload length
+         */
+        void onMessage(String _source, int _message_id, byte[] _buffer, int _length);
+    }
+
+    /**
+     * Message being reassembled
+     */
+    private static class Partial {
+        int messageId;
+        int nextSeq;
+        byte[] buffer;
+        int length;
+        int filled;
+    }
+
+    private final BufferPool pool;
+    private final MessageListener listener;
+    private final Map<String, Partial> partials = new HashMap<>();
+
+    public FrameAssembler(BufferPool _pool, MessageListener _listener) {
+        pool = _pool;
+        listener = _listener;
+    }
+
+    /**
+     * Add a received fragment
+     * @param _source sender, ex) device address
+     * @param _fragment received bytes
+     * @return RESULT_*
+     */
+    public synchronized int onFragment(String _source, byte[] _fragment) {
+        if (_fragment == null || _fragment.length < FrameCodec.HEADER_SIZE) {
+            return RESULT_ERROR;
+        }
+        if (FrameCodec.type(_fragment) != FrameCodec.TYPE_DATA) {
+            return RESULT_IGNORED;
+        }
+
+        Partial partial = partials.get(_source);
+        if (partial == null) {
+            partial = new Partial();
+            partials.put(_source, partial);
+        }
+
+        int seq = FrameCodec.sequence(_fragment);
+        int header = FrameCodec.HEADER_SIZE;
+        if (FrameCodec.isFirst(_fragment)) {
+            if (_fragment.length < FrameCodec.FIRST_HEADER_SIZE || seq != 0) {
+                drop(partial);
+                return RESULT_ERROR;
+            }
+            int length = FrameCodec.readInt(_fragment, FrameCodec.HEADER_SIZE);
+            if (length < 0 || length > FrameCodec.MAX_PAYLOAD_SIZE) {
+                drop(partial);
+                return RESULT_ERROR;
+            }
+            // a new message replaces an unfinished one
+            drop(partial);
+            partial.messageId = FrameCodec.messageId(_fragment);
+            partial.buffer = pool.acquire(Math.max(length, 1));
+            partial.length = length;
+            partial.filled = 0;
+            partial.nextSeq = 0;
+            header = FrameCodec.FIRST_HEADER_SIZE;
+        } else if (partial.buffer == null
+                || partial.messageId != FrameCodec.messageId(_fragment)
+                || partial.nextSeq != seq) {
+            // lost or out of order fragment
+            drop(partial);
+            return RESULT_ERROR;
+        }
+
+        int chunk = _fragment.length - header;
+        if (partial.filled + chunk > partial.length) {
+            drop(partial);
+            return RESULT_ERROR;
+        }
+        System.arraycopy(_fragment, header, partial.buffer, partial.filled, chunk);
+        partial.filled += chunk;
+        partial.nextSeq++;
+
+        if (!FrameCodec.isLast(_fragment)) {
+            return RESULT_INCOMPLETE;
+        }
+        if (partial.filled != partial.length) {
+            drop(partial);
+            return RESULT_ERROR;
+        }
+
+        try {
+            listener.onMessage(_source, partial.messageId, partial.buffer, partial.length);
+        } finally {
+            drop(partial);
+        }
+        return RESULT_COMPLETE;
+    }
+
+    /**
+     * Forget the unfinished message of the source, ex) on disconnect
+     * @param _source sender
+     */
+    public synchronized void reset(String _source) {
+        Partial partial = partials.remove(_source);
+        if (partial != null) {
+            drop(partial);
+        }
+    }
+
+    private void drop(Partial _partial) {
+        pool.release(_partial.buffer);
+        _partial.buffer = null;
+        _partial.length = 0;
+        _partial.filled = 0;
+        _partial.nextSeq = 0;
+    }
+}
@@ -0,0 +1,184 @@
+package com.exam.ble.protocol;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.exam.ble.Constants.ATT_HEADER_SIZE;
+import static com.exam.ble.Constants.MAX_ATTRIBUTE_SIZE;
+
+/**
+ * Fragmentation of payloads over the CB660004 characteristic.
+ *
+ * Fragment layout
+ * [0] type and flags, [1] message id, [2..3] sequence number (big endian),
+ * first fragment only : [4..7] total payload length (big endian),
+ * then the payload bytes.
+ *
+ * Control frames of the credit stream
+ * [0] type, [1..2] value (big endian), credits for CREDIT and message id for ACK / NACK.
+ */
+public final class FrameCodec {
+
+    public final static int TYPE_DATA = 0x00;
+    public final static int TYPE_CREDIT = 0x10;
+    public final static int TYPE_ACK = 0x20;
+    public final static int TYPE_NACK = 0x30;
+    public final static int TYPE_MASK = 0xF0;
+
+    public final static int FLAG_FIRST = 0x01;
+    public final static int FLAG_LAST = 0x02;
+    // fragment of a credit stream, consumes one credit
+    public final static int FLAG_STREAM = 0x04;
+
+    public final static int HEADER_SIZE = 4;
+    public final static int CONTROL_SIZE = 3;
+    public final static int FIRST_HEADER_SIZE = HEADER_SIZE + 4;
+
+    // largest payload accepted by the assembler
+    public final static int MAX_PAYLOAD_SIZE = 64 * 1024;
+    // fragments of one message, the sequence number is 16 bits
+    public final static int MAX_FRAGMENT_COUNT = 0x10000;
+
+    private FrameCodec() {
+    }
+
+    /**
+     * Split the payload into fragments
+     * @param _message_id id of the message, wraps at 256
+     * @param _payload payload to send
+     * @param _fragment_size max bytes of one write or notification
+     * @return fragments in sending order
+     */
+    public static List<byte[]> encode(int _message_id, byte[] _payload, int _fragment_size) {
+        return encode(_message_id, _payload, _fragment_size, false);
+    }
+
+    /**
+     * Split the payload into fragments
+     * @param _message_id id of the message, wraps at 256
+     * @param _payload payload to send
+     * @param _fragment_size max bytes of one write or notification
+     * @param _stream true for fragments of the credit stream
+     * @return fragments in sending order
+     */
+    public static List<byte[]> encode(int _message_id, byte[] _payload, int _fragment_size, boolean _stream) {
+        if (_fragment_size <= FIRST_HEADER_SIZE) {
+            throw new IllegalArgumentException("fragment size too small: " + _fragment_size);
+        }
+        if (_payload.length > MAX_PAYLOAD_SIZE) {
+            throw new IllegalArgumentException("payload too large: " + _payload.length);
+        }
+        int count = fragmentCount(_payload.length, _fragment_size);
+        if (count > MAX_FRAGMENT_COUNT) {
+            throw new IllegalArgumentException("too many fragments: " + count);
+        }
+
+        List<byte[]> fragments = new ArrayList<>(count);
+        int offset = 0;
+        int seq = 0;
+        do {
+            boolean first = seq == 0;
+            int header = first ? FIRST_HEADER_SIZE : HEADER_SIZE;
+            int chunk = Math.min(_payload.length - offset, _fragment_size - header);
+            boolean last = offset + chunk == _payload.length;
+
+            byte[] fragment = new byte[header + chunk];
+            fragment[0] = (byte) (TYPE_DATA | (first ? FLAG_FIRST : 0) | (last ? FLAG_LAST : 0) | (_stream ? FLAG_STREAM : 0));
+            fragment[1] = (byte) _message_id;
+            fragment[2] = (byte) (seq >> 8);
+            fragment[3] = (byte) seq;
+            if (first) {
+                writeInt(fragment, HEADER_SIZE, _payload.length);
+            }
+            System.arraycopy(_payload, offset, fragment, header, chunk);
+            fragments.add(fragment);
+
+            offset += chunk;
+            seq++;
+        } while (offset < _payload.length);
+
+        return fragments;
+    }
+
+    /**
+     * @param _mtu negotiated ATT MTU
+     * @return max bytes of one write or notification, never over the 512 byte attribute limit
+     */
+    public static int fragmentSize(int _mtu) {
+        return Math.min(_mtu - ATT_HEADER_SIZE, MAX_ATTRIBUTE_SIZE);
+    }
+
+    /**
+     * @param _payload_length payload size
+     * @param _fragment_size max bytes of one fragment
+     * @return number of fragments needed for the payload
+     */
+    public static int fragmentCount(int _payload_length, int _fragment_size) {
+        int first = _fragment_size - FIRST_HEADER_SIZE;
+        if (_payload_length <= first) {
+            return 1;
+        }
+        int rest = _fragment_size - HEADER_SIZE;
+        return 1 + (_payload_length - first + rest - 1) / rest;
+    }
+
+    /**
+     * Make a control frame
+     * @param _type TYPE_CREDIT, TYPE_ACK or TYPE_NACK
+     * @param _value credits or message id
+     * @return frame bytes
+     */
+    public static byte[] encodeControl(int _type, int _value) {
+        return new byte[]{(byte) _type, (byte) (_value >> 8), (byte) _value};
+    }
+
+    /**
+     * @param _frame received frame
+     * @return value of a control frame
+     */
+    public static int controlValue(byte[] _frame) {
+        return ((_frame[1] & 0xFF) << 8) | (_frame[2] & 0xFF);
+    }
+
+    /**
+     * @param _frame received frame
+     * @return TYPE_* of the frame
+     */
+    public static int type(byte[] _frame) {
+        return _frame[0] & TYPE_MASK;
+    }
+
+    public static boolean isStream(byte[] _fragment) {
+        return (_fragment[0] & FLAG_STREAM) != 0;
+    }
+
+    static boolean isFirst(byte[] _fragment) {
+        return (_fragment[0] & FLAG_FIRST) != 0;
+    }
+
+    static boolean isLast(byte[] _fragment) {
+        return (_fragment[0] & FLAG_LAST) != 0;
+    }
+
+    public static int messageId(byte[] _fragment) {
+        return _fragment[1] & 0xFF;
+    }
+
+    static int sequence(byte[] _fragment) {
+        return ((_fragment[2] & 0xFF) << 8) | (_fragment[3] & 0xFF);
+    }
+
+    static void writeInt(byte[] _buffer, int _offset, int _value) {
+        _buffer[_offset] = (byte) (_value >> 24);
+        _buffer[_offset + 1] = (byte) (_value >> 16);
+        _buffer[_offset + 2] = (byte) (_value >> 8);
+        _buffer[_offset + 3] = (byte) _value;
+    }
+
+    static int readInt(byte[] _buffer, int _offset) {
+        return ((_buffer[_offset] & 0xFF) << 24)
+                | ((_buffer[_offset + 1] & 0xFF) << 16)
+                | ((_buffer[_offset + 2] & 0xFF) << 8)
+                | (_buffer[_offset + 3] & 0xFF);
+    }
+}
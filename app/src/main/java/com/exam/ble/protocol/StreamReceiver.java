@@ -0,0 +1,104 @@
+package com.exam.ble.protocol;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Receiving side of the credit stream.
+ * 받은 조각만큼 credit 을 돌려주고, 메세지마다 ACK 또는 NACK 을 보낸다.
+ * ACK 를 잃어버려 다시 온 메세지는 ACK 만 다시 보내고 한번만 전달한다.
+ */
+public class StreamReceiver {
+
+    /**
+     * Transport of control frames back to the sender, ex) notification
+     */
+    public interface ControlWriter {
+        void write(String _source, byte[] _frame);
+    }
+
+    /**
+     * Stream state of one sender
+     */
+    private static class State {
+        int consumed;
+        int nackedId = -1;
+        // ids delivered within the last StreamSender.MAX_UNACKED ids
+        final boolean[] delivered = new boolean[256];
+
+        /**
+         * @param _id completed message id
+         * @return false if the message was already delivered
+         */
+        boolean markDelivered(int _id) {
+            if (delivered[_id]) {
+                return false;
+            }
+            delivered[_id] = true;
+            // ids ahead are new messages once the sender wraps
+            for (int i = 1; i <= StreamSender.MAX_UNACKED; i++) {
+                delivered[(_id + i) & 0xFF] = false;
+            }
+            return true;
+        }
+    }
+
+    private final int window;
+    private final FrameAssembler assembler;
+    private final ControlWriter writer;
+    private final Map<String, State> states = new HashMap<>();
+
+    public StreamReceiver(int _window, BufferPool _pool, final FrameAssembler.MessageListener _listener, ControlWriter _writer) {
+        window = _window;
+        assembler = new FrameAssembler(_pool, new FrameAssembler.MessageListener() {
+            @Override
+            public void onMessage(String _source, int _message_id, byte[] _buffer, int _length) {
+                // called from onFragment, the state exists
+                if (states.get(_source).markDelivered(_message_id)) {
+                    _listener.onMessage(_source, _message_id, _buffer, _length);
+                }
+            }
+        });
+        writer = _writer;
+    }
+
+    /**
+     * Add a fragment with FrameCodec.FLAG_STREAM
+     * @param _source sender
+     * @param _fragment received bytes
+     */
+    public synchronized void onFragment(String _source, byte[] _fragment) {
+        State state = states.get(_source);
+        if (state == null) {
+            state = new State();
+            states.put(_source, state);
+        }
+
+        int result = assembler.onFragment(_source, _fragment);
+        int id = _fragment.length >= FrameCodec.HEADER_SIZE ? FrameCodec.messageId(_fragment) : -1;
+        if (result == FrameAssembler.RESULT_COMPLETE) {
+            state.nackedId = -1;
+            writer.write(_source, FrameCodec.encodeControl(FrameCodec.TYPE_ACK, id));
+        } else if (result == FrameAssembler.RESULT_ERROR && id >= 0 && id != state.nackedId) {
+            // one NACK per broken message, the rest of its fragments are dropped quietly
+            state.nackedId = id;
+            writer.write(_source, FrameCodec.encodeControl(FrameCodec.TYPE_NACK, id));
+        }
+
+        // give the buffer space back in batches
+        state.consumed++;
+        if (state.consumed >= Math.max(window / 2, 1)) {
+            writer.write(_source, FrameCodec.encodeControl(FrameCodec.TYPE_CREDIT, state.consumed));
+            state.consumed = 0;
+        }
+    }
+
+    /**
+     * Forget the sender, used when it disconnects
+     * @param _source sender
+     */
+    public synchronized void reset(String _source) {
+        states.remove(_source);
+        assembler.reset(_source);
+    }
+}
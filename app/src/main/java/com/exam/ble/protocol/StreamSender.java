@@ -0,0 +1,261 @@
+package com.exam.ble.protocol;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Sending side of the credit stream.
+ * 상대가 허락한 credit 만큼만 조각을 보내므로 응답없는 쓰기를 연속으로 보내도 스택 버퍼가 넘치지 않는다.
+ * 메세지는 ACK 를 받을때까지 보관하고 NACK 을 받으면 다시 보낸다.
+ * ACK_TIMEOUT 동안 상대의 응답이 없으면 credit 을 되돌리고 가장 오래된 메세지를 다시 보낸다.
+ */
+public class StreamSender {
+
+    // credits both sides assume when a connection starts
+    public final static int DEFAULT_WINDOW = 8;
+    // resends of one message before it is given up
+    public final static int MAX_RETRANSMITS = 3;
+    // time without a control frame before the credits are reset and the oldest message is resent, in milliseconds
+    public final static long ACK_TIMEOUT = 1000;
+    // message ids waiting for their ACK, half the 8 bit id space so the receiver can tell a resend from a new message
+    public final static int MAX_UNACKED = 128;
+
+    /**
+     * Transport of the fragments, ex) write without response
+     */
+    public interface FragmentWriter {
+        void write(byte[] _fragment);
+    }
+
+    /**
+     * Delivery result listener
+     */
+    public interface DeliveryListener {
+        void onDelivered(int _message_id, int _length);
+
+        void onFailed(int _message_id);
+    }
+
+    /**
+     * Message waiting for its ACK
+     */
+    private static class Message {
+        final int id;
+        final byte[] payload;
+        final int fragmentSize;
+        int retransmits;
+
+        Message(int _id, byte[] _payload, int _fragment_size) {
+            id = _id;
+            payload = _payload;
+            fragmentSize = _fragment_size;
+        }
+    }
+
+    private final FragmentWriter writer;
+    private final DeliveryListener listener;
+    private final ArrayDeque<byte[]> outbox = new ArrayDeque<>();
+    // oldest first
+    private final LinkedHashMap<Integer, Message> unacked = new LinkedHashMap<>();
+    private int window;
+    private int credits;
+    private int nextId = 0;
+    // last control frame, or the start of the wait for one
+    private long lastControlNanos = 0;
+
+    // delivered bytes and the time the stream started, for the throughput
+    private long deliveredBytes = 0;
+    private long startNanos = 0;
+    private long lastDeliveryNanos = 0;
+
+    public StreamSender(int _window, FragmentWriter _writer, DeliveryListener _listener) {
+        window = _window;
+        credits = _window;
+        writer = _writer;
+        listener = _listener;
+    }
+
+    /**
+     * Queue a payload on the stream
+     * @param _payload data up to FrameCodec.MAX_PAYLOAD_SIZE
+     * @param _fragment_size max bytes of one write
+     * @return message id, -1 if MAX_UNACKED message ids are waiting for their ACK
+     */
+    public synchronized int send(byte[] _payload, int _fragment_size) {
+        if (!unacked.isEmpty() && ((nextId - unacked.keySet().iterator().next()) & 0xFF) >= MAX_UNACKED) {
+            return -1;
+        }
+        int id = nextId;
+        nextId = (nextId + 1) & 0xFF;
+        long now = System.nanoTime();
+        if (startNanos == 0) {
+            startNanos = now;
+        }
+        if (unacked.isEmpty()) {
+            lastControlNanos = now;
+        }
+        Message message = new Message(id, _payload, _fragment_size);
+        unacked.put(id, message);
+        outbox.addAll(FrameCodec.encode(id, _payload, _fragment_size, true));
+        pump();
+        return id;
+    }
+
+    /**
+     * Handle a control frame from the receiver
+     * @param _frame CREDIT, ACK or NACK frame
+     * @return false if the frame is not a stream control frame
+     */
+    public synchronized boolean onControl(byte[] _frame) {
+        if (_frame == null || _frame.length < FrameCodec.CONTROL_SIZE) {
+            return false;
+        }
+        int value = FrameCodec.controlValue(_frame);
+        lastControlNanos = System.nanoTime();
+        switch (FrameCodec.type(_frame)) {
+            case FrameCodec.TYPE_CREDIT:
+                credits = Math.min(credits + value, window);
+                pump();
+                return true;
+            case FrameCodec.TYPE_ACK: {
+                Message message = unacked.remove(value);
+                if (message != null) {
+                    deliveredBytes += message.payload.length;
+                    lastDeliveryNanos = System.nanoTime();
+                    listener.onDelivered(message.id, message.payload.length);
+                }
+                return true;
+            }
+            case FrameCodec.TYPE_NACK: {
+                Message message = unacked.get(value);
+                if (message != null) {
+                    retransmit(message);
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A fragment was not written, ex) the GATT queue timed out or the stack stayed busy.
+     * 상대는 이 조각을 받지 못했으므로 credit 을 돌려받고 메세지를 다시 보낸다.
+     * @param _fragment fragment given to the FragmentWriter
+     */
+    public synchronized void onWriteFailed(byte[] _fragment) {
+        credits = Math.min(credits + 1, window);
+        Message message = unacked.get(FrameCodec.messageId(_fragment));
+        // a message already queued again by an earlier failure is not resent twice
+        if (message != null && !isQueued(message.id)) {
+            retransmit(message);
+        } else {
+            pump();
+        }
+    }
+
+    /**
+     * Check the ACK timeout, called periodically while messages are pending
+     * @return true while messages wait for their ACK
+     */
+    public boolean onTick() {
+        return onTick(System.nanoTime());
+    }
+
+    synchronized boolean onTick(long _now) {
+        if (unacked.isEmpty()) {
+            return false;
+        }
+        if (_now - lastControlNanos < ACK_TIMEOUT * 1000000L) {
+            return true;
+        }
+        // credits or the ACK were lost, the receiver has drained everything sent by now
+        lastControlNanos = _now;
+        credits = window;
+        Message oldest = unacked.values().iterator().next();
+        if (isQueued(oldest.id)) {
+            pump();
+        } else {
+            retransmit(oldest);
+        }
+        return !unacked.isEmpty();
+    }
+
+    /**
+     * Forget everything, used when the connection is lost
+     */
+    public synchronized void reset() {
+        outbox.clear();
+        for (Message message : unacked.values()) {
+            listener.onFailed(message.id);
+        }
+        unacked.clear();
+        credits = window;
+        deliveredBytes = 0;
+        startNanos = 0;
+        lastDeliveryNanos = 0;
+    }
+
+    /**
+     * @return sustained delivered bytes per second since the stream started
+     */
+    public synchronized long getBytesPerSecond() {
+        long elapsed = lastDeliveryNanos - startNanos;
+        if (elapsed <= 0) {
+            return 0;
+        }
+        return deliveredBytes * 1000000000L / elapsed;
+    }
+
+    public synchronized int getCredits() {
+        return credits;
+    }
+
+    /**
+     * @return messages not acknowledged yet
+     */
+    public synchronized int getPendingCount() {
+        return unacked.size();
+    }
+
+    /**
+     * @param _id message id
+     * @return true if the first fragment of the message waits in the outbox
+     */
+    private boolean isQueued(int _id) {
+        for (byte[] fragment : outbox) {
+            if (FrameCodec.messageId(fragment) == _id && FrameCodec.isFirst(fragment)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void retransmit(Message _message) {
+        if (_message.retransmits >= MAX_RETRANSMITS) {
+            unacked.remove(_message.id);
+            listener.onFailed(_message.id);
+            return;
+        }
+        _message.retransmits++;
+
+        // drop fragments of the message not sent yet, the whole message is sent again
+        Iterator<byte[]> iterator = outbox.iterator();
+        while (iterator.hasNext()) {
+            if (FrameCodec.messageId(iterator.next()) == _message.id) {
+                iterator.remove();
+            }
+        }
+        List<byte[]> fragments = FrameCodec.encode(_message.id, _message.payload, _message.fragmentSize, true);
+        outbox.addAll(fragments);
+        pump();
+    }
+
+    private void pump() {
+        while (credits > 0 && !outbox.isEmpty()) {
+            credits--;
+            writer.write(outbox.poll());
+        }
+    }
+}
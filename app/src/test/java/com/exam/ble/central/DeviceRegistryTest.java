@@ -0,0 +1,86 @@
+package com.exam.ble.central;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * RSSI smoothing, eviction and closest device queries.
+ */
+public class DeviceRegistryTest {
+
+    @Test
+    public void update_smoothsRssiInPlace() {
+        DeviceRegistry registry = new DeviceRegistry(8, 10000, 0.5f);
+        registry.update("A", null, -80, 0);
+        registry.update("A", null, -60, 100);
+        registry.update("A", null, -60, 200);
+
+        DeviceRegistry.Entry entry = registry.get("A");
+        assertEquals(-65f, entry.rssi, 0.001f);
+        assertEquals(-60, entry.lastRssi);
+        assertEquals(3, entry.adCount);
+        assertEquals(0, entry.firstSeen);
+        assertEquals(200, entry.lastSeen);
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    public void evict_byTtlAndLru() {
+        DeviceRegistry registry = new DeviceRegistry(3, 1000, 0.25f);
+        registry.update("A", null, -50, 0);
+        registry.update("B", null, -50, 0);
+        registry.update("C", null, -50, 500);
+        // A seen again, B is now the least recently seen
+        registry.update("A", null, -50, 600);
+        registry.update("D", null, -50, 700);
+        assertEquals(3, registry.size());
+        assertNull(registry.get("B"));
+        assertFalse(registry.contains("B"));
+        assertTrue(registry.contains("A"));
+
+        assertEquals(2, registry.evictStale(1650));
+        assertNotNull(registry.get("D"));
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    public void get_keepsEvictionOrder() {
+        DeviceRegistry registry = new DeviceRegistry(2, 1000, 0.25f);
+        registry.update("A", null, -50, 0);
+        registry.update("B", null, -50, 100);
+        // reading A does not make it recently seen
+        assertNotNull(registry.get("A"));
+        registry.update("C", null, -50, 200);
+        assertNull(registry.get("A"));
+        assertEquals("B", registry.snapshot().get(0).address);
+    }
+
+    @Test
+    public void top_returnsStrongestFirst() {
+        DeviceRegistry registry = new DeviceRegistry(64, 1000, 1f);
+        for (int i = 0; i < 50; i++) {
+            registry.update("dev" + i, null, -100 + (i * 37) % 50, 0);
+        }
+        // stale even though strong
+        registry.update("old", null, -10, -5000);
+
+        List<DeviceRegistry.Entry> top = registry.top(3, 100);
+        assertEquals(3, top.size());
+        assertEquals(-51f, top.get(0).rssi, 0.001f);
+        assertEquals(-52f, top.get(1).rssi, 0.001f);
+        assertEquals(-53f, top.get(2).rssi, 0.001f);
+        assertTrue(registry.top(0, 100).isEmpty());
+    }
+
+    @Test
+    public void memory_staysBounded() {
+        DeviceRegistry registry = new DeviceRegistry(256, 30000, 0.25f);
+        for (int i = 0; i < 100000; i++) {
+            registry.update("dev" + i, null, -70, i);
+        }
+        assertEquals(256, registry.size());
+    }
+}
@@ -0,0 +1,141 @@
+package com.exam.ble.central;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Completion, listeners and chaining of GATT results.
+ */
+public class GattFutureTest {
+
+    @Test
+    public void complete_onlyOnce() {
+        final List<String> results = new ArrayList<>();
+        GattFuture<String> future = new GattFuture<>();
+        future.addListener(new GattFuture.Listener<String>() {
+            @Override
+            public void onComplete(GattFuture<String> _future) {
+                results.add("first " + _future.getValue());
+            }
+        });
+        assertFalse(future.isDone());
+        assertTrue(future.complete("a"));
+        assertFalse(future.fail(133));
+        assertFalse(future.cancel());
+
+        // a late listener is called right away
+        future.addListener(new GattFuture.Listener<String>() {
+            @Override
+            public void onComplete(GattFuture<String> _future) {
+                results.add("late " + _future.getValue());
+            }
+        });
+        assertTrue(future.isSuccess());
+        assertEquals(GattFuture.STATUS_SUCCESS, future.getStatus());
+        assertEquals("[first a, late a]", results.toString());
+        assertTrue(future.getElapsedMillis() >= 0);
+    }
+
+    @Test
+    public void then_chainsAndSkipsAfterFailure() {
+        final GattFuture<Integer> write = new GattFuture<>();
+        GattFuture<String> first = new GattFuture<>();
+        GattFuture<String> chained = first.then(new GattFuture.Step<String, Integer>() {
+            @Override
+            public GattFuture<Integer> run(String _value) {
+                return write;
+            }
+        }).then(new GattFuture.Step<Integer, String>() {
+            @Override
+            public GattFuture<String> run(Integer _value) {
+                GattFuture<String> read = new GattFuture<>();
+                read.complete("read after " + _value);
+                return read;
+            }
+        });
+        first.complete("connected");
+        assertFalse(chained.isDone());
+        write.complete(20);
+        assertEquals("read after 20", chained.getValue());
+
+        final boolean[] ran = {false};
+        GattFuture<String> failed = new GattFuture<>();
+        GattFuture<String> skipped = failed.then(new GattFuture.Step<String, String>() {
+            @Override
+            public GattFuture<String> run(String _value) {
+                ran[0] = true;
+                return new GattFuture<>();
+            }
+        });
+        failed.fail(GattOperationQueue.STATUS_TIMEOUT);
+        assertFalse(ran[0]);
+        assertTrue(skipped.isDone());
+        assertEquals(GattOperationQueue.STATUS_TIMEOUT, skipped.getStatus());
+    }
+
+    @Test
+    public void executor_runsListenersAfterCompletion() {
+        final List<Runnable> posted = new ArrayList<>();
+        Executor executor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                posted.add(command);
+            }
+        };
+        final List<String> results = new ArrayList<>();
+        GattFuture<String> future = new GattFuture<>(executor);
+        GattFuture<String> chained = future.then(new GattFuture.Step<String, String>() {
+            @Override
+            public GattFuture<String> run(String _value) {
+                results.add("step " + _value);
+                GattFuture<String> next = new GattFuture<>();
+                next.complete(_value + "!");
+                return next;
+            }
+        });
+
+        // completed under a lock, nothing runs on the completing thread
+        future.complete("ok");
+        assertTrue(results.isEmpty());
+        assertEquals(1, posted.size());
+        posted.remove(0).run();
+        assertEquals("step ok", results.get(0));
+        assertEquals("ok!", chained.getValue());
+
+        // a listener added after completion is posted too
+        future.addListener(new GattFuture.Listener<String>() {
+            @Override
+            public void onComplete(GattFuture<String> _future) {
+                results.add("late " + _future.getValue());
+            }
+        });
+        assertEquals(1, results.size());
+        posted.remove(0).run();
+        assertEquals("late ok", results.get(1));
+    }
+
+    @Test
+    public void await_returnsOnCompletionFromAnotherThread() throws Exception {
+        final GattFuture<String> future = new GattFuture<>();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                future.fail(GattOperationQueue.STATUS_DISCONNECTED);
+            }
+        }).start();
+        assertEquals(GattOperationQueue.STATUS_DISCONNECTED, future.await(5, TimeUnit.SECONDS).getStatus());
+        assertNull(future.getValue());
+    }
+
+    @Test(expected = TimeoutException.class)
+    public void await_timesOut() throws Exception {
+        new GattFuture<String>().await(10, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,112 @@
+package com.exam.ble.central;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+/**
+ * Characteristic lookup by UUID against the string matching it replaces, excluded from the default test run.
+ * ./gradlew testDebugUnitTest -Pbenchmark --tests '*Benchmark'
+ */
+public class HandleCacheBenchmark {
+
+    private static final String SERVICE = "CB660002-4339-FF22-A1ED-DEBFED27BDB4";
+    private static final String CHARACTERISTIC = "CB660004-4339-FF22-A1ED-DEBFED27BDB4";
+
+    /**
+     * Service of a gatt, characteristics stand in for BluetoothGattCharacteristic
+     */
+    private static class Service {
+        final UUID uuid;
+        final List<UUID> characteristics = new ArrayList<>();
+
+        Service(UUID _uuid) {
+            uuid = _uuid;
+        }
+    }
+
+    /**
+     * A gatt with a few standard services before the command service
+     */
+    private static List<Service> services() {
+        List<Service> services = new ArrayList<>();
+        String[] standard = {"00001800", "00001801", "0000180a", "0000180f"};
+        for (String prefix : standard) {
+            Service service = new Service(UUID.fromString(prefix + "-0000-1000-8000-00805f9b34fb"));
+            for (int i = 0; i < 4; i++) {
+                service.characteristics.add(new UUID(service.uuid.getMostSignificantBits() + i + 1, service.uuid.getLeastSignificantBits()));
+            }
+            services.add(service);
+        }
+        Service command = new Service(UUID.fromString(SERVICE));
+        command.characteristics.add(UUID.fromString("CB660003-4339-FF22-A1ED-DEBFED27BDB4"));
+        command.characteristics.add(UUID.fromString(CHARACTERISTIC));
+        services.add(command);
+        return services;
+    }
+
+    /**
+     * Lookup as BluetoothUtils did it: uuid strings compared with equalsIgnoreCase
+     */
+    private static UUID findByString(List<Service> _services, String _uuid_string) {
+        for (Service service : _services) {
+            if (matchUUIDs(service.uuid.toString(), SERVICE)) {
+                for (UUID characteristic : service.characteristics) {
+                    if (matchUUIDs(characteristic.toString(), _uuid_string)) {
+                        return characteristic;
+                    }
+                }
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private static boolean matchUUIDs(String _uuid_string, String... _matches) {
+        for (String match : _matches) {
+            if (_uuid_string.equalsIgnoreCase(match)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void lookup_againstStringMatching() {
+        List<Service> services = services();
+        HandleCache<UUID> cache = new HandleCache<>();
+        for (UUID characteristic : services.get(services.size() - 1).characteristics) {
+            cache.put(characteristic, characteristic);
+        }
+        UUID key = UUID.fromString(CHARACTERISTIC);
+        assertEquals(findByString(services, CHARACTERISTIC), cache.get(key));
+
+        int rounds = 200000;
+        int found = 0;
+        // warm up both paths first
+        for (int i = 0; i < rounds; i++) {
+            found += findByString(services, CHARACTERISTIC) != null ? 1 : 0;
+            found += cache.get(key) != null ? 1 : 0;
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            found += findByString(services, CHARACTERISTIC) != null ? 1 : 0;
+        }
+        long string_elapsed = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            found += cache.get(key) != null ? 1 : 0;
+        }
+        long cache_elapsed = System.nanoTime() - start;
+
+        assertEquals(rounds * 4, found);
+        System.out.println("Characteristic lookup: string " + (string_elapsed / rounds) + " ns/op, cache "
+                + (cache_elapsed / rounds) + " ns/op");
+    }
+}
@@ -0,0 +1,31 @@
+package com.exam.ble.central;
+
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+/**
+ * Characteristic lookup by UUID.
+ */
+public class HandleCacheTest {
+
+    private static final String SERVICE = "CB660002-4339-FF22-A1ED-DEBFED27BDB4";
+    private static final String CHARACTERISTIC = "CB660004-4339-FF22-A1ED-DEBFED27BDB4";
+
+    @Test
+    public void put_keepsFirstHandle() {
+        HandleCache<String> cache = new HandleCache<>();
+        UUID uuid = UUID.fromString(CHARACTERISTIC);
+        cache.put(uuid, "first");
+        cache.put(uuid, "second");
+        assertEquals("first", cache.get(uuid));
+        assertEquals("first", cache.get(UUID.fromString(CHARACTERISTIC.toLowerCase())));
+        assertNull(cache.get(UUID.fromString(SERVICE)));
+
+        cache.clear();
+        assertTrue(cache.isEmpty());
+        assertNull(cache.get(uuid));
+    }
+}
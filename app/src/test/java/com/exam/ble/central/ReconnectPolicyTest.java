@@ -0,0 +1,28 @@
+package com.exam.ble.central;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ReconnectPolicyTest {
+
+    @Test
+    public void delay_growsWithinJitterBounds() {
+        ReconnectPolicy policy = new ReconnectPolicy(500, 30000, 0, new Random(1));
+        for (int attempt = 0; attempt < 40; attempt++) {
+            long full = Math.min(500L << Math.min(attempt, 30), 30000);
+            long delay = policy.getDelay(attempt);
+            assertTrue("attempt " + attempt + ": " + delay, delay >= full / 2 && delay <= full);
+        }
+    }
+
+    @Test
+    public void attempts_areLimited() {
+        ReconnectPolicy policy = new ReconnectPolicy(500, 30000, 3);
+        assertTrue(policy.canRetry(2));
+        assertFalse(policy.canRetry(3));
+        assertTrue(new ReconnectPolicy(500, 30000, 0).canRetry(1000));
+    }
+}
@@ -0,0 +1,70 @@
+package com.exam.ble.central;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+/**
+ * Saved form of the background scan devices.
+ */
+public class RegistryStoreTest {
+
+    private static final UUID SERVICE = UUID.fromString("CB660002-4339-FF22-A1ED-DEBFED27BDB4");
+
+    @Test
+    public void encode_decode_shiftsToWallClock() {
+        DeviceRegistry registry = new DeviceRegistry(8, 10000, 0.5f);
+        registry.update("AA:BB:CC:DD:EE:01", null, -70, 1000);
+        registry.update("AA:BB:CC:DD:EE:01", null, -60, 2000);
+        DeviceRegistry.Entry entry = registry.get("AA:BB:CC:DD:EE:01");
+        entry.name = "Sensor, 01";
+        entry.txPower = -7;
+        entry.serviceData.put(SERVICE, new byte[]{0x00, 0x7F, (byte) 0x80, (byte) 0xFF});
+
+        // saved in one boot, loaded in another where the elapsed realtime restarted
+        String value = RegistryStore.encode(entry, 1600000000000L);
+        DeviceRegistry.Entry loaded = RegistryStore.decode(entry.address, value, 1600000001500L);
+        assertNotNull(loaded);
+        assertEquals(500, loaded.lastSeen);
+        assertEquals(-500, loaded.firstSeen);
+        assertEquals(entry.rssi, loaded.rssi, 0.001f);
+        assertEquals(-60, loaded.lastRssi);
+        assertEquals(-7, loaded.txPower);
+        assertEquals(2, loaded.adCount);
+        assertEquals("Sensor, 01", loaded.name);
+        assertArrayEquals(new byte[]{0x00, 0x7F, (byte) 0x80, (byte) 0xFF}, loaded.serviceData.get(SERVICE));
+
+        entry.name = null;
+        entry.serviceData.clear();
+        loaded = RegistryStore.decode(entry.address, RegistryStore.encode(entry, 0), 0);
+        assertNull(loaded.name);
+        assertTrue(loaded.serviceData.isEmpty());
+    }
+
+    @Test
+    public void decode_malformedIsDropped() {
+        assertNull(RegistryStore.decode("A", "1,2,3", 0));
+        assertNull(RegistryStore.decode("A", "x,2,-60.0,-60,0,1,,name", 0));
+        assertNull(RegistryStore.decode("A", "1,2,-60.0,-60,0,1," + SERVICE + "=abc,name", 0));
+    }
+
+    @Test
+    public void restore_keepsEvictionOrder() {
+        DeviceRegistry registry = new DeviceRegistry(2, 10000, 0.5f);
+        DeviceRegistry source = new DeviceRegistry(8, 10000, 0.5f);
+        source.update("A", null, -50, 0);
+        source.update("B", null, -50, 100);
+        for (DeviceRegistry.Entry entry : source.snapshot()) {
+            registry.restore(entry);
+        }
+        registry.update("C", null, -50, 200);
+
+        List<DeviceRegistry.Entry> entries = registry.snapshot();
+        assertEquals(2, entries.size());
+        assertEquals("B", entries.get(0).address);
+        assertEquals("C", entries.get(1).address);
+    }
+}
@@ -0,0 +1,74 @@
+package com.exam.ble.central;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Scan result deduplication between two UI updates.
+ */
+public class ScanCoalescerTest {
+
+    @Test
+    public void offer_mergesSameAddress() {
+        ScanCoalescer<String> coalescer = new ScanCoalescer<>();
+        assertTrue(coalescer.offer("A", "a1"));
+        assertTrue(coalescer.offer("B", "b1"));
+        assertFalse(coalescer.offer("A", "a2"));
+
+        ScanCoalescer.Diff<String> diff = coalescer.drain();
+        assertEquals(Arrays.asList("a2", "b1"), diff.added);
+        assertTrue(diff.updated.isEmpty());
+        assertFalse(coalescer.hasPending());
+    }
+
+    @Test
+    public void drain_reportsKnownDevicesAsUpdated() {
+        ScanCoalescer<String> coalescer = new ScanCoalescer<>();
+        coalescer.offer("A", "a1");
+        coalescer.drain();
+
+        coalescer.offer("A", "a2");
+        coalescer.offer("A", "a3");
+        coalescer.offer("C", "c1");
+        ScanCoalescer.Diff<String> diff = coalescer.drain();
+        assertEquals(Arrays.asList("c1"), diff.added);
+        assertEquals(Arrays.asList("a3"), diff.updated);
+        assertEquals(2, coalescer.size());
+
+        assertTrue(coalescer.drain().isEmpty());
+        coalescer.clear();
+        assertTrue(coalescer.offer("A", "a4"));
+    }
+
+    @Test
+    public void manyAdvertisements_fewDiffs() {
+        ScanCoalescer<Integer> coalescer = new ScanCoalescer<>();
+        // 300 beacons advertising 20 times each between two updates
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 300; i++) {
+                coalescer.offer("dev" + i, round);
+            }
+        }
+        ScanCoalescer.Diff<Integer> diff = coalescer.drain();
+        assertEquals(300, diff.added.size());
+        assertEquals(Integer.valueOf(19), diff.added.get(0));
+    }
+
+    @Test
+    public void known_dropsLeastRecentlySeen() {
+        ScanCoalescer<String> coalescer = new ScanCoalescer<>(2);
+        coalescer.offer("A", "a1");
+        coalescer.offer("B", "b1");
+        coalescer.drain();
+
+        assertFalse(coalescer.offer("A", "a2"));
+        assertTrue(coalescer.offer("C", "c1"));
+        assertEquals(2, coalescer.size());
+        // B was dropped, A was seen more recently
+        assertTrue(coalescer.offer("B", "b2"));
+        assertFalse(coalescer.offer("C", "c2"));
+    }
+}
@@ -0,0 +1,99 @@
+package com.exam.ble.central;
+
+import com.exam.ble.protocol.AdRecord;
+
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+/**
+ * Filter counts and the masked software match.
+ */
+public class ScanMatchSpecTest {
+
+    private static final UUID SERVICE_A = UUID.fromString("0000fff0-0000-1000-8000-00805f9b34fb");
+    private static final UUID SERVICE_B = UUID.fromString("0000fee0-0000-1000-8000-00805f9b34fb");
+
+    @Test
+    public void filterCount_isProductOfKinds() {
+        ScanMatchSpec spec = new ScanMatchSpec.Builder()
+                .addServiceUuid(SERVICE_A)
+                .addServiceUuid(SERVICE_B)
+                .addManufacturerData(0x004C, new byte[]{0x02}, null)
+                .addAddress("aa:bb:cc:dd:ee:01")
+                .addAddress("AA:BB:CC:DD:EE:02")
+                .addAddress("AA:BB:CC:DD:EE:03")
+                .build();
+        assertEquals(6, spec.getFilterCount());
+        assertEquals(1, new ScanMatchSpec.Builder().build().getFilterCount());
+        assertEquals("AA:BB:CC:DD:EE:01", spec.addresses.get(0));
+    }
+
+    /**
+     * Advertisement with a 16-bit service uuid list and a manufacturer data
+     */
+    private static AdRecord advert(int _uuid16, byte... _manufacturer_data) {
+        byte[] bytes = new byte[3 + 4 + 4 + _manufacturer_data.length];
+        int i = 0;
+        // flags
+        bytes[i++] = 2;
+        bytes[i++] = AdRecord.TYPE_FLAGS;
+        bytes[i++] = 0x06;
+        // complete 16-bit uuids, little endian
+        bytes[i++] = 3;
+        bytes[i++] = AdRecord.TYPE_UUID16;
+        bytes[i++] = (byte) _uuid16;
+        bytes[i++] = (byte) (_uuid16 >> 8);
+        // manufacturer data of 0x004C
+        bytes[i++] = (byte) (3 + _manufacturer_data.length);
+        bytes[i++] = (byte) AdRecord.TYPE_MANUFACTURER_DATA;
+        bytes[i++] = 0x4C;
+        bytes[i++] = 0x00;
+        System.arraycopy(_manufacturer_data, 0, bytes, i, _manufacturer_data.length);
+        AdRecord record = new AdRecord();
+        assertTrue(record.parse(bytes));
+        return record;
+    }
+
+    @Test
+    public void uuidMask_comparesMaskedBitsOnly() {
+        // any 16-bit uuid 0xFFxx of the base uuid
+        UUID mask = UUID.fromString("ffffff00-ffff-ffff-ffff-ffffffffffff");
+        ScanMatchSpec.UuidMatch match = new ScanMatchSpec.UuidMatch(UUID.fromString("0000ff00-0000-1000-8000-00805f9b34fb"), mask);
+        assertTrue(match.matches(advert(0xFFF0)));
+        assertFalse(match.matches(advert(0xFEE0)));
+        assertTrue(new ScanMatchSpec.UuidMatch(SERVICE_B, null).matches(advert(0xFEE0)));
+    }
+
+    @Test
+    public void dataMask_matchesPrefix() {
+        ScanMatchSpec.DataMatch match = new ScanMatchSpec.DataMatch(0x004C, null,
+                new byte[]{0x02, 0x15, (byte) 0xA0}, new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xF0});
+        assertTrue(match.matches(advert(0xFFF0, (byte) 0x02, (byte) 0x15, (byte) 0xAF, (byte) 0x7F)));
+        assertFalse(match.matches(advert(0xFFF0, (byte) 0x02, (byte) 0x15, (byte) 0xB0)));
+        assertFalse(match.matches(advert(0xFFF0, (byte) 0x02, (byte) 0x15)));
+        assertFalse(new ScanMatchSpec.DataMatch(0x0059, null, new byte[0], null).matches(advert(0xFFF0)));
+    }
+
+    @Test
+    public void matches_andOfKinds() {
+        ScanMatchSpec spec = new ScanMatchSpec.Builder()
+                .addServiceUuid(SERVICE_A)
+                .addServiceUuid(SERVICE_B)
+                .addManufacturerData(0x004C, new byte[]{0x02}, null)
+                .addAddress("AA:BB:CC:DD:EE:01")
+                .build();
+        assertTrue(spec.matches("AA:BB:CC:DD:EE:01", advert(0xFEE0, (byte) 0x02)));
+        assertFalse(spec.matches("AA:BB:CC:DD:EE:02", advert(0xFEE0, (byte) 0x02)));
+        assertFalse(spec.matches("AA:BB:CC:DD:EE:01", advert(0xFEE0, (byte) 0x03)));
+        assertFalse(spec.matches("AA:BB:CC:DD:EE:01", advert(0x180F, (byte) 0x02)));
+        assertTrue(new ScanMatchSpec.Builder().build().matches("AA:BB:CC:DD:EE:02", advert(0x180F)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void dataMask_lengthMustMatch() {
+        new ScanMatchSpec.Builder().addServiceData(SERVICE_A, new byte[]{1, 2}, new byte[]{1});
+    }
+}
@@ -0,0 +1,52 @@
+package com.exam.ble.central;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Scan profile options and stop conditions.
+ */
+public class ScanProfileTest {
+
+    @Test
+    public void presets() {
+        assertFalse(ScanProfile.lowPower().isDutyCycled());
+        assertTrue(ScanProfile.lowPower().duration > 0);
+        assertEquals(0, ScanProfile.opportunistic().duration);
+
+        ScanProfile duty = ScanProfile.dutyCycled(2000, 10000);
+        assertTrue(duty.isDutyCycled());
+        assertEquals(0, duty.duration);
+    }
+
+    @Test
+    public void stopOnFound_matchesTarget() {
+        assertFalse(ScanProfile.lowLatency().isTarget("AA:BB:CC:DD:EE:FF"));
+        assertTrue(ScanProfile.lowLatency("AA:BB:CC:DD:EE:FF").isTarget("AA:BB:CC:DD:EE:FF"));
+        assertFalse(ScanProfile.lowLatency("AA:BB:CC:DD:EE:FF").isTarget("11:22:33:44:55:66"));
+        assertFalse(ScanProfile.lowPower().isTarget("AA:BB:CC:DD:EE:FF"));
+
+        ScanProfile profile = new ScanProfile.Builder().setStopOnFound(true, "aa:bb:cc:dd:ee:ff").build();
+        assertTrue(profile.isTarget("AA:BB:CC:DD:EE:FF"));
+        assertFalse(profile.isTarget("11:22:33:44:55:66"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void stopOnFound_needsTarget() {
+        new ScanProfile.Builder().setStopOnFound(true, null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void dutyCycle_windowLongerThanInterval() {
+        new ScanProfile.Builder().setDutyCycle(5000, 4000);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void opportunistic_cannotBeDutyCycled() {
+        new ScanProfile.Builder()
+                .setScanMode(android.bluetooth.le.ScanSettings.SCAN_MODE_OPPORTUNISTIC)
+                .setDutyCycle(1000, 8000)
+                .build();
+    }
+}
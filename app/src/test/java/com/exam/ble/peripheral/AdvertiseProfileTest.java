@@ -0,0 +1,40 @@
+package com.exam.ble.peripheral;
+
+import android.bluetooth.le.AdvertiseSettings;
+import android.bluetooth.le.AdvertisingSetParameters;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Advertise profile presets and set parameter mapping.
+ */
+public class AdvertiseProfileTest {
+
+    @Test
+    public void presets() {
+        assertFalse(AdvertiseProfile.balanced().hasFastPhase());
+        assertEquals(AdvertiseSettings.ADVERTISE_MODE_BALANCED, AdvertiseProfile.balanced().mode);
+
+        AdvertiseProfile profile = AdvertiseProfile.fastThenSlow();
+        assertTrue(profile.hasFastPhase());
+        assertEquals(AdvertiseSettings.ADVERTISE_MODE_LOW_LATENCY, profile.fastMode);
+        assertEquals(AdvertiseSettings.ADVERTISE_MODE_LOW_POWER, profile.mode);
+    }
+
+    @Test
+    public void modes_mapToSetIntervals() {
+        assertEquals(AdvertisingSetParameters.INTERVAL_LOW, AdvertiseProfile.toInterval(AdvertiseSettings.ADVERTISE_MODE_LOW_LATENCY));
+        assertEquals(AdvertisingSetParameters.INTERVAL_MEDIUM, AdvertiseProfile.toInterval(AdvertiseSettings.ADVERTISE_MODE_BALANCED));
+        assertEquals(AdvertisingSetParameters.INTERVAL_HIGH, AdvertiseProfile.toInterval(AdvertiseSettings.ADVERTISE_MODE_LOW_POWER));
+        assertEquals(AdvertisingSetParameters.TX_POWER_HIGH, AdvertiseProfile.toTxPower(AdvertiseSettings.ADVERTISE_TX_POWER_HIGH));
+        assertEquals(AdvertisingSetParameters.TX_POWER_ULTRA_LOW, AdvertiseProfile.toTxPower(AdvertiseSettings.ADVERTISE_TX_POWER_ULTRA_LOW));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void fastPhase_negativeDuration() {
+        new AdvertiseProfile.Builder().setFastPhase(AdvertiseSettings.ADVERTISE_MODE_LOW_LATENCY,
+                AdvertiseSettings.ADVERTISE_TX_POWER_HIGH, -1);
+    }
+}
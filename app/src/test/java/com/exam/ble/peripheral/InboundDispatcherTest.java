@@ -0,0 +1,66 @@
+package com.exam.ble.peripheral;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * Inbound message hand-off to the consumer.
+ */
+public class InboundDispatcherTest {
+
+    private static class Recorder implements InboundDispatcher.Consumer {
+        final List<byte[]> messages = new ArrayList<>();
+        final List<Thread> threads = new ArrayList<>();
+
+        @Override
+        public void onMessage(String source, byte[] message) {
+            messages.add(message);
+            threads.add(Thread.currentThread());
+        }
+    }
+
+    @Test
+    public void noExecutor_runsOnCallingThread() {
+        Recorder recorder = new Recorder();
+        InboundDispatcher dispatcher = new InboundDispatcher(recorder);
+        byte[] buffer = {1, 2, 3, 4};
+        dispatcher.dispatch("A", buffer, 3);
+        // the reassembly buffer is reused
+        buffer[0] = 9;
+
+        assertEquals(1, recorder.messages.size());
+        assertArrayEquals(new byte[]{1, 2, 3}, recorder.messages.get(0));
+        assertSame(Thread.currentThread(), recorder.threads.get(0));
+    }
+
+    @Test
+    public void executor_getsCopy() {
+        Recorder recorder = new Recorder();
+        InboundDispatcher dispatcher = new InboundDispatcher(recorder);
+        final List<Runnable> tasks = new ArrayList<>();
+        dispatcher.setExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        });
+        byte[] buffer = {1, 2};
+        dispatcher.dispatch("A", buffer, 2);
+        Arrays.fill(buffer, (byte) 0);
+        assertTrue(recorder.messages.isEmpty());
+
+        tasks.get(0).run();
+        assertArrayEquals(new byte[]{1, 2}, recorder.messages.get(0));
+
+        dispatcher.setExecutor(null);
+        dispatcher.dispatch("A", buffer, 1);
+        assertEquals(1, tasks.size());
+        assertEquals(2, recorder.messages.size());
+    }
+}
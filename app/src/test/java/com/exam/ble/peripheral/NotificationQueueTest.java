@@ -0,0 +1,177 @@
+package com.exam.ble.peripheral;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Per central notification queues.
+ */
+public class NotificationQueueTest {
+
+    private static List<byte[]> frames(int _count, int _first) {
+        byte[][] frames = new byte[_count][];
+        for (int i = 0; i < _count; i++) {
+            frames[i] = new byte[]{(byte) (_first + i)};
+        }
+        return Arrays.asList(frames);
+    }
+
+    @Test
+    public void poll_isRoundRobin() {
+        NotificationQueue queue = new NotificationQueue(16);
+        queue.subscribe("A");
+        queue.subscribe("B");
+        assertTrue(queue.offer("A", frames(2, 0)));
+        assertTrue(queue.offer("B", frames(2, 10)));
+
+        StringBuilder order = new StringBuilder();
+        NotificationQueue.Pending pending;
+        while ((pending = queue.poll()) != null) {
+            order.append(pending.address).append(pending.frame[0]).append(' ');
+            queue.onSent(pending.address);
+        }
+        assertEquals("A0 B10 A1 B11 ", order.toString());
+    }
+
+    @Test
+    public void bulkChannel_doesNotBlockCommands() {
+        NotificationQueue queue = new NotificationQueue(4);
+        queue.subscribe("A");
+        // bulk channel is full, commands still fit
+        assertTrue(queue.offer("A", 1, frames(4, 0)));
+        assertFalse(queue.offer("A", 1, frames(1, 4)));
+        assertTrue(queue.offer("A", 0, frames(2, 10)));
+        assertEquals(6, queue.size("A"));
+
+        StringBuilder order = new StringBuilder();
+        NotificationQueue.Pending pending;
+        while ((pending = queue.poll()) != null) {
+            order.append(pending.channel).append(':').append(pending.frame[0]).append(' ');
+            queue.onSent(pending.address);
+        }
+        assertEquals("0:10 1:0 0:11 1:1 1:2 1:3 ", order.toString());
+    }
+
+    @Test
+    public void clearChannel_keepsOtherChannels() {
+        NotificationQueue queue = new NotificationQueue(16);
+        queue.subscribe("A");
+        queue.offer("A", 0, frames(2, 0));
+        queue.offer("A", 1, frames(3, 10));
+        assertEquals(3, queue.clear("A", 1));
+        assertEquals(2, queue.size("A"));
+        assertEquals(0, queue.poll().channel);
+    }
+
+    @Test
+    public void slowSubscriber_doesNotBlockOthers() {
+        NotificationQueue queue = new NotificationQueue(16);
+        queue.subscribe("slow");
+        queue.subscribe("fast");
+        queue.offer("slow", frames(3, 0));
+        queue.offer("fast", frames(3, 10));
+
+        // the stack rejects the slow central
+        NotificationQueue.Pending rejected = queue.poll();
+        assertEquals("slow", rejected.address);
+        queue.onFailed(rejected.address);
+
+        for (int i = 0; i < 3; i++) {
+            NotificationQueue.Pending pending = queue.poll();
+            assertEquals("fast", pending.address);
+            assertEquals(10 + i, pending.frame[0]);
+            queue.onSent(pending.address);
+        }
+        assertNull(queue.poll());
+
+        // resumed in order
+        queue.resume("slow");
+        NotificationQueue.Pending pending = queue.poll();
+        assertEquals("slow", pending.address);
+        assertEquals(0, pending.frame[0]);
+        assertEquals(3, queue.size("slow"));
+    }
+
+    @Test
+    public void nextFrame_waitsForSent() {
+        NotificationQueue queue = new NotificationQueue(16);
+        queue.subscribe("A");
+        queue.offer("A", frames(2, 0));
+
+        assertEquals(0, queue.poll().frame[0]);
+        // nothing until onNotificationSent
+        assertNull(queue.poll());
+        queue.onSent("A");
+        assertEquals(1, queue.poll().frame[0]);
+        assertNull(queue.poll());
+        queue.onSent("A");
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void drainRate_ofConfirmedFrames() {
+        NotificationQueue queue = new NotificationQueue(256);
+        queue.subscribe("A");
+        List<byte[]> frames = Arrays.asList(new byte[100], new byte[100], new byte[100], new byte[100]);
+        queue.offer("A", frames);
+
+        long second = 1000000000L;
+        long now = second;
+        for (int i = 0; i < frames.size(); i++) {
+            queue.poll();
+            queue.onSent("A", now);
+            now += second / 2;
+        }
+        // 300 bytes confirmed over the first 1.5 s window
+        assertEquals(200, queue.getBytesPerSecond("A", 2 * second));
+        assertEquals(0, queue.getBytesPerSecond("A", 10 * second));
+    }
+
+    @Test
+    public void offer_isBoundedPerSubscriber() {
+        NotificationQueue queue = new NotificationQueue(4);
+        queue.subscribe("A");
+        queue.subscribe("B");
+        assertTrue(queue.offer("A", frames(3, 0)));
+        // the whole message is refused, A keeps its queue
+        assertFalse(queue.offer("A", frames(2, 3)));
+        assertEquals(3, queue.size("A"));
+        assertTrue(queue.offer("B", frames(4, 0)));
+        assertFalse(queue.offer("C", frames(1, 0)));
+
+        assertEquals(3, queue.unsubscribe("A"));
+        assertFalse(queue.isSubscribed("A"));
+        assertEquals(Arrays.asList("B"), queue.getSubscribers());
+    }
+
+    @Test
+    public void controlFrames_goFirstAndIgnoreCapacity() {
+        NotificationQueue queue = new NotificationQueue(2);
+        assertFalse(queue.offerControl("A", new byte[]{20}));
+        queue.subscribe("A");
+        assertTrue(queue.offer("A", frames(2, 0)));
+        assertFalse(queue.offer("A", frames(1, 2)));
+        assertTrue(queue.offerControl("A", new byte[]{20}));
+        assertTrue(queue.offerControl("A", new byte[]{21}));
+        assertTrue(queue.offerControl("A", new byte[]{22}));
+        assertEquals(5, queue.size("A"));
+
+        // a rejected control frame keeps its place
+        NotificationQueue.Pending pending = queue.poll();
+        assertEquals(20, pending.frame[0]);
+        queue.onFailed("A");
+        queue.resume("A");
+
+        StringBuilder order = new StringBuilder();
+        while ((pending = queue.poll()) != null) {
+            order.append(pending.channel).append(':').append(pending.frame[0]).append(' ');
+            queue.onSent(pending.address);
+        }
+        assertEquals("0:20 0:21 0:22 0:0 0:1 ", order.toString());
+        assertEquals(0, queue.size());
+    }
+}
@@ -0,0 +1,57 @@
+package com.exam.ble.peripheral;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Prepared write buffering and execution.
+ */
+public class PreparedWriteBufferTest {
+
+    @Test
+    public void execute_assemblesParts() {
+        PreparedWriteBuffer buffer = new PreparedWriteBuffer(4096);
+        byte[] blob = new byte[3000];
+        for (int i = 0; i < blob.length; i++) {
+            blob[i] = (byte) i;
+        }
+        // parts of MTU 185 prepare writes
+        for (int offset = 0; offset < blob.length; offset += 180) {
+            byte[] part = Arrays.copyOfRange(blob, offset, Math.min(blob.length, offset + 180));
+            assertEquals(PreparedWriteBuffer.RESULT_OK, buffer.prepare(offset, part));
+        }
+        assertTrue(buffer.isPending());
+        assertArrayEquals(blob, buffer.execute(true));
+        assertFalse(buffer.isPending());
+        assertNull(buffer.execute(true));
+    }
+
+    @Test
+    public void cancel_dropsParts() {
+        PreparedWriteBuffer buffer = new PreparedWriteBuffer(64);
+        buffer.prepare(0, new byte[]{1, 2, 3});
+        assertNull(buffer.execute(false));
+        buffer.prepare(0, new byte[]{4});
+        assertArrayEquals(new byte[]{4}, buffer.execute(true));
+    }
+
+    @Test
+    public void overlappingPart_overwrites() {
+        PreparedWriteBuffer buffer = new PreparedWriteBuffer(64);
+        buffer.prepare(0, new byte[]{1, 2, 3, 4});
+        buffer.prepare(2, new byte[]{9});
+        assertArrayEquals(new byte[]{1, 2, 9, 4}, buffer.execute(true));
+    }
+
+    @Test
+    public void invalidParts_areRejected() {
+        PreparedWriteBuffer buffer = new PreparedWriteBuffer(8);
+        assertEquals(PreparedWriteBuffer.RESULT_INVALID_OFFSET, buffer.prepare(4, new byte[]{1}));
+        assertEquals(PreparedWriteBuffer.RESULT_OK, buffer.prepare(0, new byte[6]));
+        assertEquals(PreparedWriteBuffer.RESULT_TOO_LONG, buffer.prepare(6, new byte[3]));
+        assertEquals(6, buffer.execute(true).length);
+    }
+}
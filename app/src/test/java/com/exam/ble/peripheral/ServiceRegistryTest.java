@@ -0,0 +1,88 @@
+package com.exam.ble.peripheral;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+/**
+ * Registry of the GATT server services.
+ */
+public class ServiceRegistryTest {
+
+    private static GattServiceSpec service(String _service, String... _characteristics) {
+        GattServiceSpec.Builder builder = new GattServiceSpec.Builder(UUID.fromString(_service));
+        for (String characteristic : _characteristics) {
+            builder.addCharacteristic(new GattCharacteristicSpec.Builder(UUID.fromString(characteristic))
+                    .setProperties(BluetoothGattCharacteristic.PROPERTY_READ | BluetoothGattCharacteristic.PROPERTY_NOTIFY)
+                    .build());
+        }
+        return builder.build();
+    }
+
+    private static final String S1 = "00000001-0000-1000-8000-00805f9b34fb";
+    private static final String S2 = "00000002-0000-1000-8000-00805f9b34fb";
+    private static final String C1 = "00000011-0000-1000-8000-00805f9b34fb";
+    private static final String C2 = "00000012-0000-1000-8000-00805f9b34fb";
+    private static final String C3 = "00000013-0000-1000-8000-00805f9b34fb";
+
+    @Test
+    public void services_areAddedOneAtATime() {
+        ServiceRegistry registry = new ServiceRegistry();
+        registry.register(service(S1, C1));
+        registry.register(service(S2, C2, C3));
+
+        GattServiceSpec first = registry.next();
+        assertEquals(UUID.fromString(S1), first.uuid);
+        // the second waits for onServiceAdded of the first
+        assertNull(registry.next());
+        assertFalse(registry.onAdded(UUID.fromString(S2)));
+        assertTrue(registry.onAdded(UUID.fromString(S1)));
+
+        assertEquals(UUID.fromString(S2), registry.next().uuid);
+        assertTrue(registry.onAdded(UUID.fromString(S2)));
+        assertNull(registry.next());
+        assertTrue(registry.isComplete());
+
+        // a new server gets every service again
+        registry.reset();
+        assertFalse(registry.isComplete());
+        assertEquals(UUID.fromString(S1), registry.next().uuid);
+    }
+
+    @Test
+    public void channels_followRegistrationOrder() {
+        ServiceRegistry registry = new ServiceRegistry();
+        registry.register(service(S1, C1));
+        registry.register(service(S2, C2, C3));
+        assertEquals(0, registry.get(UUID.fromString(C1)).index);
+        assertEquals(1, registry.get(UUID.fromString(C2)).index);
+        assertEquals(2, registry.get(UUID.fromString(C3)).index);
+        assertSame(registry.get(UUID.fromString(C3)), registry.get(2));
+        assertNull(registry.get(3));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void duplicateCharacteristic_isRejected() {
+        ServiceRegistry registry = new ServiceRegistry();
+        registry.register(service(S1, C1));
+        registry.register(service(S2, C1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void handler_needsWritableCharacteristic() {
+        new GattCharacteristicSpec.Builder(UUID.fromString(C1))
+                .setProperties(BluetoothGattCharacteristic.PROPERTY_READ)
+                .setHandler(new InboundHandler() {
+                    @Override
+                    public void onMessage(BluetoothDevice device, ByteBuffer message) {
+                    }
+                })
+                .build();
+    }
+}
@@ -0,0 +1,79 @@
+package com.exam.ble.peripheral;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Characteristic value snapshots per central.
+ */
+public class ValueStoreTest {
+
+    private static byte[] value(int _length, int _seed) {
+        byte[] value = new byte[_length];
+        for (int i = 0; i < _length; i++) {
+            value[i] = (byte) (_seed + i);
+        }
+        return value;
+    }
+
+    @Test
+    public void longRead_staysOnPinnedSnapshot() {
+        ValueStore store = new ValueStore(new byte[]{0, 0});
+        byte[] first = value(100, 0);
+        store.publish(first);
+
+        ValueStore.Snapshot start = store.read("A", 0);
+        assertArrayEquals(first, start.read(0));
+
+        // a new value while A is in the middle of its long read
+        store.publish(value(30, 50));
+        ValueStore.Snapshot next = store.read("A", 22);
+        assertSame(start, next);
+        assertEquals(78, next.read(22).length);
+        assertEquals(22, next.read(22)[0]);
+
+        // a new read sees the new value
+        assertEquals(30, store.read("A", 0).length());
+        assertEquals(30, store.read("B", 0).length());
+    }
+
+    @Test
+    public void offset_pastEndIsInvalid() {
+        ValueStore store = new ValueStore(value(10, 0));
+        ValueStore.Snapshot snapshot = store.read("A", 0);
+        assertEquals(0, snapshot.read(10).length);
+        assertNull(snapshot.read(11));
+        assertNull(snapshot.read(-1));
+    }
+
+    @Test
+    public void clientValue_overridesOlderSharedValue() {
+        ValueStore store = new ValueStore(new byte[]{0, 0});
+        store.publish(value(4, 0));
+        long version = store.publish("A", value(8, 0));
+
+        assertEquals(8, store.get("A").length());
+        assertEquals(version, store.get("A").version);
+        assertEquals(4, store.get("B").length());
+
+        // a newer broadcast replaces it
+        store.publish(value(2, 0));
+        assertEquals(2, store.get("A").length());
+
+        store.remove("A");
+        assertEquals(2, store.read("A", 5).length());
+    }
+
+    @Test
+    public void snapshot_isNotChangedByCaller() {
+        byte[] value = value(4, 0);
+        ValueStore store = new ValueStore(new byte[0]);
+        store.publish(value);
+        value[0] = 99;
+        byte[] read = store.get("A").read(0);
+        assertEquals(0, read[0]);
+        read[1] = 99;
+        assertEquals(1, store.get("A").read(0)[1]);
+    }
+}
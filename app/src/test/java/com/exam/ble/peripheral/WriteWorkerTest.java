@@ -0,0 +1,73 @@
+package com.exam.ble.peripheral;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Bounded write worker.
+ */
+public class WriteWorkerTest {
+
+    @Test
+    public void tasks_runInOrder() throws InterruptedException {
+        WriteWorker worker = new WriteWorker("test-write", 16);
+        final List<Integer> order = new ArrayList<>();
+        final CountDownLatch done = new CountDownLatch(100);
+        for (int i = 0; i < 100; i++) {
+            final int index = i;
+            assertTrue(worker.submit(new Runnable() {
+                @Override
+                public void run() {
+                    order.add(index);
+                    done.countDown();
+                }
+            }, 1000));
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(Integer.valueOf(i), order.get(i));
+        }
+        worker.quit();
+    }
+
+    @Test
+    public void fullQueue_pushesBack() throws InterruptedException {
+        WriteWorker worker = new WriteWorker("test-write", 2);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(1);
+        // a slow task holds the worker
+        worker.submit(new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ignored) {
+                }
+            }
+        }, 100);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        Runnable nothing = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+        assertTrue(worker.submit(nothing, 10));
+        assertTrue(worker.submit(nothing, 10));
+        long start = System.nanoTime();
+        assertFalse(worker.submit(nothing, 50));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(40));
+        assertEquals(2, worker.getPending());
+        assertEquals(1, worker.getRejectedCount());
+
+        release.countDown();
+        worker.quit();
+    }
+}
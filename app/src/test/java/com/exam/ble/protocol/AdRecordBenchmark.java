@@ -0,0 +1,75 @@
+package com.exam.ble.protocol;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static com.exam.ble.Constants.SERVICE_UUID;
+import static org.junit.Assert.*;
+
+/**
+ * In place AD structure parsing against the allocating parse of ScanRecord, excluded from the default test run.
+ * ./gradlew testDebugUnitTest -Pbenchmark --tests '*Benchmark'
+ */
+public class AdRecordBenchmark {
+
+    /**
+     * @return bytes allocated by the current thread, -1 if the JVM can not tell
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    @Test
+    public void againstAllocatingParse() {
+        byte[][] corpus = AdRecordTest.corpus();
+        long msb = SERVICE_UUID.getMostSignificantBits();
+        long lsb = SERVICE_UUID.getLeastSignificantBits();
+        AdRecord record = new AdRecord();
+
+        int rounds = 100000;
+        int ops = rounds * corpus.length;
+        long sum = 0;
+        // warm up both paths first
+        for (int i = 0; i < rounds; i++) {
+            for (byte[] bytes : corpus) {
+                sum += AdRecordTest.parseAllocating(bytes, SERVICE_UUID);
+                sum += AdRecordTest.parseInPlace(record, bytes, msb, lsb);
+            }
+        }
+
+        long allocated = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            for (byte[] bytes : corpus) {
+                sum += AdRecordTest.parseAllocating(bytes, SERVICE_UUID);
+            }
+        }
+        long allocating_elapsed = System.nanoTime() - start;
+        long allocating_bytes = allocatedBytes() - allocated;
+
+        allocated = allocatedBytes();
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            for (byte[] bytes : corpus) {
+                sum += AdRecordTest.parseInPlace(record, bytes, msb, lsb);
+            }
+        }
+        long in_place_elapsed = System.nanoTime() - start;
+        long in_place_bytes = allocatedBytes() - allocated;
+
+        assertTrue(sum > 0);
+        if (allocated >= 0) {
+            // the in place parse reuses the record
+            assertEquals(0, in_place_bytes / ops);
+        }
+        System.out.println("Advertisement parse: allocating " + (allocating_elapsed / ops) + " ns/op "
+                + (allocating_bytes / ops) + " B/op, in place " + (in_place_elapsed / ops) + " ns/op "
+                + (in_place_bytes / ops) + " B/op");
+    }
+}
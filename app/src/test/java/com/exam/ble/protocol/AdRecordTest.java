@@ -0,0 +1,239 @@
+package com.exam.ble.protocol;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static com.exam.ble.Constants.SERVICE_UUID;
+import static org.junit.Assert.*;
+
+/**
+ * In place AD structure parsing, checked against the allocating parse of ScanRecord.
+ */
+public class AdRecordTest {
+
+    /**
+     * iBeacon of Apple, manufacturer data only
+     */
+    private static byte[] iBeacon() {
+        byte[] bytes = new byte[30];
+        byte[] head = {2, AdRecord.TYPE_FLAGS, 0x06, 26, (byte) AdRecord.TYPE_MANUFACTURER_DATA, 0x4C, 0x00, 0x02, 0x15};
+        System.arraycopy(head, 0, bytes, 0, head.length);
+        for (int i = head.length; i < bytes.length - 1; i++) {
+            bytes[i] = (byte) i;
+        }
+        bytes[bytes.length - 1] = (byte) -59;
+        return bytes;
+    }
+
+    /**
+     * Eddystone-UID, 16-bit uuid list and service data of 0xFEAA
+     */
+    private static byte[] eddystone() {
+        byte[] bytes = new byte[31];
+        byte[] head = {2, AdRecord.TYPE_FLAGS, 0x06, 3, AdRecord.TYPE_UUID16, (byte) 0xAA, (byte) 0xFE,
+                23, AdRecord.TYPE_SERVICE_DATA16, (byte) 0xAA, (byte) 0xFE, 0x00, (byte) -20};
+        System.arraycopy(head, 0, bytes, 0, head.length);
+        return bytes;
+    }
+
+    /**
+     * Advertising data and scan response of our peripheral, with a broadcast message
+     */
+    private static byte[] peripheral(int _sequence) {
+        byte[] service_data = BroadcastCodec.encode(_sequence, new byte[]{1, 2, 3, 4});
+        byte[] bytes = new byte[62];
+        int i = 0;
+        bytes[i++] = 2;
+        bytes[i++] = AdRecord.TYPE_FLAGS;
+        bytes[i++] = 0x06;
+        bytes[i++] = 2;
+        bytes[i++] = AdRecord.TYPE_TX_POWER;
+        bytes[i++] = (byte) -7;
+        bytes[i++] = 17;
+        bytes[i++] = AdRecord.TYPE_UUID128;
+        i = putUuid(bytes, i, SERVICE_UUID);
+        // scan response
+        i = 31;
+        bytes[i++] = (byte) (17 + service_data.length);
+        bytes[i++] = AdRecord.TYPE_SERVICE_DATA128;
+        i = putUuid(bytes, i, SERVICE_UUID);
+        System.arraycopy(service_data, 0, bytes, i, service_data.length);
+        return bytes;
+    }
+
+    /**
+     * A named sensor with a partial 16-bit uuid list and zero padding
+     */
+    private static byte[] sensor() {
+        byte[] bytes = new byte[31];
+        byte[] head = {2, AdRecord.TYPE_FLAGS, 0x06, 5, AdRecord.TYPE_UUID16_PARTIAL, 0x0F, 0x18, 0x0A, 0x18,
+                9, AdRecord.TYPE_NAME, 'S', 'e', 'n', 's', 'o', 'r', '0', '1'};
+        System.arraycopy(head, 0, bytes, 0, head.length);
+        return bytes;
+    }
+
+    private static int putUuid(byte[] _bytes, int _offset, UUID _uuid) {
+        long lsb = _uuid.getLeastSignificantBits();
+        long msb = _uuid.getMostSignificantBits();
+        for (int i = 0; i < 8; i++) {
+            _bytes[_offset + i] = (byte) (lsb >>> (8 * i));
+            _bytes[_offset + 8 + i] = (byte) (msb >>> (8 * i));
+        }
+        return _offset + 16;
+    }
+
+    private static UUID uuid16(int _value) {
+        return new UUID((long) _value << 32 | 0x1000L, 0x800000805F9B34FBL);
+    }
+
+    @Test
+    public void parse_manufacturerData() {
+        AdRecord record = new AdRecord();
+        assertTrue(record.parse(iBeacon()));
+        assertEquals(2, record.size());
+        assertEquals(0x06, record.getFlags());
+        assertEquals(AdRecord.TX_POWER_NOT_PRESENT, record.getTxPowerLevel());
+
+        int index = record.findManufacturerData(0x004C);
+        assertEquals(1, index);
+        assertEquals(7, record.getDataOffset(index));
+        assertEquals(23, record.getDataLength(index));
+        assertTrue(record.dataStartsWith(index, new byte[]{0x02, 0x15}, null));
+        assertEquals(-1, record.findManufacturerData(0x0059));
+    }
+
+    @Test
+    public void parse_uuidsAndServiceData() {
+        AdRecord record = new AdRecord();
+        assertTrue(record.parse(peripheral(7)));
+        assertEquals(4, record.size());
+        assertEquals(-7, record.getTxPowerLevel());
+        assertTrue(record.hasServiceUuid(SERVICE_UUID));
+        assertFalse(record.hasServiceUuid(uuid16(0xFEAA)));
+
+        int index = record.findServiceData(SERVICE_UUID);
+        byte[] bytes = record.getBytes();
+        int offset = record.getDataOffset(index);
+        int length = record.getDataLength(index);
+        assertEquals(7, BroadcastCodec.sequence(bytes, offset, length));
+        assertArrayEquals(new byte[]{1, 2, 3, 4}, BroadcastCodec.payload(bytes, offset, length));
+
+        // 16-bit uuids are expanded with the base uuid
+        assertTrue(record.parse(sensor()));
+        assertTrue(record.hasServiceUuid(uuid16(0x180A)));
+        assertTrue(record.hasServiceUuid(uuid16(0x180F)));
+        assertEquals(-1, record.findServiceData(SERVICE_UUID));
+        assertTrue(record.parse(eddystone()));
+        assertEquals(2, record.getDataOffset(record.findServiceData(uuid16(0xFEAA))) - record.getOffset(2));
+    }
+
+    @Test
+    public void parse_truncatedKeepsEarlierStructures() {
+        byte[] bytes = Arrays.copyOf(iBeacon(), 20);
+        AdRecord record = new AdRecord();
+        assertFalse(record.parse(bytes));
+        assertEquals(1, record.size());
+        assertEquals(0x06, record.getFlags());
+        assertEquals(-1, record.findManufacturerData(0x004C));
+        assertFalse(record.parse(null));
+        assertEquals(0, record.size());
+    }
+
+    /**
+     * Parse as ScanRecord.parseFromBytes does: uuid lists, maps and a name per advertisement
+     */
+    static int parseAllocating(byte[] _bytes, UUID _service) {
+        List<UUID> uuids = new ArrayList<>();
+        Map<UUID, byte[]> service_data = new HashMap<>();
+        Map<Integer, byte[]> manufacturer_data = new HashMap<>();
+        String name = null;
+        int i = 0;
+        while (i < _bytes.length) {
+            int length = _bytes[i] & 0xFF;
+            if (length == 0) {
+                i++;
+                continue;
+            }
+            if (i + 1 + length > _bytes.length) {
+                break;
+            }
+            int type = _bytes[i + 1] & 0xFF;
+            int offset = i + 2;
+            int data_length = length - 1;
+            switch (type) {
+                case AdRecord.TYPE_UUID16_PARTIAL:
+                case AdRecord.TYPE_UUID16:
+                    for (int j = 0; j + 2 <= data_length; j += 2) {
+                        uuids.add(uuid16((_bytes[offset + j] & 0xFF) | (_bytes[offset + j + 1] & 0xFF) << 8));
+                    }
+                    break;
+                case AdRecord.TYPE_UUID128_PARTIAL:
+                case AdRecord.TYPE_UUID128:
+                    for (int j = 0; j + 16 <= data_length; j += 16) {
+                        uuids.add(readUuid(_bytes, offset + j));
+                    }
+                    break;
+                case AdRecord.TYPE_SERVICE_DATA16:
+                    service_data.put(uuid16((_bytes[offset] & 0xFF) | (_bytes[offset + 1] & 0xFF) << 8),
+                            Arrays.copyOfRange(_bytes, offset + 2, offset + data_length));
+                    break;
+                case AdRecord.TYPE_SERVICE_DATA128:
+                    service_data.put(readUuid(_bytes, offset), Arrays.copyOfRange(_bytes, offset + 16, offset + data_length));
+                    break;
+                case AdRecord.TYPE_MANUFACTURER_DATA:
+                    manufacturer_data.put((_bytes[offset] & 0xFF) | (_bytes[offset + 1] & 0xFF) << 8,
+                            Arrays.copyOfRange(_bytes, offset + 2, offset + data_length));
+                    break;
+                case AdRecord.TYPE_NAME:
+                    name = new String(_bytes, offset, data_length);
+                    break;
+                default:
+                    break;
+            }
+            i += 1 + length;
+        }
+        byte[] data = service_data.get(_service);
+        return (uuids.contains(_service) ? 1 : 0) + (data != null ? data.length : 0) + (name != null ? 1 : 0)
+                + manufacturer_data.size();
+    }
+
+    private static UUID readUuid(byte[] _bytes, int _offset) {
+        long lsb = 0;
+        long msb = 0;
+        for (int i = 7; i >= 0; i--) {
+            lsb = lsb << 8 | (_bytes[_offset + i] & 0xFF);
+            msb = msb << 8 | (_bytes[_offset + 8 + i] & 0xFF);
+        }
+        return new UUID(msb, lsb);
+    }
+
+    static int parseInPlace(AdRecord _record, byte[] _bytes, long _msb, long _lsb) {
+        _record.parse(_bytes);
+        int index = _record.findServiceData(_msb, _lsb);
+        return (_record.hasServiceUuid(_msb, _lsb) ? 1 : 0) + (index >= 0 ? _record.getDataLength(index) : 0)
+                + (_record.find(AdRecord.TYPE_NAME) >= 0 ? 1 : 0) + (_record.find(AdRecord.TYPE_MANUFACTURER_DATA) >= 0 ? 1 : 0);
+    }
+
+    /**
+     * Advertisements of the tests and the benchmark
+     */
+    static byte[][] corpus() {
+        return new byte[][]{iBeacon(), eddystone(), peripheral(1), sensor(), peripheral(2), iBeacon()};
+    }
+
+    @Test
+    public void parseInPlace_matchesAllocatingParse() {
+        long msb = SERVICE_UUID.getMostSignificantBits();
+        long lsb = SERVICE_UUID.getLeastSignificantBits();
+        AdRecord record = new AdRecord();
+        for (byte[] bytes : corpus()) {
+            assertEquals(parseAllocating(bytes, SERVICE_UUID), parseInPlace(record, bytes, msb, lsb));
+        }
+    }
+}
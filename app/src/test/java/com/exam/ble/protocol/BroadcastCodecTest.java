@@ -0,0 +1,40 @@
+package com.exam.ble.protocol;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Connectionless broadcast service data.
+ */
+public class BroadcastCodecTest {
+
+    @Test
+    public void encode_decode() {
+        byte[] payload = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12};
+        byte[] data = BroadcastCodec.encode(300, payload);
+        assertEquals(BroadcastCodec.MAX_SERVICE_DATA_SIZE, data.length);
+        assertEquals(300 & 0xFF, BroadcastCodec.sequence(data));
+        assertArrayEquals(payload, BroadcastCodec.payload(data));
+        assertEquals(-1, BroadcastCodec.sequence(new byte[0]));
+        assertEquals(-1, BroadcastCodec.sequence(null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void encode_payloadTooLarge() {
+        BroadcastCodec.encode(0, new byte[BroadcastCodec.MAX_PAYLOAD_SIZE + 1]);
+    }
+
+    @Test
+    public void filter_dropsRepeatsPerSource() {
+        BroadcastCodec.SequenceFilter filter = new BroadcastCodec.SequenceFilter(2);
+        assertTrue(filter.accept("A", 7));
+        assertFalse(filter.accept("A", 7));
+        assertTrue(filter.accept("B", 7));
+        assertTrue(filter.accept("A", 8));
+        // A is the most recent, B is forgotten when C arrives
+        assertTrue(filter.accept("C", 1));
+        assertTrue(filter.accept("B", 7));
+        assertFalse(filter.accept("C", 1));
+    }
+}
@@ -0,0 +1,41 @@
+package com.exam.ble.protocol;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Encode and reassembly throughput, excluded from the default test run.
+ * ./gradlew testDebugUnitTest -Pbenchmark --tests '*Benchmark'
+ */
+public class FrameCodecBenchmark {
+
+    @Test
+    public void throughput() {
+        BufferPool pool = new BufferPool(FrameCodec.MAX_PAYLOAD_SIZE, 4);
+        final long[] bytes = {0};
+        FrameAssembler assembler = new FrameAssembler(pool, new FrameAssembler.MessageListener() {
+            @Override
+            public void onMessage(String _source, int _message_id, byte[] _buffer, int _length) {
+                bytes[0] += _length;
+            }
+        });
+        byte[] payload = new byte[16 * 1024];
+        new Random(1).nextBytes(payload);
+        int rounds = 2000;
+
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            for (byte[] fragment : FrameCodec.encode(i, payload, 244)) {
+                assembler.onFragment("dev", fragment);
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+
+        assertEquals((long) rounds * payload.length, bytes[0]);
+        assertEquals(1, pool.getAllocatedCount());
+        System.out.println("FrameCodec: " + (bytes[0] * 1000L / Math.max(elapsed, 1)) + " MB/s");
+    }
+}
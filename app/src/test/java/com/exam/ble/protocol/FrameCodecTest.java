@@ -0,0 +1,122 @@
+package com.exam.ble.protocol;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Fragmentation and reassembly without a radio.
+ */
+public class FrameCodecTest {
+
+    private byte[] received;
+    private int receivedId;
+
+    private final FrameAssembler.MessageListener collector = new FrameAssembler.MessageListener() {
+        @Override
+        public void onMessage(String _source, int _message_id, byte[] _buffer, int _length) {
+            received = Arrays.copyOf(_buffer, _length);
+            receivedId = _message_id;
+        }
+    };
+
+    private static byte[] payload(int _size) {
+        byte[] payload = new byte[_size];
+        new Random(_size).nextBytes(payload);
+        return payload;
+    }
+
+    @Test
+    public void roundTrip_variousSizes() {
+        FrameAssembler assembler = new FrameAssembler(new BufferPool(FrameCodec.MAX_PAYLOAD_SIZE, 4), collector);
+        int[] sizes = {0, 1, 12, 13, 16, 28, 29, 500, 4096, FrameCodec.MAX_PAYLOAD_SIZE};
+        for (int size : sizes) {
+            byte[] payload = payload(size);
+            List<byte[]> fragments = FrameCodec.encode(size, payload, 20);
+            assertEquals(FrameCodec.fragmentCount(size, 20), fragments.size());
+
+            received = null;
+            for (int i = 0; i < fragments.size(); i++) {
+                byte[] fragment = fragments.get(i);
+                assertTrue(fragment.length <= 20);
+                int result = assembler.onFragment("dev", fragment);
+                assertEquals(i == fragments.size() - 1 ? FrameAssembler.RESULT_COMPLETE : FrameAssembler.RESULT_INCOMPLETE, result);
+            }
+            assertArrayEquals(payload, received);
+            assertEquals(size & 0xFF, receivedId);
+        }
+    }
+
+    @Test
+    public void lostFragment_dropsMessage() {
+        FrameAssembler assembler = new FrameAssembler(new BufferPool(FrameCodec.MAX_PAYLOAD_SIZE, 4), collector);
+        List<byte[]> fragments = FrameCodec.encode(1, payload(100), 20);
+        assembler.onFragment("dev", fragments.get(0));
+        assertEquals(FrameAssembler.RESULT_ERROR, assembler.onFragment("dev", fragments.get(2)));
+
+        received = null;
+        for (int i = 3; i < fragments.size(); i++) {
+            assembler.onFragment("dev", fragments.get(i));
+        }
+        assertNull(received);
+    }
+
+    @Test
+    public void sources_areIndependent() {
+        FrameAssembler assembler = new FrameAssembler(new BufferPool(FrameCodec.MAX_PAYLOAD_SIZE, 4), collector);
+        byte[] a = payload(60);
+        byte[] b = payload(70);
+        List<byte[]> fa = FrameCodec.encode(1, a, 20);
+        List<byte[]> fb = FrameCodec.encode(2, b, 20);
+        for (int i = 0; i < Math.max(fa.size(), fb.size()); i++) {
+            if (i < fa.size()) {
+                assembler.onFragment("a", fa.get(i));
+                if (i == fa.size() - 1) {
+                    assertArrayEquals(a, received);
+                }
+            }
+            if (i < fb.size()) {
+                assembler.onFragment("b", fb.get(i));
+                if (i == fb.size() - 1) {
+                    assertArrayEquals(b, received);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void reassembly_reusesPooledBuffers() {
+        BufferPool pool = new BufferPool(FrameCodec.MAX_PAYLOAD_SIZE, 4);
+        FrameAssembler assembler = new FrameAssembler(pool, new FrameAssembler.MessageListener() {
+            @Override
+            public void onMessage(String _source, int _message_id, byte[] _buffer, int _length) {
+            }
+        });
+        List<byte[]> fragments = FrameCodec.encode(7, payload(8 * 1024), 244);
+
+        for (int i = 0; i < 1000; i++) {
+            for (byte[] fragment : fragments) {
+                assembler.onFragment("dev", fragment);
+            }
+        }
+        assertEquals(1, pool.getAllocatedCount());
+    }
+
+    @Test
+    public void encode_smallestFragmentKeepsSequenceInRange() {
+        List<byte[]> fragments = FrameCodec.encode(1, payload(FrameCodec.MAX_PAYLOAD_SIZE), FrameCodec.FIRST_HEADER_SIZE + 1);
+        assertTrue(fragments.size() <= FrameCodec.MAX_FRAGMENT_COUNT);
+        assertEquals(fragments.size() - 1, FrameCodec.sequence(fragments.get(fragments.size() - 1)));
+    }
+
+    @Test
+    public void fragmentSize_keepsUnderAttributeLimit() {
+        assertEquals(20, FrameCodec.fragmentSize(23));
+        assertEquals(244, FrameCodec.fragmentSize(247));
+        assertEquals(512, FrameCodec.fragmentSize(517));
+    }
+}
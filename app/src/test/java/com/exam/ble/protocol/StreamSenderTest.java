@@ -0,0 +1,199 @@
+package com.exam.ble.protocol;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Credit stream between a StreamSender and a StreamReceiver over a simulated link.
+ */
+public class StreamSenderTest {
+
+    private final ArrayDeque<byte[]> link = new ArrayDeque<>();
+    private final ArrayDeque<byte[]> controls = new ArrayDeque<>();
+    private final List<byte[]> received = new ArrayList<>();
+    private final List<Integer> delivered = new ArrayList<>();
+    private final List<Integer> failed = new ArrayList<>();
+
+    private final StreamSender sender = new StreamSender(StreamSender.DEFAULT_WINDOW, new StreamSender.FragmentWriter() {
+        @Override
+        public void write(byte[] _fragment) {
+            link.add(_fragment);
+        }
+    }, new StreamSender.DeliveryListener() {
+        @Override
+        public void onDelivered(int _message_id, int _length) {
+            delivered.add(_message_id);
+        }
+
+        @Override
+        public void onFailed(int _message_id) {
+            failed.add(_message_id);
+        }
+    });
+
+    private final StreamReceiver receiver = new StreamReceiver(StreamSender.DEFAULT_WINDOW,
+            new BufferPool(FrameCodec.MAX_PAYLOAD_SIZE, 2), new FrameAssembler.MessageListener() {
+        @Override
+        public void onMessage(String _source, int _message_id, byte[] _buffer, int _length) {
+            byte[] copy = new byte[_length];
+            System.arraycopy(_buffer, 0, copy, 0, _length);
+            received.add(copy);
+        }
+    }, new StreamReceiver.ControlWriter() {
+        @Override
+        public void write(String _source, byte[] _frame) {
+            controls.add(_frame);
+        }
+    });
+
+    private static byte[] payload(int _size) {
+        byte[] payload = new byte[_size];
+        new Random(_size).nextBytes(payload);
+        return payload;
+    }
+
+    /**
+     * Deliver everything on the link in both directions
+     * @param _drop_index index of a fragment to lose, -1 for none
+     */
+    private void run(int _drop_index) {
+        int index = 0;
+        while (!link.isEmpty() || !controls.isEmpty()) {
+            // never more fragments in flight than the window
+            assertTrue(link.size() <= StreamSender.DEFAULT_WINDOW);
+            while (!link.isEmpty()) {
+                byte[] fragment = link.poll();
+                if (index++ != _drop_index) {
+                    receiver.onFragment("central", fragment);
+                }
+            }
+            while (!controls.isEmpty()) {
+                sender.onControl(controls.poll());
+            }
+        }
+    }
+
+    @Test
+    public void stream_respectsWindowAndDelivers() {
+        byte[] a = payload(5000);
+        byte[] b = payload(300);
+        int idA = sender.send(a, 244);
+        int idB = sender.send(b, 244);
+        assertEquals(0, sender.getCredits());
+
+        run(-1);
+
+        assertEquals(2, received.size());
+        assertArrayEquals(a, received.get(0));
+        assertArrayEquals(b, received.get(1));
+        assertEquals(idA, (int) delivered.get(0));
+        assertEquals(idB, (int) delivered.get(1));
+        assertEquals(0, sender.getPendingCount());
+        assertTrue(sender.getBytesPerSecond() > 0);
+    }
+
+    @Test
+    public void lostFragment_isRetransmitted() {
+        byte[] a = payload(2000);
+        sender.send(a, 100);
+
+        run(3);
+
+        assertEquals(1, received.size());
+        assertArrayEquals(a, received.get(0));
+        assertEquals(1, delivered.size());
+        assertTrue(failed.isEmpty());
+    }
+
+    @Test
+    public void reset_failsPendingMessages() {
+        int id = sender.send(payload(2000), 100);
+        sender.reset();
+
+        assertEquals(1, failed.size());
+        assertEquals(id, (int) failed.get(0));
+        assertEquals(StreamSender.DEFAULT_WINDOW, sender.getCredits());
+    }
+
+    @Test
+    public void lostLastFragment_isResentAfterAckTimeout() {
+        byte[] a = payload(150);
+        sender.send(a, 100);
+
+        // the last fragment is lost, nothing comes back
+        run(1);
+        assertTrue(received.isEmpty());
+        assertTrue(sender.onTick(System.nanoTime()));
+        assertTrue(link.isEmpty());
+
+        assertTrue(sender.onTick(System.nanoTime() + StreamSender.ACK_TIMEOUT * 2000000L));
+        run(-1);
+
+        assertEquals(1, received.size());
+        assertArrayEquals(a, received.get(0));
+        assertEquals(1, delivered.size());
+        assertFalse(sender.onTick(System.nanoTime() + StreamSender.ACK_TIMEOUT * 4000000L));
+    }
+
+    @Test
+    public void lostAck_isDeliveredOnce() {
+        sender.send(payload(50), 100);
+        while (!link.isEmpty()) {
+            receiver.onFragment("central", link.poll());
+        }
+        controls.clear();
+        assertEquals(1, received.size());
+        assertEquals(1, sender.getPendingCount());
+
+        // the credits are reset and the message is sent again, the receiver only acknowledges it
+        sender.onTick(System.nanoTime() + StreamSender.ACK_TIMEOUT * 2000000L);
+        run(-1);
+
+        assertEquals(1, received.size());
+        assertEquals(1, delivered.size());
+        assertEquals(0, sender.getPendingCount());
+    }
+
+    @Test
+    public void failedWrite_returnsCreditAndResends() {
+        byte[] a = payload(5000);
+        sender.send(a, 244);
+        assertEquals(0, sender.getCredits());
+
+        // the GATT queue failed the third write, the fragment never reached the receiver
+        byte[] lost = null;
+        ArrayDeque<byte[]> written = new ArrayDeque<>();
+        for (int i = 0; !link.isEmpty(); i++) {
+            byte[] fragment = link.poll();
+            if (i == 2) {
+                lost = fragment;
+            } else {
+                written.add(fragment);
+            }
+        }
+        link.addAll(written);
+        sender.onWriteFailed(lost);
+        run(-1);
+
+        assertEquals(1, received.size());
+        assertArrayEquals(a, received.get(0));
+        assertEquals(1, delivered.size());
+        assertTrue(failed.isEmpty());
+    }
+
+    @Test
+    public void send_refusesPastUnackedIds() {
+        for (int i = 0; i < StreamSender.MAX_UNACKED; i++) {
+            assertEquals(i, sender.send(new byte[1], 20));
+        }
+        assertEquals(-1, sender.send(new byte[1], 20));
+        run(-1);
+        assertEquals(StreamSender.MAX_UNACKED, sender.send(new byte[1], 20));
+    }
+}